@@ -0,0 +1,90 @@
+package benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+// Runs the benchmarks with the GC profiler (-prof gc) and checks the bytes allocated per operation
+// against alloc-budgets.properties, exiting with 1 if any goes over: an allocation regression fails the run.
+// A budget is looked up by benchmark and parameters ("CanvasStateBenchmark.renderWorld:figures=1000000")
+// and then by benchmark alone. The arguments go to JMH as they are (a regex to pick benchmarks, -f, -wi...).
+public class AllocationGate {
+
+    private static final String BUDGETS = "/alloc-budgets.properties";
+
+    public static void main(String[] args) throws Exception {
+        Properties budgets = loadBudgets();
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        List<String> over = new ArrayList<>();
+        System.out.println();
+        System.out.printf("%-70s %14s %14s%n", "Benchmark", "B/op", "Presupuesto");
+        for (RunResult result : results) {
+            BenchmarkParams params = result.getParams();
+            String name = shortName(params.getBenchmark());
+            String key = name + paramsSuffix(params);
+            double allocated = allocationPerOp(result);
+            String budget = budgets.getProperty(key, budgets.getProperty(name));
+            String verdict;
+            if (Double.isNaN(allocated)) verdict = "sin medición";
+            else if (budget == null) verdict = "sin presupuesto";
+            else if (allocated > Double.parseDouble(budget)) {
+                verdict = "EXCEDIDO";
+                over.add(String.format("%s: %.1f B/op, presupuesto %s", key, allocated, budget));
+            } else verdict = "ok";
+            System.out.printf("%-70s %14.1f %14s  %s%n", key, allocated, budget == null ? "-" : budget, verdict);
+        }
+        if (!over.isEmpty()) {
+            System.err.println();
+            System.err.println("Asignación por encima del presupuesto:");
+            for (String line : over) System.err.println("  " + line);
+            System.exit(1);
+        }
+    }
+
+    private static Properties loadBudgets() throws IOException {
+        Properties budgets = new Properties();
+        try (InputStream in = AllocationGate.class.getResourceAsStream(BUDGETS)) {
+            if (in == null) throw new IOException("No se encontró " + BUDGETS);
+            budgets.load(in);
+        }
+        return budgets;
+    }
+
+    // the GC profiler result, its label lost the leading "·" in recent JMH versions
+    private static double allocationPerOp(RunResult result) {
+        for (Map.Entry<String, Result> entry : result.getSecondaryResults().entrySet()) {
+            if (entry.getKey().endsWith("gc.alloc.rate.norm")) return entry.getValue().getScore();
+        }
+        return Double.NaN;
+    }
+
+    // "benchmarks.FigureBenchmark.contains" as "FigureBenchmark.contains"
+    private static String shortName(String benchmark) {
+        int method = benchmark.lastIndexOf('.');
+        return benchmark.substring(benchmark.lastIndexOf('.', method - 1) + 1);
+    }
+
+    private static String paramsSuffix(BenchmarkParams params) {
+        StringBuilder suffix = new StringBuilder();
+        for (String key : params.getParamsKeys()) suffix.append(':').append(key).append('=').append(params.getParam(key));
+        return suffix.toString();
+    }
+}
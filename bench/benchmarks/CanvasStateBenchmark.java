@@ -0,0 +1,117 @@
+package benchmarks;
+
+import backend.CanvasState;
+import backend.TagQuery;
+import backend.history.DeleteLayerCommand;
+import backend.history.History;
+import backend.model.Bounds;
+import backend.model.Figure;
+import backend.render.DetailPolicy;
+import backend.render.FigureDrawer;
+import backend.render.Renderer;
+import javafx.scene.paint.Color;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+// The canvas as the app goes through it: iterating every figure, the per-frame loop of the layer canvases
+// and deleting a layer. Figures are spread evenly over layers 0 to 2, half of them tagged "a".
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class CanvasStateBenchmark {
+
+    // the window of the app at scale 1
+    private static final double SCREEN_WIDTH = 1000, SCREEN_HEIGHT = 700;
+
+    @Param({"1000", "100000", "1000000"})
+    private int figures;
+
+    private CanvasState canvasState;
+    private TagQuery filter;
+    private Bounds screen, world;
+    private final boolean[] visibleLayers = {true, true, true};
+    private final FigureDrawer drawer = new FigureDrawer(20); // PaintPane.MAX_BORDER_WIDTH
+    private final DetailPolicy detailPolicy = new DetailPolicy();
+    private final Renderer renderer = new NullRenderer();
+    private final History history = new History();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        canvasState = Scenes.canvas(figures);
+        filter = canvasState.tagQuery("a");
+        double size = Scenes.side(figures) * Scenes.CELL;
+        world = new Bounds(0, 0, size, size);
+        double centerX = size / 2, centerY = size / 2;
+        screen = new Bounds(centerX - SCREEN_WIDTH / 2, centerY - SCREEN_HEIGHT / 2, centerX + SCREEN_WIDTH / 2, centerY + SCREEN_HEIGHT / 2);
+    }
+
+    // the copy-on-write list, rebuilt only when the figures change
+    @Benchmark
+    public void figures(Blackhole blackhole) {
+        for (Figure figure : canvasState.figures()) blackhole.consume(figure);
+    }
+
+    @Benchmark
+    public void figuresView(Blackhole blackhole) {
+        for (Figure figure : canvasState.figuresView()) blackhole.consume(figure);
+    }
+
+    // a frame of what is on screen
+    @Benchmark
+    public int renderScreen() {
+        return render(screen);
+    }
+
+    // a frame of the whole drawing, as an export or a fully zoomed out view without level of detail
+    @Benchmark
+    public int renderWorld() {
+        return render(world);
+    }
+
+    // what LayerManager does when a layer is deleted, and the undo that puts it back
+    @Benchmark
+    public void deleteLayer() {
+        history.perform(new DeleteLayerCommand(canvasState, 1));
+        history.undo();
+    }
+
+    // the loop of LayeredCanvas.paintLayer: layer visibility, culling, tag filter and level of detail,
+    // drawn on a surface that does nothing
+    private int render(Bounds area) {
+        int drawn = 0;
+        detailPolicy.startFrame();
+        for (int layer : canvasState.layers()) {
+            if (!visibleLayers[layer]) continue;
+            for (Figure figure : canvasState.figuresIn(layer, area.expand(drawer.maxRenderMargin()))) {
+                if (!filter.matches(figure) || !drawer.renderBounds(figure).intersects(area)) continue;
+                switch (detailPolicy.levelFor(figure, 1, false)) {
+                    case FULL: drawer.draw(renderer, figure); break;
+                    case FLAT: drawer.drawFlat(renderer, figure); break;
+                    case POINT: drawer.drawPoint(renderer, figure, 1); break;
+                    default: continue;
+                }
+                drawn++;
+            }
+        }
+        return drawn;
+    }
+
+    private static class NullRenderer implements Renderer {
+        @Override public void setFill(Color color) {}
+        @Override public void setLinearGradientFill(Color from, Color to, double x, double y, double width, double height) {}
+        @Override public void setRadialGradientFill(Color from, Color to, double x, double y, double width, double height) {}
+        @Override public void setStroke(Color color) {}
+        @Override public void setLineWidth(double width) {}
+        @Override public void setLineDashes(double... dashes) {}
+        @Override public void setGlobalAlpha(double alpha) {}
+        @Override public void fillRect(double x, double y, double width, double height) {}
+        @Override public void strokeRect(double x, double y, double width, double height) {}
+        @Override public void fillOval(double x, double y, double width, double height) {}
+        @Override public void strokeOval(double x, double y, double width, double height) {}
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import backend.model.Figure;
+import backend.model.Point;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Per-figure operations of the model, for every shape. contains goes over the whole drawing as a hit test
+// without the index would; divide and duplicate take one figure per call, cycling through all of them.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Thread)
+public class FigureBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int figures;
+
+    @Param({"RECTANGLE", "SQUARE", "ELLIPSE", "CIRCLE"})
+    private String shape;
+
+    private Figure[] scene;
+    private final Point[] probes = new Point[1024];
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scene = Scenes.figures(figures, shape);
+        Random random = new Random(1);
+        double size = Scenes.side(figures) * Scenes.CELL;
+        for (int i = 0; i < probes.length; i++) probes[i] = new Point(random.nextDouble() * size, random.nextDouble() * size);
+    }
+
+    @Benchmark
+    public int contains() {
+        Point probe = probes[next++ & (probes.length - 1)];
+        int hits = 0;
+        for (Figure figure : scene) if (figure.contains(probe)) hits++;
+        return hits;
+    }
+
+    @Benchmark
+    public List<Figure> divide() {
+        return scene[nextFigure()].divide();
+    }
+
+    @Benchmark
+    public Figure duplicate() {
+        return scene[nextFigure()].duplicate(10, 10);
+    }
+
+    private int nextFigure() {
+        if (++next >= figures) next = 0;
+        return next;
+    }
+}
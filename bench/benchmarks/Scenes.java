@@ -0,0 +1,61 @@
+package benchmarks;
+
+import backend.CanvasState;
+import backend.model.*;
+import javafx.scene.paint.Color;
+
+import java.util.Random;
+
+// Deterministic drawings for the benchmarks: figures on a grid of 20 units cells, so the density on screen
+// is the same whatever the size, spread over the three initial layers and tagged "a", "b" or both.
+final class Scenes {
+
+    static final double CELL = 20;
+
+    private static final String[] SHAPES = {"RECTANGLE", "SQUARE", "ELLIPSE", "CIRCLE"};
+    private static final Color[] COLORS = {Color.YELLOW, Color.CYAN, Color.ORANGE, Color.VIOLET};
+
+    private Scenes() {}
+
+    // side of the grid holding that many figures
+    static int side(int figures) {
+        return (int) Math.ceil(Math.sqrt(figures));
+    }
+
+    static Figure[] figures(int count, String shape) {
+        Random random = new Random(count);
+        Figure[] figures = new Figure[count];
+        for (int i = 0; i < count; i++) figures[i] = figure(i, side(count), shape, random);
+        return figures;
+    }
+
+    // every shape in turn, with a few shadows and dashed borders
+    static CanvasState canvas(int count) {
+        Random random = new Random(count);
+        CanvasState canvasState = new CanvasState();
+        int side = side(count);
+        for (int i = 0; i < count; i++) {
+            Figure figure = figure(i, side, SHAPES[i % SHAPES.length], random);
+            figure.setLayer(i % 3);
+            figure.setFillColor1(COLORS[i % COLORS.length]);
+            if (i % 7 == 0) figure.setShadowType(ShadowType.SIMPLE);
+            if (i % 5 == 0) figure.setBorderType(BorderType.DOTTED_SIMPLE);
+            figure.addTag(i % 2 == 0 ? "a" : "b");
+            if (i % 3 == 0) figure.addTag("c");
+            canvasState.addFigure(figure);
+        }
+        return canvasState;
+    }
+
+    private static Figure figure(int i, int side, String shape, Random random) {
+        double x = (i % side) * CELL, y = (i / side) * CELL;
+        double width = 5 + random.nextDouble() * 10, height = 5 + random.nextDouble() * 10;
+        switch (shape) {
+            case "RECTANGLE": return new Rectangle(new Point(x, y), new Point(x + width, y + height));
+            case "SQUARE": return new Square(new Point(x, y), width);
+            case "ELLIPSE": return new Ellipse(new Point(x + width / 2, y + height / 2), width, height);
+            case "CIRCLE": return new Circle(new Point(x + width / 2, y + width / 2), width / 2);
+            default: throw new IllegalArgumentException("Figura desconocida: " + shape);
+        }
+    }
+}
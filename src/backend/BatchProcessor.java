@@ -0,0 +1,93 @@
+package backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Runs the per-figure part of a bulk operation (copies, halves, style snapshots, containment tests)
+// in chunks on a pool of workers, one per core. The caller waits for every chunk and gets the results
+// in the order of the input, then applies them on its own thread: nothing here touches the canvas state.
+// Batches under PARALLEL_THRESHOLD stay on the calling thread, the handoff would cost more than the work.
+public final class BatchProcessor {
+
+    public static final int PARALLEL_THRESHOLD = 2048;
+    private static final int MIN_CHUNK = 512;
+
+    private static final int WORKERS = Math.max(1, Runtime.getRuntime().availableProcessors());
+    private static final ExecutorService POOL = Executors.newFixedThreadPool(WORKERS, task -> {
+        Thread thread = new Thread(task, "figuras-lote");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private BatchProcessor() {}
+
+    // one result per item, in the same order
+    public static <T, R> List<R> map(List<T> items, Function<? super T, ? extends R> function) {
+        if (items.size() < PARALLEL_THRESHOLD) {
+            List<R> result = new ArrayList<>(items.size());
+            for (T item : items) result.add(function.apply(item));
+            return result;
+        }
+        List<List<R>> chunks = inChunks(items, chunk -> {
+            List<R> result = new ArrayList<>(chunk.size());
+            for (T item : chunk) result.add(function.apply(item));
+            return result;
+        });
+        List<R> result = new ArrayList<>(items.size());
+        for (List<R> chunk : chunks) result.addAll(chunk);
+        return result;
+    }
+
+    // every result of every item, flattened in order, as the halves of divided figures
+    public static <T, R> List<R> flatMap(List<T> items, Function<? super T, ? extends List<? extends R>> function) {
+        List<R> result = new ArrayList<>();
+        for (List<? extends R> part : map(items, function)) result.addAll(part);
+        return result;
+    }
+
+    // the items that pass the test, in order
+    public static <T> List<T> filter(List<T> items, Predicate<? super T> test) {
+        if (items.size() < PARALLEL_THRESHOLD) {
+            List<T> result = new ArrayList<>();
+            for (T item : items) if (test.test(item)) result.add(item);
+            return result;
+        }
+        List<List<T>> chunks = inChunks(items, chunk -> {
+            List<T> result = new ArrayList<>();
+            for (T item : chunk) if (test.test(item)) result.add(item);
+            return result;
+        });
+        List<T> result = new ArrayList<>();
+        for (List<T> chunk : chunks) result.addAll(chunk);
+        return result;
+    }
+
+    // a few chunks per worker so a slow one does not hold the rest back
+    private static <T, R> List<R> inChunks(List<T> items, Function<List<T>, R> work) {
+        int chunkSize = Math.max(MIN_CHUNK, items.size() / (WORKERS * 4) + 1);
+        List<Future<R>> futures = new ArrayList<>();
+        for (int from = 0; from < items.size(); from += chunkSize) {
+            List<T> chunk = items.subList(from, Math.min(items.size(), from + chunkSize));
+            futures.add(POOL.submit(() -> work.apply(chunk)));
+        }
+        List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<R> future : futures) results.add(future.get());
+        } catch (InterruptedException e) {
+            for (Future<R> future : futures) future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Operación en lote interrumpida", e);
+        } catch (ExecutionException e) {
+            for (Future<R> future : futures) future.cancel(true);
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Falló una operación en lote", e.getCause());
+        }
+        return results;
+    }
+}
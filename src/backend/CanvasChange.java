@@ -0,0 +1,196 @@
+package backend;
+
+import backend.model.Figure;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// What changed in a CanvasState, one figure or a whole transaction at a time.
+// Within a transaction the changes of each figure are coalesced: the old bounds, layer and tags are the ones
+// it had before the first change, the new ones are read from the figure. A figure added in the transaction
+// only shows up as added, one added and removed again does not show up at all.
+// A figure removed and added back shows up in both, applying the removals first leaves it where it ends.
+// A removed figure keeps the old bounds and layer of changes made before it went, so it is known where it was.
+// Figures paged in or out of a lazy document are not changes, the document did not change.
+// Deleting or restoring a whole layer shows up once as the layer, not as each of its figures: check the layer
+// of a figure against getRemovedLayers to know whether it went with it.
+// CanvasState reuses a single change for every transaction and resets it once the listeners return:
+// a drag reports a move on every mouse event, and filling the same collections again allocates nothing.
+// The moves are kept as primitives for the same reason, read them by index with getMovedCount.
+public final class CanvasChange {
+
+    private static final int INITIAL_MOVES = 16;
+
+    private boolean cleared = false;
+    private final Set<Figure> added = new LinkedHashSet<>();
+    private final Set<Figure> removed = new LinkedHashSet<>();
+    private final Set<Figure> styleChanged = new LinkedHashSet<>();
+    private final Map<Figure, Integer> oldLayers = new LinkedHashMap<>();
+    private final Map<Figure, List<String>> oldTags = new LinkedHashMap<>();
+    private final Set<Integer> removedLayers = new LinkedHashSet<>();
+    private final Set<Integer> restoredLayers = new LinkedHashSet<>();
+
+    // moved figures in the order they were first moved, with the bounds they had then, four values each
+    private final Map<Figure, Boolean> movedSet = new IdentityHashMap<>();
+    private Figure[] moved = new Figure[INITIAL_MOVES];
+    private double[] oldBounds = new double[4 * INITIAL_MOVES];
+    private int movedCount = 0;
+
+    private final Set<Figure> addedView = Collections.unmodifiableSet(added);
+    private final Set<Figure> removedView = Collections.unmodifiableSet(removed);
+    private final Set<Figure> styleChangedView = Collections.unmodifiableSet(styleChanged);
+    private final Map<Figure, Integer> oldLayersView = Collections.unmodifiableMap(oldLayers);
+    private final Map<Figure, List<String>> oldTagsView = Collections.unmodifiableMap(oldTags);
+    private final Set<Integer> removedLayersView = Collections.unmodifiableSet(removedLayers);
+    private final Set<Integer> restoredLayersView = Collections.unmodifiableSet(restoredLayers);
+
+    CanvasChange() {}
+
+    // every figure was dropped before the rest of the change, as when a document is opened
+    public boolean isCleared() { return cleared; }
+
+    public Set<Figure> getAdded() { return addedView; }
+
+    public Set<Figure> getRemoved() { return removedView; }
+
+    // figures that were moved or reshaped, getMoved(0) to getMoved(getMovedCount() - 1). The bounds they had
+    // before are getOldMinX(i) and so on, the new ones are the figure's own
+    public int getMovedCount() { return movedCount; }
+
+    public Figure getMoved(int i) { return moved[i]; }
+
+    public double getOldMinX(int i) { return oldBounds[4 * i]; }
+
+    public double getOldMinY(int i) { return oldBounds[4 * i + 1]; }
+
+    public double getOldMaxX(int i) { return oldBounds[4 * i + 2]; }
+
+    public double getOldMaxY(int i) { return oldBounds[4 * i + 3]; }
+
+    // fill colors, shadow or border
+    public Set<Figure> getStyleChanged() { return styleChangedView; }
+
+    // figures moved to another layer, with the layer they were in
+    public Map<Figure, Integer> getOldLayers() { return oldLayersView; }
+
+    public Map<Figure, List<String>> getOldTags() { return oldTagsView; }
+
+    // layers deleted with every figure in them
+    public Set<Integer> getRemovedLayers() { return removedLayersView; }
+
+    // deleted layers put back with every figure they had. A layer removed and restored shows up in both,
+    // as a figure does
+    public Set<Integer> getRestoredLayers() { return restoredLayersView; }
+
+    public boolean isEmpty() {
+        return !cleared && added.isEmpty() && removed.isEmpty() && movedCount == 0 && styleChanged.isEmpty()
+                && oldLayers.isEmpty() && oldTags.isEmpty() && removedLayers.isEmpty() && restoredLayers.isEmpty();
+    }
+
+    // total of figure changes, each figure counted once per kind of change and each layer once
+    public int size() {
+        return added.size() + removed.size() + movedCount + styleChanged.size() + oldLayers.size() + oldTags.size()
+                + removedLayers.size() + restoredLayers.size();
+    }
+
+    // back to no change at all, keeping the room the collections grew to
+    void reset() {
+        cleared = false;
+        clearFigures();
+    }
+
+    void cleared() {
+        cleared = true;
+        clearFigures();
+    }
+
+    private void clearFigures() {
+        added.clear();
+        removed.clear();
+        movedSet.clear();
+        Arrays.fill(moved, 0, movedCount, null);
+        movedCount = 0;
+        styleChanged.clear();
+        oldLayers.clear();
+        oldTags.clear();
+        removedLayers.clear();
+        restoredLayers.clear();
+    }
+
+    void figureAdded(Figure figure) {
+        added.add(figure);
+    }
+
+    void figureRemoved(Figure figure) {
+        if (added.remove(figure) && !removed.contains(figure)) {
+            // came and went within the change
+            forget(figure);
+            return;
+        }
+        removed.add(figure);
+    }
+
+    void geometryChanged(Figure figure, double minX, double minY, double maxX, double maxY) {
+        if (added.contains(figure) || movedSet.putIfAbsent(figure, Boolean.TRUE) != null) return;
+        if (movedCount == moved.length) {
+            moved = Arrays.copyOf(moved, 2 * movedCount);
+            oldBounds = Arrays.copyOf(oldBounds, 8 * movedCount);
+        }
+        moved[movedCount] = figure;
+        int at = 4 * movedCount++;
+        oldBounds[at] = minX;
+        oldBounds[at + 1] = minY;
+        oldBounds[at + 2] = maxX;
+        oldBounds[at + 3] = maxY;
+    }
+
+    void styleChanged(Figure figure) {
+        if (!added.contains(figure)) styleChanged.add(figure);
+    }
+
+    void layerChanged(Figure figure, int oldLayer) {
+        if (!added.contains(figure)) oldLayers.putIfAbsent(figure, oldLayer);
+    }
+
+    void tagsChanged(Figure figure, List<String> tags) {
+        if (!added.contains(figure)) oldTags.putIfAbsent(figure, List.copyOf(tags));
+    }
+
+    // figures added to the layer within the change went with it, so they are not there at all
+    void layerRemoved(int layer) {
+        if (!added.isEmpty()) {
+            added.removeIf(figure -> {
+                if (figure.getLayer() != layer) return false;
+                forget(figure);
+                return true;
+            });
+        }
+        // restored and deleted again within the change, as it was
+        if (!restoredLayers.remove(layer)) removedLayers.add(layer);
+    }
+
+    void layerRestored(int layer) {
+        restoredLayers.add(layer);
+    }
+
+    // a figure added within the change never has a move in it, the move of an added one is not kept
+    private void forget(Figure figure) {
+        styleChanged.remove(figure);
+        oldLayers.remove(figure);
+        oldTags.remove(figure);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s%d agregadas, %d borradas, %d movidas, %d con otro estilo, %d de capa, %d con otras etiquetas, "
+                        + "%d capas borradas, %d capas restauradas",
+                cleared ? "Vaciado, " : "", added.size(), removed.size(), movedCount, styleChanged.size(),
+                oldLayers.size(), oldTags.size(), removedLayers.size(), restoredLayers.size());
+    }
+}
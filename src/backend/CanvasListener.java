@@ -0,0 +1,9 @@
+package backend;
+
+// Gets every change to the figures of a CanvasState, see CanvasChange.
+// Changes outside a transaction arrive one at a time, a transaction arrives as a single change once it ends.
+// The change is only valid during the call: it is reset and reused for the next one, copy what has to be kept.
+@FunctionalInterface
+public interface CanvasListener {
+    void canvasChanged(CanvasChange change);
+}
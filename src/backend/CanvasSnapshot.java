@@ -0,0 +1,126 @@
+package backend;
+
+import backend.model.Bounds;
+import backend.model.Figure;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+// The figures of a CanvasState at one point in time, in paint order, detached from the canvas.
+// Taken with CanvasState.snapshot, it never changes afterwards: any number of threads can read it
+// (each with its own cursor) while the canvas keeps being edited.
+public final class CanvasSnapshot {
+
+    private final ColumnarFigureStore store;
+    private final int[] ids;
+    private final long[] orders;
+    private final long version;
+    private final boolean lazy;
+
+    CanvasSnapshot(ColumnarFigureStore store, int[] ids, long[] orders, long version, boolean lazy) {
+        this.store = store;
+        this.ids = ids;
+        this.orders = orders;
+        this.version = version;
+        this.lazy = lazy;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    // the CanvasState version it was taken at
+    public long getVersion() {
+        return version;
+    }
+
+    // with a lazy document the rows never paged in are not part of the copy, they are still in the file
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    // z-order the figure had on the canvas, as CanvasState.orderOf
+    public long getOrder(int row) {
+        return orders[row];
+    }
+
+    // the rows themselves, for DocumentFile to write a snapshot taken just for that
+    ColumnarFigureStore store() {
+        return store;
+    }
+
+    // flyweight over the rows, one per reading thread
+    public ColumnarFigureStore.Cursor cursor() {
+        return store.cursor();
+    }
+
+    // a new figure with the row's geometry, style, tags and id
+    public Figure toFigure(int row) {
+        Figure figure = store.toFigure(row);
+        figure.setId(ids[row]);
+        return figure;
+    }
+
+    // the layers that have figures, lowest first
+    public List<Integer> layers() {
+        List<Integer> layers = new ArrayList<>();
+        ColumnarFigureStore.Cursor cursor = store.cursor();
+        for (int row = 0; row < store.size(); row = firstRowAbove(cursor.getLayer())) {
+            cursor.moveTo(row);
+            layers.add(cursor.getLayer());
+        }
+        return layers;
+    }
+
+    // every figure of the layer in z-order, each row is read into a new figure as it is reached,
+    // so going through the whole copy does not hold all of them at once
+    public Iterable<Figure> figuresOf(int layer) {
+        int from = firstRowAbove(layer - 1), to = firstRowAbove(layer);
+        return () -> new Iterator<>() {
+            private int next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < to;
+            }
+
+            @Override
+            public Figure next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return toFigure(next++);
+            }
+        };
+    }
+
+    // the rows are in paint order, so sorted by layer: first row of a layer above the given one, size() if none
+    private int firstRowAbove(int layer) {
+        ColumnarFigureStore.Cursor cursor = store.cursor();
+        int low = 0, high = store.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cursor.moveTo(middle).getLayer() <= layer) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    // figures whose geometry intersects the area, in paint order
+    public List<Figure> figuresIn(Bounds area) {
+        List<Figure> result = new ArrayList<>();
+        ColumnarFigureStore.Cursor cursor = store.cursor();
+        for (int row = 0; row < store.size(); row++) {
+            cursor.moveTo(row);
+            if (cursor.getMaxX() >= area.getMinX() && cursor.getMinX() <= area.getMaxX()
+                    && cursor.getMaxY() >= area.getMinY() && cursor.getMinY() <= area.getMaxY()) {
+                result.add(toFigure(row));
+            }
+        }
+        return result;
+    }
+}
@@ -1,25 +1,512 @@
 package backend;
 
+import backend.model.Bounds;
 import backend.model.Figure;
+import backend.model.FigureObserver;
+import backend.model.Point;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+// Listeners get every change to the figures as a CanvasChange: added, removed, moved (with the old bounds),
+// restyled, moved to another layer or retagged, or whole layers deleted and restored. Changes made within a transaction reach them as a single one.
+// One writer (the FX thread) and any number of readers: every change runs as a transaction holding the write
+// lock, other threads read through snapshot() under the read lock, and through size() and getVersion().
+// The rest of the methods belong to the writer. A figure of the canvas changed outside a transaction opens
+// one around that single change, so readers never see it halfway either.
 public class CanvasState {
 
-    private final Collection<Figure> list = new ArrayList<>();
+    // figures live in one bucket per layer, iterating the buckets in order already gives paint order
+    private final NavigableMap<Integer, LayerBucket> layers = new TreeMap<>();
+    private final Iterable<Figure> readOnlyView = LayeredIterator::new;
+    private volatile int size = 0;
+
+    // figures get a dense id when first added, the tag index is keyed on it
+    private final TagIndex tagIndex = new TagIndex();
+    private int nextFigureId = 0;
+    // z-order key for the next figure, always above every figure added before
+    private long nextOrder = 0;
+
+    // set when the figures are paged in from a huge document instead of living all in memory
+    private LazyDocument document;
+
+    private final List<CanvasListener> listeners = new CopyOnWriteArrayList<>();
+    // changes of the transaction in progress, or of the single change being reported. It is the reused
+    // changeBuffer, unless a listener changes the canvas while that one is being reported
+    private CanvasChange pending;
+    private final CanvasChange changeBuffer = new CanvasChange();
+    private boolean reporting = false;
+    // old bounds of a moved figure, read from the index without allocating
+    private final double[] oldBounds = new double[4];
+
+    // the write lock is held by a transaction and reentrant for its thread, snapshot() takes the read lock.
+    // Fair, so a stream of copies can't keep the writer out: a copy asked for while it waits queues behind it
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
+    // a copy makes the chunks that changed in turns of this many rows under the read lock, and at most this
+    // many turns: a writer that keeps changing them can't hold it back, the last turn makes whatever is left
+    private static final int ROWS_PER_CHUNK_TURN = 8_192;
+    private static final int MAX_CHUNK_TURNS = 64;
+    private volatile Thread writer;
+    private int writeHolds = 0;
+
+    // a figure tells changing before it is touched and changed once it is done, the changes in between
+    // run within that transaction: the write lock covers the figure's fields too, also when the caller
+    // did not open a transaction of its own
+    private final FigureObserver figureObserver = new FigureObserver() {
+        @Override
+        public void changing(Figure figure) {
+            beginTransaction();
+            LayerBucket bucket = layers.get(figure.getLayer());
+            if (bucket != null) bucket.changed(figure);
+        }
+
+        @Override
+        public void changed(Figure figure) {
+            commitTransaction();
+        }
+
+        @Override
+        public void geometryChanged(Figure figure) {
+            LayerBucket bucket = layers.get(figure.getLayer());
+            if (bucket == null) return;
+            edited(figure);
+            // the index still has the bounds from before the change
+            boolean report = !listeners.isEmpty() && bucket.index().boundsOf(figure, oldBounds);
+            bucket.index().update(figure);
+            if (report) change().geometryChanged(figure, oldBounds[0], oldBounds[1], oldBounds[2], oldBounds[3]);
+        }
+
+        @Override
+        public void styleChanged(Figure figure) {
+            if ((listeners.isEmpty() && document == null) || !contains(figure)) return;
+            edited(figure);
+            if (!listeners.isEmpty()) change().styleChanged(figure);
+        }
+
+        @Override
+        public void layerChanged(Figure figure, int oldLayer) {
+            LayerBucket oldBucket = layers.get(oldLayer);
+            if (oldBucket == null || !oldBucket.contains(figure)) return;
+            edited(figure);
+            oldBucket.remove(figure);
+            bucketFor(figure.getLayer()).add(figure, nextOrder++);
+            version++;
+            if (!listeners.isEmpty()) change().layerChanged(figure, oldLayer);
+        }
+
+        @Override
+        public void tagsChanged(Figure figure, List<String> oldTags) {
+            if (!contains(figure)) return;
+            edited(figure);
+            tagIndex.update(figure, oldTags);
+            if (!listeners.isEmpty()) change().tagsChanged(figure, oldTags);
+        }
+    };
+
+    // an edited figure of a lazy document is never paged out, the history may hold on to it
+    private void edited(Figure figure) {
+        if (document != null) document.figureEdited(figure);
+    }
+
+    // figures the UI holds on to, as the selection. With a lazy document they are not paged out
+    // while pinned: a figure paged out and read again is a new object, edits to the old one would be lost
+    public void setPinned(Collection<Figure> figures) {
+        if (document != null) document.setPinned(figures);
+    }
+
+    // copy-on-write list for figures(): only rebuilt when the figure set changed since the last read
+    private volatile long version = 0;
+    private long figureListVersion = -1;
+    private List<Figure> figureList = List.of();
 
     public void addFigure(Figure figure) {
-        list.add(figure);
+        beginTransaction();
+        try {
+            if (figure.getId() < 0) figure.setId(nextFigureId++);
+            if (load(figure, nextOrder++)) figureAdded(figure);
+        } finally {
+            commitTransaction();
+        }
     }
 
     public void deleteFigure(Figure figure) {
-        list.remove(figure);
+        beginTransaction();
+        try {
+            if (!unload(figure)) return;
+            if (document != null) document.figureDeleted(figure);
+            if (!listeners.isEmpty()) change().figureRemoved(figure);
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    // puts back a figure that was deleted, at the z-order it had (see orderOf) instead of on top.
+    // The figure keeps its id, as when the autosave journal is replayed
+    public void restoreFigure(Figure figure, long order) {
+        beginTransaction();
+        try {
+            nextFigureId = Math.max(nextFigureId, figure.getId() + 1);
+            nextOrder = Math.max(nextOrder, order + 1);
+            if (load(figure, order)) figureAdded(figure);
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    // detaches the whole bucket of the layer, it can be put back as it was with restoreLayer
+    public DeletedLayer deleteLayer(int layer) {
+        beginTransaction();
+        try {
+            BitSet documentRows = document != null ? document.layerDeleted(layer) : new BitSet();
+            LayerBucket bucket = layers.remove(layer);
+            if (bucket == null) bucket = new LayerBucket(layer);
+            size -= bucket.size();
+            version++;
+            // reported as the layer, telling each figure would make deleting a big layer O(n) for every listener
+            if (!listeners.isEmpty()) change().layerRemoved(layer);
+            return new DeletedLayer(bucket, documentRows);
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    // the figures keep their observer and tag bits while detached, so the bucket goes back in one step
+    public void restoreLayer(DeletedLayer deletedLayer) {
+        LayerBucket bucket = deletedLayer.bucket();
+        LayerBucket current = layers.get(bucket.getLayer());
+        beginTransaction();
+        try {
+            if (current == null) {
+                layers.put(bucket.getLayer(), bucket);
+                size += bucket.size();
+                version++;
+                if (!listeners.isEmpty()) change().layerRestored(bucket.getLayer());
+            } else {
+                for (Figure figure : bucket.figures()) {
+                    if (load(figure, bucket.orderOf(figure))) figureAdded(figure);
+                }
+            }
+            if (document != null) document.layerRestored(deletedLayer.documentRows());
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    // drops every figure, as when a document is opened in place of the current one
+    public void clear() {
+        beginTransaction();
+        try {
+            for (LayerBucket bucket : layers.values()) {
+                for (Figure figure : bucket.figures()) figure.setObserver(null);
+            }
+            layers.clear();
+            tagIndex.clear(); // a lazy document reuses the ids from 0, stale bits would tag its figures
+            size = 0;
+            version++;
+            document = null;
+            if (!listeners.isEmpty()) change().cleared();
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    public void addListener(CanvasListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(CanvasListener listener) {
+        listeners.remove(listener);
+    }
+
+    // changes from here to the matching commitTransaction reach the listeners as a single change,
+    // and readers either see all of them or none. Transactions nest, only the outermost one reports
+    public void beginTransaction() {
+        if (writer == Thread.currentThread()) {
+            writeHolds++;
+            return;
+        }
+        lock.writeLock().lock();
+        writer = Thread.currentThread();
+        writeHolds = 1;
+    }
+
+    // the listeners are told once the lock is released, on the writer thread
+    public void commitTransaction() {
+        if (writer != Thread.currentThread()) throw new IllegalStateException("No hay una transacción abierta");
+        if (--writeHolds > 0) return;
+        CanvasChange change = pending;
+        pending = null;
+        writer = null;
+        lock.writeLock().unlock();
+        if (change == null) return;
+        boolean outer = !reporting;
+        reporting = true;
+        try {
+            if (!change.isEmpty()) {
+                // indexed so that telling the listeners does not allocate an iterator on every drag event
+                for (int i = 0; i < listeners.size(); i++) listeners.get(i).canvasChanged(change);
+            }
+        } finally {
+            if (outer) reporting = false;
+            if (change == changeBuffer) change.reset();
+        }
+    }
+
+    // runs the work as a single transaction, also if it fails halfway: what it did is still reported
+    public void inTransaction(Runnable work) {
+        beginTransaction();
+        try {
+            work.run();
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    private void figureAdded(Figure figure) {
+        if (!listeners.isEmpty()) change().figureAdded(figure);
+    }
+
+    private CanvasChange change() {
+        if (pending == null) pending = reporting ? new CanvasChange() : changeBuffer;
+        return pending;
+    }
+
+    // the document the figures are paged in from, null when every figure is in memory
+    public LazyDocument getDocument() {
+        return document;
+    }
+
+    // figures in memory, with a lazy document only the ones paged in so far. Safe from any thread
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(Figure figure) {
+        LayerBucket bucket = layers.get(figure.getLayer());
+        return bucket != null && bucket.contains(figure);
     }
 
+    // tag filter evaluated on the inverted index, see TagQuery for the syntax
+    public TagQuery tagQuery(String expression) {
+        return new TagQuery(tagIndex, () -> nextFigureId, expression);
+    }
+
+    public Set<Integer> layers() {
+        return Collections.unmodifiableSet(layers.keySet());
+    }
+
+    // immutable list in paint order, safe to keep while the canvas is being modified. The figures in it
+    // are the live ones: other threads take a snapshot instead
     public Iterable<Figure> figures() {
-        return List.copyOf(list);
+        if (figureListVersion != version) {
+            List<Figure> copy = new ArrayList<>(size);
+            for (LayerBucket bucket : layers.values()) copy.addAll(bucket.figures());
+            figureList = Collections.unmodifiableList(copy);
+            figureListVersion = version;
+        }
+        return figureList;
+    }
+
+    // zero-copy read-only view in paint order (by layer, then z-order) for callers
+    // that only iterate on the FX thread, it must not be held across changes to the canvas
+    public Iterable<Figure> figuresView() {
+        return readOnlyView;
+    }
+
+    // zero-copy read-only view of a single layer, in z-order
+    public Collection<Figure> figuresView(int layer) {
+        LayerBucket bucket = layers.get(layer);
+        return bucket == null ? List.of() : bucket.figures();
+    }
+
+    // every figure of the layer in z-order, also the ones of a lazy document that were never paged in.
+    // Those are read on the fly and not added to the canvas, for exports that go through the whole document
+    public Iterable<Figure> documentFigures(int layer) {
+        return document != null ? document.figuresOf(layer) : figuresView(layer);
+    }
+
+    // bumped on every add, delete or layer change, lets callers know if a cached result is stale. Safe from any thread
+    public long getVersion() {
+        return version;
+    }
+
+    // hit-testing: figures containing the point in paint order, the topmost one is the last
+    public List<Figure> figuresAt(Point point) {
+        if (document != null) document.pageInPoint(point.getX(), point.getY());
+        List<Figure> result = new ArrayList<>();
+        for (LayerBucket bucket : layers.values()) result.addAll(bucket.index().queryPoint(point));
+        return result;
+    }
+
+    // figures whose bounding box intersects the area, in paint order
+    public List<Figure> figuresIn(Bounds area) {
+        if (document != null) document.pageIn(area, false);
+        List<Figure> result = new ArrayList<>();
+        for (LayerBucket bucket : layers.values()) result.addAll(bucket.index().queryRect(area));
+        return result;
+    }
+
+    // figures of a single layer whose bounding box intersects the area, in z-order. For painting: with a lazy
+    // document an area that LazyDocument.isTooFarOut is not paged in, only the figures already in memory come back
+    public List<Figure> figuresIn(int layer, Bounds area) {
+        if (document != null) document.pageIn(area, true);
+        LayerBucket bucket = layers.get(layer);
+        return bucket == null ? List.of() : bucket.index().queryRect(area);
+    }
+
+    // starts paging figures in from the document, its rows take the first ids and z-orders
+    void attach(LazyDocument document, Collection<Integer> documentLayers, int rows) {
+        beginTransaction();
+        try {
+            clear();
+            this.document = document;
+            nextFigureId = Math.max(nextFigureId, rows);
+            nextOrder = Math.max(nextOrder, rows);
+            for (int layer : documentLayers) bucketFor(layer);
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    // adds a figure at the given z-order, used directly when paging a figure in
+    boolean load(Figure figure, long order) {
+        beginTransaction();
+        try {
+            if (!bucketFor(figure.getLayer()).add(figure, order)) return false;
+            figure.setObserver(figureObserver);
+            tagIndex.add(figure);
+            size++;
+            version++;
+            return true;
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    // removes a figure without telling the document, used directly when paging a figure out
+    boolean unload(Figure figure) {
+        beginTransaction();
+        try {
+            LayerBucket bucket = layers.get(figure.getLayer());
+            if (bucket == null || !bucket.remove(figure)) return false;
+            figure.setObserver(null);
+            tagIndex.remove(figure);
+            size--;
+            version++;
+            return true;
+        } finally {
+            commitTransaction();
+        }
+    }
+
+    // Copy of every figure in memory, in paint order, that any thread can take and keep.
+    // The buckets keep immutable copies of their figures by chunks of z-order and a change only drops the one
+    // of its chunk (see LayerBucket), so under the read lock a copy takes the chunks as they are and makes
+    // again the few that changed. The chunks changed since the last copy are made first in short turns,
+    // the lock is fair and a waiting writer gets in between them, and the chunks are joined once the lock
+    // is released: a save or export started during a drag holds the writer for a fraction of a millisecond.
+    // With a lazy document only the figures paged in are copied, see CanvasSnapshot.isLazy
+    public CanvasSnapshot snapshot() {
+        if (writer == Thread.currentThread()) return join(collectChunks()); // within a transaction nothing else writes
+        boolean ready = false;
+        for (int turn = 0; turn < MAX_CHUNK_TURNS && !ready; turn++) {
+            lockForReading();
+            try {
+                int budget = ROWS_PER_CHUNK_TURN;
+                ready = true;
+                for (LayerBucket bucket : layers.values()) {
+                    budget -= bucket.makeChunks(budget);
+                    ready &= bucket.chunksReady();
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        Chunks chunks;
+        lockForReading();
+        try {
+            chunks = collectChunks();
+        } finally {
+            lock.readLock().unlock();
+        }
+        return join(chunks);
+    }
+
+    private void lockForReading() {
+        try {
+            lock.readLock().lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Copia del dibujo interrumpida");
+        }
+    }
+
+    // the chunks of every bucket in paint order, with what the copy has to tell about the canvas at that point
+    private static final class Chunks {
+        private final List<LayerBucket.Chunk> chunks = new ArrayList<>();
+        private long version;
+        private boolean lazy;
+        private int rows;
+    }
+
+    private Chunks collectChunks() {
+        Chunks chunks = new Chunks();
+        for (LayerBucket bucket : layers.values()) bucket.collectChunks(chunks.chunks);
+        for (LayerBucket.Chunk chunk : chunks.chunks) chunks.rows += chunk.ids.length;
+        chunks.version = version;
+        chunks.lazy = document != null;
+        return chunks;
+    }
+
+    private static CanvasSnapshot join(Chunks chunks) {
+        ColumnarFigureStore store = new ColumnarFigureStore();
+        int[] ids = new int[chunks.rows];
+        long[] orders = new long[chunks.rows];
+        for (LayerBucket.Chunk chunk : chunks.chunks) {
+            System.arraycopy(chunk.ids, 0, ids, store.size(), chunk.ids.length);
+            System.arraycopy(chunk.orders, 0, orders, store.size(), chunk.orders.length);
+            store.append(chunk.store);
+        }
+        return new CanvasSnapshot(store, ids, orders, chunks.version, chunks.lazy);
+    }
+
+    // z-order key of the figure within its layer, -1 if it is not in the canvas
+    public long orderOf(Figure figure) {
+        LayerBucket bucket = layers.get(figure.getLayer());
+        return bucket == null ? -1 : bucket.orderOf(figure);
+    }
+
+    private LayerBucket bucketFor(int layer) {
+        return layers.computeIfAbsent(layer, LayerBucket::new);
+    }
+
+    private class LayeredIterator implements Iterator<Figure> {
+        private final Iterator<LayerBucket> buckets = layers.values().iterator();
+        private Iterator<Figure> current = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+            while (!current.hasNext() && buckets.hasNext()) {
+                current = buckets.next().figures().iterator();
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public Figure next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return current.next();
+        }
     }
 
 }
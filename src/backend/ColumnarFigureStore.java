@@ -0,0 +1,439 @@
+package backend;
+
+import backend.model.*;
+import javafx.scene.paint.Color;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact structure-of-arrays storage for very large documents.
+// Every figure is a row spread over primitive columns: the bounding box as doubles,
+// colors packed as ARGB ints, enums as bytes and tags as ids of a shared dictionary.
+// That is around 70 bytes per figure, against several hundred for a Figure object graph.
+// Rows are read through a reusable Cursor (flyweight, no allocation per row) and are only
+// turned into Figure objects with toFigure when they need to be edited.
+public class ColumnarFigureStore {
+
+    public static final byte RECTANGLE = 0;
+    public static final byte SQUARE = 1;
+    public static final byte ELLIPSE = 2;
+    public static final byte CIRCLE = 3;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final ShadowType[] SHADOW_TYPES = ShadowType.values();
+    private static final BorderType[] BORDER_TYPES = BorderType.values();
+
+    private int size = 0;
+
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private double[] minX = new double[INITIAL_CAPACITY];
+    private double[] minY = new double[INITIAL_CAPACITY];
+    private double[] maxX = new double[INITIAL_CAPACITY];
+    private double[] maxY = new double[INITIAL_CAPACITY];
+    private int[] fill1 = new int[INITIAL_CAPACITY];
+    private int[] fill2 = new int[INITIAL_CAPACITY];
+    private byte[] shadows = new byte[INITIAL_CAPACITY];
+    private byte[] borders = new byte[INITIAL_CAPACITY];
+    private double[] borderWidths = new double[INITIAL_CAPACITY];
+    private int[] layers = new int[INITIAL_CAPACITY];
+
+    // tags of row i are tagData[tagStart[i] .. tagStart[i] + tagCount[i]), as dictionary ids
+    private int[] tagStart = new int[INITIAL_CAPACITY];
+    private short[] tagCount = new short[INITIAL_CAPACITY];
+    private int[] tagData = new int[INITIAL_CAPACITY];
+    private int tagDataSize = 0;
+
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    private final List<String> tagNames = new ArrayList<>();
+
+    public static ColumnarFigureStore of(Iterable<Figure> figures) {
+        ColumnarFigureStore store = new ColumnarFigureStore();
+        for (Figure figure : figures) store.add(figure);
+        return store;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // appends a row with the figure data and returns its index
+    public int add(Figure figure) {
+        ensureCapacity(size + 1);
+        int row = size++;
+        set(row, figure);
+        return row;
+    }
+
+    // overwrites a row with the figure data, used to write back an edited figure
+    public void set(int row, Figure figure) {
+        checkRow(row);
+        types[row] = typeOf(figure);
+        minX[row] = figure.getMinX();
+        minY[row] = figure.getMinY();
+        maxX[row] = figure.getMaxX();
+        maxY[row] = figure.getMaxY();
+        fill1[row] = packArgb(figure.getFillColor1());
+        fill2[row] = packArgb(figure.getFillColor2());
+        shadows[row] = (byte) figure.getShadowType().ordinal();
+        borders[row] = (byte) figure.getBorderType().ordinal();
+        borderWidths[row] = figure.getBorderWidth();
+        layers[row] = figure.getLayer();
+        setTags(row, figure.getTags());
+    }
+
+    // appends every row of the other store with bulk copies, its tags are looked up in this dictionary
+    public void append(ColumnarFigureStore other) {
+        int at = size, rows = other.size;
+        ensureCapacity(at + rows);
+        System.arraycopy(other.types, 0, types, at, rows);
+        System.arraycopy(other.minX, 0, minX, at, rows);
+        System.arraycopy(other.minY, 0, minY, at, rows);
+        System.arraycopy(other.maxX, 0, maxX, at, rows);
+        System.arraycopy(other.maxY, 0, maxY, at, rows);
+        System.arraycopy(other.fill1, 0, fill1, at, rows);
+        System.arraycopy(other.fill2, 0, fill2, at, rows);
+        System.arraycopy(other.shadows, 0, shadows, at, rows);
+        System.arraycopy(other.borders, 0, borders, at, rows);
+        System.arraycopy(other.borderWidths, 0, borderWidths, at, rows);
+        System.arraycopy(other.layers, 0, layers, at, rows);
+        System.arraycopy(other.tagCount, 0, tagCount, at, rows);
+
+        int[] tagIdsOfOther = new int[other.tagNames.size()];
+        for (int i = 0; i < tagIdsOfOther.length; i++) tagIdsOfOther[i] = intern(other.tagNames.get(i));
+        ensureTagCapacity(tagDataSize + other.liveTagCount());
+        for (int row = 0; row < rows; row++) {
+            tagStart[at + row] = tagDataSize;
+            int from = other.tagStart[row];
+            for (int i = 0; i < other.tagCount[row]; i++) tagData[tagDataSize++] = tagIdsOfOther[other.tagData[from + i]];
+        }
+        size = at + rows;
+    }
+
+    // removes a row in O(1) by moving the last row into its place
+    public void remove(int row) {
+        checkRow(row);
+        int last = --size;
+        if (row != last) copyRow(last, row);
+    }
+
+    // materializes a row as a regular figure, with its style, layer and tags
+    public Figure toFigure(int row) {
+        checkRow(row);
+        Figure figure = createFigure(types[row], minX[row], minY[row], maxX[row], maxY[row]);
+        figure.setFillColor1(unpackArgb(fill1[row]));
+        figure.setFillColor2(unpackArgb(fill2[row]));
+        figure.setShadowType(SHADOW_TYPES[shadows[row]]);
+        figure.setBorderType(BORDER_TYPES[borders[row]]);
+        figure.setBorderWidth(borderWidths[row]);
+        figure.setLayer(layers[row]);
+        List<String> tags = new ArrayList<>(tagCount[row]);
+        for (int i = 0; i < tagCount[row]; i++) tags.add(tagNames.get(tagData[tagStart[row] + i]));
+        figure.replaceTags(tags);
+        return figure;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    // rough heap used by the columns, for comparison with the object representation
+    public long estimatedHeapBytes() {
+        long perRow = 1 + 5 * 8 + 2 * 4 + 1 + 1 + 4 + 4 + 2;
+        return perRow * types.length + 4L * tagData.length;
+    }
+
+    public int tagCount() {
+        return tagNames.size();
+    }
+
+    public String tagName(int tagId) {
+        return tagNames.get(tagId);
+    }
+
+    // rewrites the tag data without the slices of overwritten or removed rows
+    public void compactTags() {
+        int[] compacted = new int[Math.max(INITIAL_CAPACITY, tagDataSize)];
+        int next = 0;
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(tagData, tagStart[row], compacted, next, tagCount[row]);
+            tagStart[row] = next;
+            next += tagCount[row];
+        }
+        tagData = compacted;
+        tagDataSize = next;
+    }
+
+    // bytes taken by writeTo, alignment padding included
+    long serializedSize() {
+        long bytes = 3 * 4;
+        for (String tag : tagNames) bytes += 4 + tag.getBytes(StandardCharsets.UTF_8).length;
+        bytes = align(bytes, 8) + 5L * 8 * size;
+        bytes += 3L * 4 * size + 4L * liveTagCount();
+        bytes += 2L * size + 3L * size;
+        return bytes;
+    }
+
+    // writes the dictionary and then each column as one contiguous block, so reading it back
+    // is a handful of bulk copies. The tags are compacted first
+    void writeTo(ByteBuffer buffer) {
+        compactTags();
+        buffer.putInt(size);
+        buffer.putInt(tagNames.size());
+        buffer.putInt(tagDataSize);
+        for (String tag : tagNames) {
+            byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        pad(buffer, 8);
+        putDoubles(buffer, minX);
+        putDoubles(buffer, minY);
+        putDoubles(buffer, maxX);
+        putDoubles(buffer, maxY);
+        putDoubles(buffer, borderWidths);
+        putInts(buffer, fill1, size);
+        putInts(buffer, fill2, size);
+        putInts(buffer, layers, size);
+        putInts(buffer, tagData, tagDataSize);
+        buffer.asShortBuffer().put(tagCount, 0, size);
+        buffer.position(buffer.position() + 2 * size);
+        buffer.put(types, 0, size);
+        buffer.put(shadows, 0, size);
+        buffer.put(borders, 0, size);
+    }
+
+    // reads back what writeTo wrote, checking every value that is later used as an index.
+    // Files before DocumentFile.DOUBLE_BORDER_WIDTHS have the border widths as floats after the tags
+    static ColumnarFigureStore readFrom(ByteBuffer buffer, int version) {
+        boolean doubleWidths = version >= DocumentFile.DOUBLE_BORDER_WIDTHS;
+        int rows = buffer.getInt(), tags = buffer.getInt(), tagDataLength = buffer.getInt();
+        if (rows < 0 || tags < 0 || tagDataLength < 0) throw new IllegalArgumentException("Tamaños negativos");
+
+        ColumnarFigureStore store = new ColumnarFigureStore();
+        for (int i = 0; i < tags; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) throw new IllegalArgumentException("Etiqueta inválida");
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            store.intern(new String(bytes, StandardCharsets.UTF_8));
+        }
+        pad(buffer, 8);
+        if ((long) rows * (doubleWidths ? 57 : 53) + 4L * tagDataLength > buffer.remaining()) {
+            throw new IllegalArgumentException("Archivo truncado");
+        }
+
+        store.ensureCapacity(rows);
+        store.ensureTagCapacity(tagDataLength);
+        getDoubles(buffer, store.minX, rows);
+        getDoubles(buffer, store.minY, rows);
+        getDoubles(buffer, store.maxX, rows);
+        getDoubles(buffer, store.maxY, rows);
+        if (doubleWidths) getDoubles(buffer, store.borderWidths, rows);
+        getInts(buffer, store.fill1, rows);
+        getInts(buffer, store.fill2, rows);
+        getInts(buffer, store.layers, rows);
+        getInts(buffer, store.tagData, tagDataLength);
+        if (!doubleWidths) {
+            for (int row = 0; row < rows; row++) store.borderWidths[row] = buffer.getFloat();
+        }
+        buffer.asShortBuffer().get(store.tagCount, 0, rows);
+        buffer.position(buffer.position() + 2 * rows);
+        buffer.get(store.types, 0, rows);
+        buffer.get(store.shadows, 0, rows);
+        buffer.get(store.borders, 0, rows);
+
+        int next = 0;
+        for (int row = 0; row < rows; row++) {
+            if (store.types[row] < RECTANGLE || store.types[row] > CIRCLE
+                    || store.shadows[row] < 0 || store.shadows[row] >= SHADOW_TYPES.length
+                    || store.borders[row] < 0 || store.borders[row] >= BORDER_TYPES.length
+                    || store.tagCount[row] < 0) {
+                throw new IllegalArgumentException("Figura inválida en la fila " + row);
+            }
+            store.tagStart[row] = next;
+            next += store.tagCount[row];
+        }
+        if (next != tagDataLength) throw new IllegalArgumentException("Etiquetas inconsistentes");
+        for (int i = 0; i < tagDataLength; i++) {
+            if (store.tagData[i] < 0 || store.tagData[i] >= tags) throw new IllegalArgumentException("Etiqueta desconocida");
+        }
+        store.size = rows;
+        store.tagDataSize = tagDataLength;
+        return store;
+    }
+
+    // plain figure of the given type filling the bounding box, without style
+    static Figure createFigure(byte type, double minX, double minY, double maxX, double maxY) {
+        double centerX = (minX + maxX) / 2, centerY = (minY + maxY) / 2;
+        switch (type) {
+            case SQUARE:
+                return new Square(new Point(minX, minY), maxX - minX);
+            case ELLIPSE:
+                return new Ellipse(new Point(centerX, centerY), maxX - minX, maxY - minY);
+            case CIRCLE:
+                return new Circle(new Point(centerX, centerY), (maxX - minX) / 2);
+            default:
+                return new Rectangle(new Point(minX, minY), new Point(maxX, maxY));
+        }
+    }
+
+    public static int packArgb(Color color) {
+        return ((int) Math.round(color.getOpacity() * 255) << 24)
+                | ((int) Math.round(color.getRed() * 255) << 16)
+                | ((int) Math.round(color.getGreen() * 255) << 8)
+                | (int) Math.round(color.getBlue() * 255);
+    }
+
+    public static Color unpackArgb(int argb) {
+        return Color.rgb((argb >> 16) & 0xff, (argb >> 8) & 0xff, argb & 0xff, ((argb >>> 24) & 0xff) / 255.0);
+    }
+
+    public static byte typeOf(Figure figure) {
+        if (figure instanceof Square) return SQUARE;
+        if (figure instanceof Rectangle) return RECTANGLE;
+        if (figure instanceof Circle) return CIRCLE;
+        return ELLIPSE;
+    }
+
+    // flyweight view over one row at a time, moved with moveTo
+    public class Cursor {
+        private int row = -1;
+
+        public Cursor moveTo(int row) {
+            checkRow(row);
+            this.row = row;
+            return this;
+        }
+
+        public int getRow() { return row; }
+        public byte getType() { return types[row]; }
+        public double getMinX() { return minX[row]; }
+        public double getMinY() { return minY[row]; }
+        public double getMaxX() { return maxX[row]; }
+        public double getMaxY() { return maxY[row]; }
+        public int getFillArgb1() { return fill1[row]; }
+        public int getFillArgb2() { return fill2[row]; }
+        public ShadowType getShadowType() { return SHADOW_TYPES[shadows[row]]; }
+        public BorderType getBorderType() { return BORDER_TYPES[borders[row]]; }
+        public double getBorderWidth() { return borderWidths[row]; }
+        public int getLayer() { return layers[row]; }
+        public int getTagCount() { return tagCount[row]; }
+        public int getTagId(int i) { return tagData[tagStart[row] + i]; }
+
+        public boolean contains(double x, double y) {
+            if (types[row] == ELLIPSE || types[row] == CIRCLE) {
+                double rx = (maxX[row] - minX[row]) / 2, ry = (maxY[row] - minY[row]) / 2;
+                double dx = (x - centerX(row)) / rx, dy = (y - centerY(row)) / ry;
+                return dx * dx + dy * dy <= 1.0;
+            }
+            return x > minX[row] && x < maxX[row] && y > minY[row] && y < maxY[row];
+        }
+
+        public void translate(double diffX, double diffY) {
+            minX[row] += diffX; maxX[row] += diffX;
+            minY[row] += diffY; maxY[row] += diffY;
+        }
+    }
+
+    private double centerX(int row) {
+        return (minX[row] + maxX[row]) / 2;
+    }
+
+    private double centerY(int row) {
+        return (minY[row] + maxY[row]) / 2;
+    }
+
+    private void setTags(int row, List<String> tags) {
+        // tags are appended, rewritten rows leave their old slice behind until compactTags
+        ensureTagCapacity(tagDataSize + tags.size());
+        tagStart[row] = tagDataSize;
+        tagCount[row] = (short) tags.size();
+        for (String tag : tags) tagData[tagDataSize++] = intern(tag);
+    }
+
+    private int intern(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id == null) {
+            id = tagNames.size();
+            tagIds.put(tag, id);
+            tagNames.add(tag);
+        }
+        return id;
+    }
+
+    private void copyRow(int from, int to) {
+        types[to] = types[from];
+        minX[to] = minX[from]; minY[to] = minY[from];
+        maxX[to] = maxX[from]; maxY[to] = maxY[from];
+        fill1[to] = fill1[from]; fill2[to] = fill2[from];
+        shadows[to] = shadows[from]; borders[to] = borders[from];
+        borderWidths[to] = borderWidths[from];
+        layers[to] = layers[from];
+        tagStart[to] = tagStart[from]; tagCount[to] = tagCount[from];
+    }
+
+    private int liveTagCount() {
+        int count = 0;
+        for (int row = 0; row < size; row++) count += tagCount[row];
+        return count;
+    }
+
+    private void putDoubles(ByteBuffer buffer, double[] column) {
+        buffer.asDoubleBuffer().put(column, 0, size);
+        buffer.position(buffer.position() + 8 * size);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] column, int length) {
+        buffer.asIntBuffer().put(column, 0, length);
+        buffer.position(buffer.position() + 4 * length);
+    }
+
+    private static void getDoubles(ByteBuffer buffer, double[] column, int length) {
+        buffer.asDoubleBuffer().get(column, 0, length);
+        buffer.position(buffer.position() + 8 * length);
+    }
+
+    private static void getInts(ByteBuffer buffer, int[] column, int length) {
+        buffer.asIntBuffer().get(column, 0, length);
+        buffer.position(buffer.position() + 4 * length);
+    }
+
+    private static long align(long position, int alignment) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+
+    private static void pad(ByteBuffer buffer, int alignment) {
+        buffer.position((int) align(buffer.position(), alignment));
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) throw new IndexOutOfBoundsException("Fila inválida: " + row);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= types.length) return;
+        int newCapacity = Math.max(capacity, types.length * 2);
+        types = Arrays.copyOf(types, newCapacity);
+        minX = Arrays.copyOf(minX, newCapacity);
+        minY = Arrays.copyOf(minY, newCapacity);
+        maxX = Arrays.copyOf(maxX, newCapacity);
+        maxY = Arrays.copyOf(maxY, newCapacity);
+        fill1 = Arrays.copyOf(fill1, newCapacity);
+        fill2 = Arrays.copyOf(fill2, newCapacity);
+        shadows = Arrays.copyOf(shadows, newCapacity);
+        borders = Arrays.copyOf(borders, newCapacity);
+        borderWidths = Arrays.copyOf(borderWidths, newCapacity);
+        layers = Arrays.copyOf(layers, newCapacity);
+        tagStart = Arrays.copyOf(tagStart, newCapacity);
+        tagCount = Arrays.copyOf(tagCount, newCapacity);
+    }
+
+    private void ensureTagCapacity(int capacity) {
+        if (capacity > tagData.length) tagData = Arrays.copyOf(tagData, Math.max(capacity, tagData.length * 2));
+    }
+}
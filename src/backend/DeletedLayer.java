@@ -0,0 +1,34 @@
+package backend;
+
+import backend.model.Figure;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+// A layer taken out of a CanvasState, kept whole so it can be put back as it was.
+// Holds the detached bucket (figures, z-order and spatial index) and, with a lazy document,
+// the rows of the layer that were never paged in. Also whether the UI showed the layer, to show it the same way again.
+public final class DeletedLayer {
+
+    private final LayerBucket bucket;
+    private final BitSet documentRows;
+    private boolean visible = true;
+
+    DeletedLayer(LayerBucket bucket, BitSet documentRows) {
+        this.bucket = bucket;
+        this.documentRows = documentRows;
+    }
+
+    public int getLayer() { return bucket.getLayer(); }
+
+    // figures that were in memory when the layer was deleted, in z-order
+    public Collection<Figure> getFigures() { return bucket.figures(); }
+
+    public boolean isVisible() { return visible; }
+
+    public void setVisible(boolean visible) { this.visible = visible; }
+
+    LayerBucket bucket() { return bucket; }
+
+    BitSet documentRows() { return documentRows; }
+}
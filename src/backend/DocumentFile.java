@@ -0,0 +1,158 @@
+package backend;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Binary document format, read and written through memory-mapped files.
+// Layout (little endian):
+//   header: "TPEP" magic, int version, long payload length
+//   payload: the columns of a ColumnarFigureStore, with tags encoded as ids of a dictionary
+//   since version 2: a DocumentGrid after the columns, used to open huge documents lazily
+//   since version 3: border widths as doubles, next to the bounding boxes (floats after the tags before)
+// Figures are stored in paint order. Readers reject versions newer than their own.
+public final class DocumentFile {
+
+    public static final String EXTENSION = "tpe";
+    public static final int VERSION = 3;
+    static final int DOUBLE_BORDER_WIDTHS = 3;
+    // documents with at least this many figures are paged in instead of loaded whole
+    public static final int LAZY_THRESHOLD = 200_000;
+
+    private static final byte[] MAGIC = "TPEP".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 16;
+
+    private DocumentFile() {
+    }
+
+    // with a lazy document the figures that were never paged in are copied from it
+    public static void save(CanvasState canvasState, Path file) throws IOException {
+        save(contents(canvasState), file);
+    }
+
+    // what save writes. Without a lazy document it is a snapshot, so any thread can take it;
+    // a lazy document is read from its file, only from the thread that edits the canvas
+    public static ColumnarFigureStore contents(CanvasState canvasState) {
+        LazyDocument document = canvasState.getDocument();
+        return document != null ? document.toStore() : canvasState.snapshot().store();
+    }
+
+    // written to a temporary file first, the previous document survives a failed save
+    public static void save(ColumnarFigureStore store, Path file) throws IOException {
+        DocumentGrid grid = DocumentGrid.build(store);
+        long size = HEADER_SIZE + align(store.serializedSize()) + grid.serializedSize();
+        if (size > Integer.MAX_VALUE) throw new IOException("El dibujo es demasiado grande para guardarse");
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+                buffer.put(MAGIC);
+                buffer.putInt(VERSION);
+                buffer.putLong(size - HEADER_SIZE);
+                store.writeTo(buffer);
+                buffer.position(HEADER_SIZE + (int) align(store.serializedSize()));
+                grid.writeTo(buffer);
+                buffer.force();
+            }
+            try {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // a half written file is of no use, the one it was going to replace is still there
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    public static ColumnarFigureStore load(Path file) throws IOException {
+        MappedByteBuffer buffer = map(file);
+        int version = readVersion(buffer);
+        try {
+            return ColumnarFigureStore.readFrom(buffer, version);
+        } catch (IllegalArgumentException | BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("El archivo está dañado", e);
+        }
+    }
+
+    // opens the document in place of the figures of the canvas, huge ones are paged in as they are needed.
+    // Returns the number of figures in the document
+    public static int open(Path file, CanvasState canvasState) throws IOException {
+        MappedByteBuffer buffer = map(file);
+        int version = readVersion(buffer);
+        int figures = figureCount(buffer);
+        if (version >= 2 && figures >= LAZY_THRESHOLD) {
+            LazyDocument.attach(buffer, version, canvasState, file);
+        } else {
+            loadInto(file, canvasState);
+        }
+        return figures;
+    }
+
+    // open pages this document in instead of loading it whole
+    public static boolean opensLazily(Path file) throws IOException {
+        MappedByteBuffer buffer = map(file);
+        int version = readVersion(buffer);
+        return version >= 2 && figureCount(buffer) >= LAZY_THRESHOLD;
+    }
+
+    // replaces the figures of the canvas with the ones in the file, left untouched if the file can't be read
+    public static void loadInto(Path file, CanvasState canvasState) throws IOException {
+        ColumnarFigureStore store = load(file);
+        canvasState.inTransaction(() -> {
+            canvasState.clear();
+            for (int row = 0; row < store.size(); row++) canvasState.addFigure(store.toFigure(row));
+        });
+    }
+
+    // the mapping stays valid after the channel is closed
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) throw new IOException("El archivo no es un dibujo");
+            if (size > Integer.MAX_VALUE) throw new IOException("El dibujo es demasiado grande para abrirse");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    // checks the header and leaves the buffer at the start of the payload
+    private static int readVersion(MappedByteBuffer buffer) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("El archivo no es un dibujo");
+        int version = buffer.getInt();
+        if (version < 1 || version > VERSION) throw new IOException("Versión de archivo no soportada: " + version);
+        long payload = buffer.getLong();
+        if (payload != buffer.capacity() - HEADER_SIZE) throw new IOException("El archivo está incompleto");
+        return version;
+    }
+
+    // the figure count the payload starts with, read without moving the buffer. A header alone has none
+    private static int figureCount(MappedByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < Integer.BYTES) throw new IOException("El archivo está incompleto");
+        return buffer.getInt(buffer.position());
+    }
+
+    private static long align(long size) {
+        return (size + 7) / 8 * 8;
+    }
+}
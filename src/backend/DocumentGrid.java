@@ -0,0 +1,144 @@
+package backend;
+
+import java.nio.ByteBuffer;
+import java.util.TreeSet;
+
+// Index section of a version 2 document, written after the columns so a LazyDocument can find
+// the figures of an area without reading the rest of the file.
+// Layout (little endian, 8 byte aligned):
+//   double originX, originY, cellSize; int columns, rows, entryCount, largeCount, layerCount
+//   int[layerCount] layers present in the document
+//   int[figures] start of the tags of each row in the tag column
+//   int[columns * rows + 1] start of each cell in the entries, cell by cell in row-major order
+//   int[entryCount] rows overlapping each cell, ascending within a cell
+//   int[largeCount] rows too big to be listed cell by cell
+final class DocumentGrid {
+
+    static final int FIXED_SIZE = 3 * 8 + 5 * 4;
+
+    private static final double MIN_CELL_SIZE = 64.0;
+    private static final int FIGURES_PER_CELL = 8;
+    private static final int MAX_CELLS = 1 << 22;
+    private static final int MAX_CELLS_PER_FIGURE = 64;
+
+    private final double originX, originY, cellSize;
+    private final int columns, rows;
+    private final int[] layers;
+    private final int[] tagStart;
+    private final int[] cellStart;
+    private final int[] entries;
+    private final int[] large;
+
+    private DocumentGrid(double originX, double originY, double cellSize, int columns, int rows,
+                         int[] layers, int[] tagStart, int[] cellStart, int[] entries, int[] large) {
+        this.originX = originX;
+        this.originY = originY;
+        this.cellSize = cellSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.layers = layers;
+        this.tagStart = tagStart;
+        this.cellStart = cellStart;
+        this.entries = entries;
+        this.large = large;
+    }
+
+    // grid sized for a handful of figures per cell over the extent of the document
+    static DocumentGrid build(ColumnarFigureStore store) {
+        int size = store.size();
+        ColumnarFigureStore.Cursor cursor = store.cursor();
+        double minX = 0, minY = 0, maxX = 0, maxY = 0;
+        TreeSet<Integer> layerSet = new TreeSet<>();
+        int[] tagStart = new int[size];
+        int nextTag = 0;
+        for (int row = 0; row < size; row++) {
+            cursor.moveTo(row);
+            if (row == 0) {
+                minX = cursor.getMinX(); minY = cursor.getMinY(); maxX = cursor.getMaxX(); maxY = cursor.getMaxY();
+            } else {
+                minX = Math.min(minX, cursor.getMinX()); minY = Math.min(minY, cursor.getMinY());
+                maxX = Math.max(maxX, cursor.getMaxX()); maxY = Math.max(maxY, cursor.getMaxY());
+            }
+            layerSet.add(cursor.getLayer());
+            tagStart[row] = nextTag;
+            nextTag += cursor.getTagCount();
+        }
+
+        double width = Math.max(1, maxX - minX), height = Math.max(1, maxY - minY);
+        double cellSize = Math.max(MIN_CELL_SIZE, Math.sqrt(width * height / Math.max(1, size / FIGURES_PER_CELL)));
+        while ((Math.ceil(width / cellSize) + 1) * (Math.ceil(height / cellSize) + 1) > MAX_CELLS) cellSize *= 2;
+        int columns = (int) Math.ceil(width / cellSize) + 1;
+        int rows = (int) Math.ceil(height / cellSize) + 1;
+
+        // two passes over the rows: count the entries of each cell, then fill them in place
+        int[] cellStart = new int[columns * rows + 1];
+        int largeCount = 0;
+        for (int row = 0; row < size; row++) {
+            cursor.moveTo(row);
+            int minCol = cellOf(cursor.getMinX(), minX, cellSize, columns), maxCol = cellOf(cursor.getMaxX(), minX, cellSize, columns);
+            int minRow = cellOf(cursor.getMinY(), minY, cellSize, rows), maxRow = cellOf(cursor.getMaxY(), minY, cellSize, rows);
+            if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_CELLS_PER_FIGURE) {
+                largeCount++;
+                continue;
+            }
+            for (int cy = minRow; cy <= maxRow; cy++) {
+                for (int cx = minCol; cx <= maxCol; cx++) cellStart[cy * columns + cx + 1]++;
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) cellStart[cell + 1] += cellStart[cell];
+
+        int[] entries = new int[cellStart[columns * rows]];
+        int[] fill = new int[columns * rows];
+        int[] large = new int[largeCount];
+        int nextLarge = 0;
+        for (int row = 0; row < size; row++) {
+            cursor.moveTo(row);
+            int minCol = cellOf(cursor.getMinX(), minX, cellSize, columns), maxCol = cellOf(cursor.getMaxX(), minX, cellSize, columns);
+            int minRow = cellOf(cursor.getMinY(), minY, cellSize, rows), maxRow = cellOf(cursor.getMaxY(), minY, cellSize, rows);
+            if ((long) (maxCol - minCol + 1) * (maxRow - minRow + 1) > MAX_CELLS_PER_FIGURE) {
+                large[nextLarge++] = row;
+                continue;
+            }
+            for (int cy = minRow; cy <= maxRow; cy++) {
+                for (int cx = minCol; cx <= maxCol; cx++) {
+                    int cell = cy * columns + cx;
+                    entries[cellStart[cell] + fill[cell]++] = row;
+                }
+            }
+        }
+
+        int[] layers = layerSet.stream().mapToInt(Integer::intValue).toArray();
+        return new DocumentGrid(minX, minY, cellSize, columns, rows, layers, tagStart, cellStart, entries, large);
+    }
+
+    long serializedSize() {
+        return FIXED_SIZE + 4L * (layers.length + tagStart.length + cellStart.length + entries.length + large.length);
+    }
+
+    void writeTo(ByteBuffer buffer) {
+        buffer.putDouble(originX);
+        buffer.putDouble(originY);
+        buffer.putDouble(cellSize);
+        buffer.putInt(columns);
+        buffer.putInt(rows);
+        buffer.putInt(entries.length);
+        buffer.putInt(large.length);
+        buffer.putInt(layers.length);
+        putInts(buffer, layers);
+        putInts(buffer, tagStart);
+        putInts(buffer, cellStart);
+        putInts(buffer, entries);
+        putInts(buffer, large);
+    }
+
+    // cell of a coordinate along one axis, clamped so areas outside the grid fall on its border cells
+    static int cellOf(double coordinate, double origin, double cellSize, int count) {
+        int cell = (int) Math.floor((coordinate - origin) / cellSize);
+        return Math.max(0, Math.min(count - 1, cell));
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+}
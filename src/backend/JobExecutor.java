@@ -0,0 +1,319 @@
+package backend;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Runs long operations (saving, opening, exporting) on virtual threads so the UI thread never waits for them.
+// At most maxRunning jobs run at a time, the rest wait their turn in the order they were submitted.
+// A job reports progress and hands its results over through its Context: commits run on the UI thread
+// (the executor given, Platform::runLater in the app) one batch at a time, so the canvas is only ever
+// changed from there and the window keeps painting between batches. Listeners and callbacks run there too.
+// Cancelling interrupts the job, and none of its commits runs after that.
+public class JobExecutor {
+
+    public static final int DEFAULT_MAX_RUNNING = 2;
+    // progress reaches the UI thread at most this often per job
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    // the work itself, on its own virtual thread
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Context context) throws Exception;
+    }
+
+    // a job was queued, started, made progress or ended
+    @FunctionalInterface
+    public interface JobListener {
+        void jobChanged(Job<?> job);
+    }
+
+    private final Executor uiThread;
+    private final int maxRunning;
+    private final Semaphore permits;
+    private final ThreadFactory threads = Thread.ofVirtual().name("tarea-", 0).factory();
+    private final List<JobListener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<Job<?>> active = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger queued = new AtomicInteger(), running = new AtomicInteger();
+    private final AtomicLong done = new AtomicLong(), failed = new AtomicLong(), cancelled = new AtomicLong();
+    // from submit to the end, and from submit to the start
+    private final AtomicLong totalLatencyNanos = new AtomicLong(), maxLatencyNanos = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong(), started = new AtomicLong();
+
+    public JobExecutor(Executor uiThread, int maxRunning) {
+        if (maxRunning < 1) throw new IllegalArgumentException("Se necesita al menos una tarea a la vez: " + maxRunning);
+        this.uiThread = uiThread;
+        this.maxRunning = maxRunning;
+        this.permits = new Semaphore(maxRunning, true);
+    }
+
+    public void addListener(JobListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(JobListener listener) {
+        listeners.remove(listener);
+    }
+
+    // onSuccess gets the result, onFailure the error (a CancellationException if the job was cancelled), either may be null
+    public <T> Job<T> submit(String name, Work<T> work, Consumer<? super T> onSuccess, Consumer<? super Throwable> onFailure) {
+        Job<T> job = new Job<>(name, work, onSuccess, onFailure);
+        active.add(job);
+        queued.incrementAndGet();
+        threads.newThread(() -> run(job)).start();
+        post(job);
+        return job;
+    }
+
+    // the queued ones never start, the running ones are interrupted
+    public void cancelAll() {
+        for (Job<?> job : active) job.cancel();
+    }
+
+    public int getQueueDepth() { return queued.get(); }
+
+    public int getRunning() { return running.get(); }
+
+    public int getMaxRunning() { return maxRunning; }
+
+    public long getDone() { return done.get(); }
+
+    public long getFailed() { return failed.get(); }
+
+    public long getCancelled() { return cancelled.get(); }
+
+    // from submit to the end, over every job that ended
+    public double getAverageLatencyMillis() {
+        long ended = done.get() + failed.get() + cancelled.get();
+        return ended == 0 ? 0 : totalLatencyNanos.get() / 1e6 / ended;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxLatencyNanos.get() / 1e6;
+    }
+
+    // time spent in the queue, over every job that started
+    public double getAverageWaitMillis() {
+        long count = started.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1e6 / count;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Tareas: %d en curso (máx. %d), %d en cola; %d terminadas, %d con error, %d canceladas%n"
+                        + "Latencia media %.0f ms (máx. %.0f ms), espera media en cola %.0f ms",
+                getRunning(), maxRunning, getQueueDepth(), getDone(), getFailed(), getCancelled(),
+                getAverageLatencyMillis(), getMaxLatencyMillis(), getAverageWaitMillis());
+    }
+
+    private <T> void run(Job<T> job) {
+        job.thread = Thread.currentThread();
+        T result = null;
+        Throwable error = null;
+        boolean acquired = false;
+        try {
+            if (job.cancelRequested) throw new CancellationException();
+            permits.acquire(); // a cancel while waiting here interrupts it
+            acquired = true;
+            queued.decrementAndGet();
+            running.incrementAndGet();
+            job.startNanos = System.nanoTime();
+            totalWaitNanos.addAndGet(job.startNanos - job.submitNanos);
+            started.incrementAndGet();
+            job.state = State.RUNNING;
+            post(job);
+            job.context.checkCancelled();
+            result = job.work.run(job.context);
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            if (acquired) {
+                running.decrementAndGet();
+                permits.release();
+            } else {
+                queued.decrementAndGet();
+            }
+            job.thread = null;
+            Thread.interrupted(); // a late cancel must not leak into the rest of this method
+        }
+        finish(job, result, error);
+    }
+
+    private <T> void finish(Job<T> job, T result, Throwable error) {
+        State state;
+        if (job.cancelRequested || error instanceof CancellationException || error instanceof InterruptedException) {
+            state = State.CANCELLED;
+            error = error instanceof CancellationException ? error : new CancellationException(job.name + " cancelada");
+            cancelled.incrementAndGet();
+        } else if (error != null) {
+            state = State.FAILED;
+            failed.incrementAndGet();
+        } else {
+            state = State.DONE;
+            done.incrementAndGet();
+        }
+        job.endNanos = System.nanoTime();
+        long latency = job.endNanos - job.submitNanos;
+        totalLatencyNanos.addAndGet(latency);
+        maxLatencyNanos.accumulateAndGet(latency, Math::max);
+        active.remove(job);
+
+        Throwable failure = error;
+        uiThread.execute(() -> {
+            job.state = state;
+            if (state == State.DONE) {
+                if (job.onSuccess != null) job.onSuccess.accept(result);
+            } else if (job.onFailure != null) {
+                job.onFailure.accept(failure);
+            }
+            for (JobListener listener : listeners) listener.jobChanged(job);
+        });
+    }
+
+    // listeners hear about a job on the UI thread, a pending notice is not posted twice
+    private void post(Job<?> job) {
+        if (listeners.isEmpty() || !job.noticePending.compareAndSet(false, true)) return;
+        uiThread.execute(() -> {
+            job.noticePending.set(false);
+            for (JobListener listener : listeners) listener.jobChanged(job);
+        });
+    }
+
+    public final class Job<T> {
+        private final String name;
+        private final Work<T> work;
+        private final Consumer<? super T> onSuccess;
+        private final Consumer<? super Throwable> onFailure;
+        private final Context context = new Context(this);
+        private final AtomicBoolean noticePending = new AtomicBoolean();
+        private final long submitNanos = System.nanoTime();
+        private volatile long startNanos, endNanos;
+        private volatile State state = State.QUEUED;
+        private volatile Thread thread;
+        private volatile boolean cancelRequested;
+        private volatile long progressDone, progressTotal;
+
+        private Job(String name, Work<T> work, Consumer<? super T> onSuccess, Consumer<? super Throwable> onFailure) {
+            this.name = name;
+            this.work = work;
+            this.onSuccess = onSuccess;
+            this.onFailure = onFailure;
+        }
+
+        public String getName() { return name; }
+
+        public State getState() { return state; }
+
+        public boolean isFinished() {
+            return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+        }
+
+        // 0 to 1, negative while the job has not said how much work there is
+        public double getProgress() {
+            long total = progressTotal;
+            return total <= 0 ? -1 : Math.min(1, (double) progressDone / total);
+        }
+
+        // from submit to the end, or to now if it did not end yet
+        public long getLatencyNanos() {
+            return (endNanos != 0 ? endNanos : System.nanoTime()) - submitNanos;
+        }
+
+        public void cancel() {
+            cancelRequested = true;
+            Thread running = thread;
+            if (running != null) running.interrupt();
+        }
+
+        @Override
+        public String toString() {
+            switch (state) {
+                case QUEUED: return name + " (en espera)";
+                case RUNNING:
+                    double progress = getProgress();
+                    return progress < 0 ? name + "..." : String.format("%s... %.0f%%", name, progress * 100);
+                case DONE: return name + ": terminada";
+                case FAILED: return name + ": falló";
+                default: return name + ": cancelada";
+            }
+        }
+    }
+
+    // what a job gets to talk to the UI thread
+    public final class Context {
+        private final Job<?> job;
+        private long lastProgressNanos = 0; // job thread only
+
+        private Context(Job<?> job) {
+            this.job = job;
+        }
+
+        public boolean isCancelled() {
+            return job.cancelRequested;
+        }
+
+        // long loops call it between steps
+        public void checkCancelled() {
+            if (job.cancelRequested || Thread.currentThread().isInterrupted()) throw new CancellationException(job.name + " cancelada");
+        }
+
+        // done out of total units of work, the listeners hear about it a few times a second at most
+        public void progress(long done, long total) {
+            job.progressDone = done;
+            job.progressTotal = total;
+            long now = System.nanoTime();
+            if (now - lastProgressNanos < PROGRESS_INTERVAL_NANOS) return;
+            lastProgressNanos = now;
+            post(job);
+        }
+
+        // runs the task on the UI thread and waits for it, for reads of state that belongs to that thread
+        public <R> R onUiThread(Callable<R> task) throws Exception {
+            checkCancelled();
+            CompletableFuture<R> future = new CompletableFuture<>();
+            uiThread.execute(() -> {
+                if (job.cancelRequested) {
+                    future.cancel(false);
+                    return;
+                }
+                try {
+                    future.complete(task.call());
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                throw new CancellationException(job.name + " cancelada");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+
+        // applies a batch of results on the UI thread. The job waits for it, so batches never pile up there:
+        // a few thousand figures per batch keep each turn of the UI thread short
+        public void commit(Runnable batch) throws Exception {
+            onUiThread(() -> {
+                batch.run();
+                return null;
+            });
+        }
+    }
+}
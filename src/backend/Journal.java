@@ -0,0 +1,550 @@
+package backend;
+
+import backend.history.Command;
+import backend.history.DeleteLayerCommand;
+import backend.model.BorderType;
+import backend.model.Figure;
+import backend.model.ShadowType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.CRC32;
+
+// Write-behind autosave of a CanvasState.
+// Every step of the history is appended to a journal as the new state of the figures it touched
+// (put or delete by id, with their z-order), so replaying a record twice does no harm.
+// The FX thread only encodes the records, a background thread writes them: whatever piled up while
+// the previous write was being synced to disk goes out as a single batch with a single sync (group commit).
+// Once the journal grows past a limit it is compacted: the whole canvas is written as a snapshot and
+// the journal starts over. Both files carry a generation, a journal is only replayed over the snapshot
+// it was started from, so a crash in the middle of a compaction loses nothing. Without a lazy document the
+// background thread copies the canvas itself (CanvasState.snapshot), the FX thread does not wait for it.
+// Layout (big endian): header int magic "TPEJ", int version, long generation,
+// then batches of int length, int CRC32, records.
+public class Journal {
+
+    public static final Path DEFAULT_DIRECTORY = Path.of(System.getProperty("user.home"), ".tpe-paint");
+
+    private static final int MAGIC = 0x5450454a;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int BATCH_HEADER_SIZE = 8;
+    private static final String SNAPSHOT_FILE = "autoguardado.snapshot";
+    private static final String JOURNAL_FILE = "autoguardado.journal";
+
+    private static final int COMPACT_AFTER_RECORDS = 20_000;
+    private static final long COMPACT_AFTER_BYTES = 16L << 20;
+
+    // records
+    private static final byte CLEAR = 0;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final byte BASE = 3;
+    private static final byte DELETED_ROWS = 4;
+
+    private static final ShadowType[] SHADOW_TYPES = ShadowType.values();
+    private static final BorderType[] BORDER_TYPES = BorderType.values();
+
+    private final CanvasState canvasState;
+    private final Path snapshotFile, journalFile;
+    private final FileChannel journal;
+    private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+
+    // encoding, FX thread only
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private long generation;
+    private int recordsSinceSnapshot = 0;
+    private long bytesSinceSnapshot = 0;
+
+    // written by the writer thread
+    private volatile IOException error;
+    private volatile long records = 0, batches = 0, writtenBytes = 0, snapshots = 0, writeNanos = 0;
+
+    // what the writer gets: records to append, or a snapshot that replaces everything before it
+    // (with no data, the writer copies the canvas when it gets to it)
+    private static class Batch {
+        private byte[] data;
+        private int records;
+        private final long snapshotGeneration; // -1 for plain records
+
+        private Batch(byte[] data, int records, long snapshotGeneration) {
+            this.data = data;
+            this.records = records;
+            this.snapshotGeneration = snapshotGeneration;
+        }
+    }
+
+    private static final Batch CLOSE = new Batch(new byte[0], 0, -1);
+
+    private Journal(CanvasState canvasState, Path directory) throws IOException {
+        this.canvasState = canvasState;
+        Files.createDirectories(directory);
+        this.snapshotFile = directory.resolve(SNAPSHOT_FILE);
+        this.journalFile = directory.resolve(JOURNAL_FILE);
+        this.generation = Math.max(generationOf(snapshotFile), generationOf(journalFile));
+        this.journal = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+    }
+
+    // starts journaling the canvas as it is now, any previous journal in the directory is replaced
+    public static Journal open(Path directory, CanvasState canvasState) throws IOException {
+        Journal journal = new Journal(canvasState, directory);
+        journal.writer.start();
+        journal.snapshot();
+        return journal;
+    }
+
+    // a previous session left something to recover (it did not close cleanly)
+    public static boolean hasRecoverable(Path directory) {
+        Path snapshot = directory.resolve(SNAPSHOT_FILE), journal = directory.resolve(JOURNAL_FILE);
+        try {
+            // an empty canvas is a snapshot with a single clear record
+            boolean snapshotHasFigures = Files.exists(snapshot) && Files.size(snapshot) > HEADER_SIZE + BATCH_HEADER_SIZE + 1;
+            boolean journalHasRecords = Files.exists(journal) && Files.size(journal) > HEADER_SIZE;
+            return snapshotHasFigures || journalHasRecords;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // the files of a session that is not going to be recovered
+    public static void discard(Path directory) throws IOException {
+        Files.deleteIfExists(directory.resolve(SNAPSHOT_FILE));
+        Files.deleteIfExists(directory.resolve(JOURNAL_FILE));
+    }
+
+    // loads the last snapshot into the canvas and replays the journal written after it.
+    // A torn batch at the end (the app died while writing it) and everything after it are ignored
+    public static Recovery recover(Path directory, CanvasState canvasState) throws IOException {
+        long start = System.nanoTime();
+        Replay replay = new Replay(canvasState);
+        Path snapshot = directory.resolve(SNAPSHOT_FILE), journal = directory.resolve(JOURNAL_FILE);
+        long snapshotGeneration = 0;
+        // the listeners get the recovered drawing as a single change
+        canvasState.beginTransaction();
+        try {
+            if (Files.exists(snapshot)) {
+                snapshotGeneration = generationOf(snapshot);
+                replay.file(snapshot);
+            } else {
+                canvasState.clear();
+            }
+            if (Files.exists(journal) && generationOf(journal) == snapshotGeneration) replay.file(journal);
+        } finally {
+            canvasState.commitTransaction();
+        }
+        return new Recovery(replay.records, canvasState.size(), System.nanoTime() - start);
+    }
+
+    // appends the new state of what the step touched. A layer of a lazy document can't be listed
+    // figure by figure, the canvas is compacted into a snapshot instead
+    public void commandApplied(Command command) {
+        if (command instanceof DeleteLayerCommand && canvasState.getDocument() != null) {
+            snapshot();
+            return;
+        }
+        int count = 0;
+        try {
+            for (Figure figure : command.getFigures()) {
+                if (figure.getId() < 0) continue;
+                if (canvasState.contains(figure)) writePut(out, figure, canvasState.orderOf(figure));
+                else writeDelete(figure.getId());
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // writing to memory
+        }
+        if (count == 0) return;
+        byte[] data = takeBytes();
+        recordsSinceSnapshot += count;
+        bytesSinceSnapshot += data.length;
+        queue.add(new Batch(data, count, -1));
+        if (recordsSinceSnapshot >= COMPACT_AFTER_RECORDS || bytesSinceSnapshot >= COMPACT_AFTER_BYTES) snapshot();
+    }
+
+    // writes the whole canvas as the new base of the journal, also called after a document is opened.
+    // A lazy document is written as a reference to its file plus what changed since it was opened,
+    // encoded here since the document is only read from the FX thread
+    public void snapshot() {
+        recordsSinceSnapshot = 0;
+        bytesSinceSnapshot = 0;
+        LazyDocument document = canvasState.getDocument();
+        if (document == null) {
+            queue.add(new Batch(null, 0, ++generation));
+            return;
+        }
+        int count = 1;
+        try {
+            out.writeByte(CLEAR);
+            out.writeByte(BASE);
+            out.writeUTF(document.getPath().toAbsolutePath().toString());
+            out.writeLong(document.getFileSize());
+            out.writeLong(document.getFileModified());
+            long[] words = document.deletedRows().toLongArray();
+            out.writeByte(DELETED_ROWS);
+            out.writeInt(words.length);
+            for (long word : words) out.writeLong(word);
+            count += 2;
+            for (Figure figure : canvasState.figuresView()) {
+                if (document.isUnchanged(figure)) continue; // already in the file
+                writePut(out, figure, canvasState.orderOf(figure));
+                count++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        queue.add(new Batch(takeBytes(), count, ++generation));
+    }
+
+    // waits for what was queued to be written. With discard the files are deleted, nothing is left to recover
+    public void close(boolean discard) {
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            journal.close();
+            if (discard) discard(snapshotFile.getParent());
+        } catch (IOException e) {
+            if (error == null) error = e;
+        }
+    }
+
+    // the last write error, journaling stops at the first one
+    public IOException getError() { return error; }
+
+    public long getRecords() { return records; }
+
+    public long getBatches() { return batches; }
+
+    public long getWrittenBytes() { return writtenBytes; }
+
+    public long getSnapshots() { return snapshots; }
+
+    // records written per second of time spent writing (syncs included)
+    public double getRecordsPerSecond() {
+        long nanos = writeNanos;
+        return nanos == 0 ? 0 : records * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Registros: %d en %d lotes (%.1f por lote), %.0f registros/s, %d KB, %d snapshots%s",
+                records, batches, batches == 0 ? 0.0 : (double) records / batches, getRecordsPerSecond(),
+                writtenBytes >> 10, snapshots, error == null ? "" : ", error: " + error.getMessage());
+    }
+
+    private void writeLoop() {
+        List<Batch> pending = new ArrayList<>();
+        ByteArrayOutputStream group = new ByteArrayOutputStream();
+        while (true) {
+            try {
+                pending.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(pending);
+            boolean closing = false;
+            for (Batch batch : pending) {
+                if (batch == CLOSE) {
+                    closing = true;
+                    break;
+                }
+                if (error != null) continue; // dropped, the error is reported
+                long start = System.nanoTime();
+                try {
+                    if (batch.snapshotGeneration >= 0) {
+                        appendGroup(group); // everything before it goes out first
+                        if (batch.data == null && !copyCanvas(batch)) continue;
+                        writeSnapshot(batch);
+                    } else {
+                        group.write(batch.data);
+                        records += batch.records;
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+                writeNanos += System.nanoTime() - start;
+            }
+            pending.clear();
+            long start = System.nanoTime();
+            try {
+                if (error == null) appendGroup(group);
+            } catch (IOException e) {
+                error = e;
+            }
+            group.reset();
+            writeNanos += System.nanoTime() - start;
+            if (closing) return;
+        }
+    }
+
+    // one batch, one sync
+    private void appendGroup(ByteArrayOutputStream group) throws IOException {
+        if (group.size() == 0) return;
+        byte[] data = group.toByteArray();
+        group.reset();
+        writeFully(journal, framed(data));
+        journal.force(false);
+        batches++;
+        writtenBytes += data.length + BATCH_HEADER_SIZE;
+    }
+
+    // the snapshot is made durable before the journal is started over with its generation
+    private void writeSnapshot(Batch batch) throws IOException {
+        Path temp = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, header(batch.snapshotGeneration));
+            writeFully(channel, framed(batch.data));
+            channel.force(false);
+        }
+        try {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        journal.truncate(0);
+        journal.position(0);
+        writeFully(journal, header(batch.snapshotGeneration));
+        journal.force(false);
+        snapshots++;
+        records += batch.records;
+        writtenBytes += batch.data.length + HEADER_SIZE + BATCH_HEADER_SIZE;
+    }
+
+    // encodes the canvas as it is now into the batch. Changes made after the snapshot was asked for may be
+    // in the copy and also in the records that follow it, replaying them again does no harm.
+    // False if a lazy document was opened meanwhile, its own snapshot is already queued
+    private boolean copyCanvas(Batch batch) throws IOException {
+        CanvasSnapshot snapshot = canvasState.snapshot();
+        if (snapshot.isLazy()) return false;
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        DataOutputStream copyOut = new DataOutputStream(copy);
+        copyOut.writeByte(CLEAR);
+        for (int row = 0; row < snapshot.size(); row++) writePut(copyOut, snapshot.toFigure(row), snapshot.getOrder(row));
+        batch.data = copy.toByteArray();
+        batch.records = snapshot.size() + 1;
+        return true;
+    }
+
+    private static void writePut(DataOutputStream out, Figure figure, long order) throws IOException {
+        out.writeByte(PUT);
+        out.writeInt(figure.getId());
+        out.writeLong(order);
+        out.writeByte(ColumnarFigureStore.typeOf(figure));
+        out.writeInt(figure.getLayer());
+        out.writeDouble(figure.getMinX());
+        out.writeDouble(figure.getMinY());
+        out.writeDouble(figure.getMaxX());
+        out.writeDouble(figure.getMaxY());
+        out.writeInt(ColumnarFigureStore.packArgb(figure.getFillColor1()));
+        out.writeInt(ColumnarFigureStore.packArgb(figure.getFillColor2()));
+        out.writeByte(figure.getShadowType().ordinal());
+        out.writeByte(figure.getBorderType().ordinal());
+        out.writeDouble(figure.getBorderWidth());
+        out.writeShort(figure.getTags().size());
+        for (String tag : figure.getTags()) out.writeUTF(tag);
+    }
+
+    private void writeDelete(int id) throws IOException {
+        out.writeByte(DELETE);
+        out.writeInt(id);
+    }
+
+    private byte[] takeBytes() {
+        byte[] data = bytes.toByteArray();
+        bytes.reset();
+        return data;
+    }
+
+    private static ByteBuffer header(long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+        return header;
+    }
+
+    private static ByteBuffer framed(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ByteBuffer frame = ByteBuffer.allocate(BATCH_HEADER_SIZE + data.length);
+        frame.putInt(data.length).putInt((int) crc.getValue()).put(data).flip();
+        return frame;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    // generation in the header of the file, 0 if it is missing or not a journal
+    private static long generationOf(Path file) {
+        if (!Files.exists(file)) return 0;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return 0;
+            return in.readLong();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // what a recovery did, shown to the user
+    public static class Recovery {
+        private final long records;
+        private final int figures;
+        private final long elapsedNanos;
+
+        private Recovery(long records, int figures, long elapsedNanos) {
+            this.records = records;
+            this.figures = figures;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public long getRecords() { return records; }
+
+        public int getFigures() { return figures; }
+
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        @Override
+        public String toString() {
+            return String.format("Recuperadas %d figuras (%d registros) en %d ms", figures, records, elapsedNanos / 1_000_000);
+        }
+    }
+
+    // applies records to a canvas, figures are found by id among the ones put so far
+    // or, with a lazy document, paged in from their row
+    private static class Replay {
+        private final CanvasState canvasState;
+        private final Map<Integer, Figure> figures = new HashMap<>();
+        private long records = 0;
+
+        private Replay(CanvasState canvasState) {
+            this.canvasState = canvasState;
+        }
+
+        private void file(Path file) throws IOException {
+            try (InputStream in = Files.newInputStream(file)) {
+                DataInputStream data = new DataInputStream(in);
+                if (data.readInt() != MAGIC || data.readInt() != VERSION) throw new IOException("El autoguardado está dañado");
+                data.readLong();
+                while (true) {
+                    byte[] batch;
+                    try {
+                        int length = data.readInt();
+                        int crc = data.readInt();
+                        if (length < 0) return;
+                        batch = data.readNBytes(length);
+                        if (batch.length < length || !matches(batch, crc)) return; // torn write
+                    } catch (EOFException e) {
+                        return;
+                    }
+                    DataInputStream records = new DataInputStream(new ByteArrayInputStream(batch));
+                    while (records.available() > 0) apply(records);
+                }
+            }
+        }
+
+        private void apply(DataInputStream in) throws IOException {
+            records++;
+            byte kind = in.readByte();
+            switch (kind) {
+                case CLEAR:
+                    canvasState.clear();
+                    figures.clear();
+                    break;
+                case BASE:
+                    Path path = Path.of(in.readUTF());
+                    long size = in.readLong(), modified = in.readLong();
+                    if (!Files.exists(path) || Files.size(path) != size || Files.getLastModifiedTime(path).toMillis() != modified) {
+                        throw new IOException("El dibujo " + path.getFileName() + " cambió desde el último autoguardado");
+                    }
+                    DocumentFile.open(path, canvasState);
+                    if (canvasState.getDocument() == null) throw new IOException("El autoguardado está dañado");
+                    break;
+                case DELETED_ROWS:
+                    long[] words = new long[in.readInt()];
+                    for (int i = 0; i < words.length; i++) words[i] = in.readLong();
+                    if (canvasState.getDocument() == null) throw new IOException("El autoguardado está dañado");
+                    canvasState.getDocument().rowsDeleted(BitSet.valueOf(words));
+                    break;
+                case PUT:
+                    int id = in.readInt();
+                    long order = in.readLong();
+                    Figure figure = readFigure(in);
+                    remove(id);
+                    figure.setId(id);
+                    canvasState.restoreFigure(figure, order);
+                    figures.put(id, figure);
+                    break;
+                case DELETE:
+                    remove(in.readInt());
+                    break;
+                default:
+                    throw new IOException("El autoguardado está dañado");
+            }
+        }
+
+        private void remove(int id) {
+            Figure figure = figures.remove(id);
+            if (figure == null && canvasState.getDocument() != null) figure = canvasState.getDocument().pageInRow(id);
+            if (figure != null) canvasState.deleteFigure(figure);
+        }
+
+        private static Figure readFigure(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            int layer = in.readInt();
+            double minX = in.readDouble(), minY = in.readDouble(), maxX = in.readDouble(), maxY = in.readDouble();
+            int fill1 = in.readInt(), fill2 = in.readInt();
+            byte shadow = in.readByte(), border = in.readByte();
+            double borderWidth = in.readDouble();
+            int tagCount = in.readShort();
+            if (type < ColumnarFigureStore.RECTANGLE || type > ColumnarFigureStore.CIRCLE || shadow < 0 || shadow >= SHADOW_TYPES.length
+                    || border < 0 || border >= BORDER_TYPES.length || tagCount < 0) {
+                throw new IOException("El autoguardado está dañado");
+            }
+            List<String> tags = new ArrayList<>(tagCount);
+            for (int i = 0; i < tagCount; i++) tags.add(in.readUTF());
+
+            Figure figure = ColumnarFigureStore.createFigure(type, minX, minY, maxX, maxY);
+            figure.setFillColor1(ColumnarFigureStore.unpackArgb(fill1));
+            figure.setFillColor2(ColumnarFigureStore.unpackArgb(fill2));
+            figure.setShadowType(SHADOW_TYPES[shadow]);
+            figure.setBorderType(BORDER_TYPES[border]);
+            figure.setBorderWidth(borderWidth);
+            figure.setLayer(layer);
+            figure.replaceTags(tags);
+            return figure;
+        }
+
+        private static boolean matches(byte[] batch, int crc) {
+            CRC32 check = new CRC32();
+            check.update(batch);
+            return (int) check.getValue() == crc;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package backend;
+
+import backend.model.Figure;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// All the figures of one layer, in z-order, with their own spatial index.
+// The z-order is an explicit key: new figures get the next one from the canvas, figures paged in
+// from a document get the row they were stored at, so they land where they were saved.
+// Dropping a layer only means dropping its bucket.
+// The bucket also keeps a columnar copy of its figures in chunks of consecutive z-orders for CanvasState.snapshot:
+// a change only drops the copy of its chunk, and a snapshot takes the copies that are still there as they are.
+// The writer drops them under the write lock, readers make them again under the read lock: images are
+// immutable once made, two readers making the same one make equal copies and either can win.
+// The copies take around the columnar size of the figures (see ColumnarFigureStore) on top of the figures.
+class LayerBucket {
+
+    private static final int CHUNK_BITS = 10;
+
+    private final int layer;
+    private final NavigableMap<Long, Figure> figures = new TreeMap<>();
+    private final Map<Figure, Long> orders = new IdentityHashMap<>();
+    private final Collection<Figure> readOnlyView = Collections.unmodifiableCollection(figures.values());
+    private final SpatialIndex index = new SpatialIndex();
+    // slot n holds the image of the orders n << CHUNK_BITS up to the next chunk, null until made or after a change.
+    // Only the writer replaces the array, with the write lock held
+    private AtomicReferenceArray<Chunk> chunks = new AtomicReferenceArray<>(16);
+
+    // the rows of a chunk in z-order, never changed once made
+    static final class Chunk {
+        final ColumnarFigureStore store;
+        final int[] ids;
+        final long[] orders;
+
+        private Chunk(ColumnarFigureStore store, int[] ids, long[] orders) {
+            this.store = store;
+            this.ids = ids;
+            this.orders = orders;
+        }
+    }
+
+    LayerBucket(int layer) {
+        this.layer = layer;
+    }
+
+    int getLayer() { return layer; }
+
+    boolean add(Figure figure, long order) {
+        if (orders.containsKey(figure)) return false;
+        orders.put(figure, order);
+        figures.put(order, figure);
+        index.insert(figure, order);
+        changed(order);
+        return true;
+    }
+
+    boolean remove(Figure figure) {
+        Long order = orders.remove(figure);
+        if (order == null) return false;
+        figures.remove(order);
+        index.remove(figure);
+        changed(order);
+        return true;
+    }
+
+    boolean contains(Figure figure) {
+        return orders.containsKey(figure);
+    }
+
+    // z-order key of the figure, -1 if it is not in this layer
+    long orderOf(Figure figure) {
+        Long order = orders.get(figure);
+        return order == null ? -1 : order;
+    }
+
+    int size() { return figures.size(); }
+
+    boolean isEmpty() { return figures.isEmpty(); }
+
+    Collection<Figure> figures() { return readOnlyView; }
+
+    SpatialIndex index() { return index; }
+
+    // drops the image of the figure's chunk, called by the writer before the figure changes
+    void changed(Figure figure) {
+        Long order = orders.get(figure);
+        if (order != null) changed(order);
+    }
+
+    private void changed(long order) {
+        int chunk = (int) (order >> CHUNK_BITS);
+        if (chunk >= chunks.length()) {
+            AtomicReferenceArray<Chunk> grown = new AtomicReferenceArray<>(Math.max(chunk + 1, 2 * chunks.length()));
+            for (int i = 0; i < chunks.length(); i++) grown.set(i, chunks.get(i));
+            chunks = grown;
+        }
+        chunks.set(chunk, null);
+    }
+
+    // makes the images of changed chunks until about rowBudget rows were copied, returns the rows copied.
+    // Readers call it under the read lock
+    int makeChunks(int rowBudget) {
+        int copied = 0;
+        for (long start = firstChunkStart(); start >= 0 && copied < rowBudget; start = nextChunkStart(start)) {
+            int chunk = (int) (start >> CHUNK_BITS);
+            if (chunks.get(chunk) != null) continue;
+            Chunk made = makeChunk(start);
+            chunks.set(chunk, made);
+            copied += made.ids.length;
+        }
+        return copied;
+    }
+
+    // whether every chunk has its image
+    boolean chunksReady() {
+        for (long start = firstChunkStart(); start >= 0; start = nextChunkStart(start)) {
+            if (chunks.get((int) (start >> CHUNK_BITS)) == null) return false;
+        }
+        return true;
+    }
+
+    // the images of every chunk in z-order, making the missing ones. Readers call it under the read lock
+    void collectChunks(List<Chunk> into) {
+        for (long start = firstChunkStart(); start >= 0; start = nextChunkStart(start)) {
+            int chunk = (int) (start >> CHUNK_BITS);
+            Chunk image = chunks.get(chunk);
+            if (image == null) {
+                image = makeChunk(start);
+                chunks.set(chunk, image);
+            }
+            into.add(image);
+        }
+    }
+
+    private Chunk makeChunk(long start) {
+        Map<Long, Figure> inChunk = figures.subMap(start, start + (1L << CHUNK_BITS));
+        ColumnarFigureStore store = new ColumnarFigureStore();
+        int[] ids = new int[inChunk.size()];
+        long[] chunkOrders = new long[inChunk.size()];
+        for (Map.Entry<Long, Figure> entry : inChunk.entrySet()) {
+            int row = store.add(entry.getValue());
+            ids[row] = entry.getValue().getId();
+            chunkOrders[row] = entry.getKey();
+        }
+        return new Chunk(store, ids, chunkOrders);
+    }
+
+    // first order of the chunk holding the lowest figure, -1 if there are none
+    private long firstChunkStart() {
+        return figures.isEmpty() ? -1 : chunkStart(figures.firstKey());
+    }
+
+    // first order of the next chunk holding a figure, -1 past the last
+    private long nextChunkStart(long start) {
+        Long next = figures.ceilingKey(start + (1L << CHUNK_BITS));
+        return next == null ? -1 : chunkStart(next);
+    }
+
+    private static long chunkStart(long order) {
+        return order >> CHUNK_BITS << CHUNK_BITS;
+    }
+}
@@ -0,0 +1,618 @@
+package backend;
+
+import backend.model.BorderType;
+import backend.model.Bounds;
+import backend.model.Figure;
+import backend.model.ShadowType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
+// A huge document kept memory-mapped while it is being edited.
+// Opening only reads the header, the tag dictionary and the layer list. Figures are materialized
+// from the mapped columns when a CanvasState query (painting or hit-testing) touches their area,
+// found through the grid stored in the file (see DocumentGrid), and get their row as id and z-order.
+// Paged in figures that were not edited are paged out again, least recently used first, when there
+// are more than maxResident of them or the heap is getting full. Edited ones stay in memory for good,
+// since the history holds on to them, and so do the pinned ones (the selection) while they are pinned:
+// a figure paged out and read again is another object, an edit to the old one would be lost.
+// A view so far out that more than maxResident rows overlap it is not paged in for painting at all:
+// its rows are drawn straight from the mapped columns, see isTooFarOut and forEachRow.
+public class LazyDocument {
+
+    public static final int DEFAULT_MAX_RESIDENT = 100_000;
+    private static final double HEAP_PRESSURE = 0.85;
+
+    private static final ShadowType[] SHADOW_TYPES = ShadowType.values();
+    private static final BorderType[] BORDER_TYPES = BorderType.values();
+
+    private final CanvasState canvasState;
+    private final ByteBuffer buffer;
+    // the file as it was when it was opened, the autosave journal refers to it
+    private final Path path;
+    private final long fileSize, fileModified;
+    private final int rowCount;
+    private final List<String> tagNames = new ArrayList<>();
+    private final List<Integer> layers = new ArrayList<>();
+
+    // absolute offsets of the columns in the mapped file
+    private final int minXAt, minYAt, maxXAt, maxYAt, fill1At, fill2At, layerAt, tagDataAt;
+    private final int borderWidthAt, tagCountAt, typeAt, shadowAt, borderAt, tagStartAt;
+    // border widths are doubles since DocumentFile.DOUBLE_BORDER_WIDTHS, floats before
+    private final boolean doubleWidths;
+    private final int tagDataLength;
+
+    // grid of the file
+    private final double originX, originY, cellSize;
+    private final int gridColumns, gridRows;
+    private final int cellStartAt, entriesAt, largeAt, largeCount;
+
+    // paged in rows that can be paged out again, in access order (least recently used first)
+    private final LinkedHashMap<Integer, Figure> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Figure, Integer> rowOf = new IdentityHashMap<>();
+    private final BitSet loaded = new BitSet();
+    private final BitSet deleted = new BitSet();
+    private final BitSet scratch = new BitSet();
+    private Set<Figure> pinned = Set.of();
+
+    // last area that was paged in completely, smaller queries inside it need no work
+    private Bounds pagedArea;
+    private int maxResident = DEFAULT_MAX_RESIDENT;
+    private long materialized = 0, evicted = 0;
+    // last area isTooFarOut looked at, a frame asks once per layer
+    private Bounds estimatedArea;
+    private boolean estimatedTooFarOut;
+
+    // a row drawn without its figure: whether it is an ellipse or a circle, its box and its first color
+    public interface RowVisitor {
+        void visit(int row, boolean round, double minX, double minY, double maxX, double maxY, int fillArgb);
+    }
+
+    private LazyDocument(ByteBuffer buffer, int version, CanvasState canvasState, Path path) throws IOException {
+        this.buffer = buffer;
+        this.doubleWidths = version >= DocumentFile.DOUBLE_BORDER_WIDTHS;
+        this.canvasState = canvasState;
+        this.path = path;
+        this.fileSize = Files.size(path);
+        this.fileModified = Files.getLastModifiedTime(path).toMillis();
+
+        rowCount = buffer.getInt();
+        int tags = buffer.getInt();
+        tagDataLength = buffer.getInt();
+        if (rowCount < 0 || tags < 0 || tagDataLength < 0) throw new IOException("El archivo está dañado");
+        for (int i = 0; i < tags; i++) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) throw new IOException("El archivo está dañado");
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            tagNames.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        long at = align(buffer.position());
+        minXAt = checked(at); at += 8L * rowCount;
+        minYAt = checked(at); at += 8L * rowCount;
+        maxXAt = checked(at); at += 8L * rowCount;
+        maxYAt = checked(at); at += 8L * rowCount;
+        long widthsAt = at;
+        if (doubleWidths) at += 8L * rowCount;
+        fill1At = checked(at); at += 4L * rowCount;
+        fill2At = checked(at); at += 4L * rowCount;
+        layerAt = checked(at); at += 4L * rowCount;
+        tagDataAt = checked(at); at += 4L * tagDataLength;
+        if (!doubleWidths) {
+            widthsAt = at;
+            at += 4L * rowCount;
+        }
+        borderWidthAt = checked(widthsAt);
+        tagCountAt = checked(at); at += 2L * rowCount;
+        typeAt = checked(at); at += rowCount;
+        shadowAt = checked(at); at += rowCount;
+        borderAt = checked(at); at += rowCount;
+
+        int gridAt = checked(align(at));
+        originX = buffer.getDouble(gridAt);
+        originY = buffer.getDouble(gridAt + 8);
+        cellSize = buffer.getDouble(gridAt + 16);
+        gridColumns = buffer.getInt(gridAt + 24);
+        gridRows = buffer.getInt(gridAt + 28);
+        int entryCount = buffer.getInt(gridAt + 32);
+        largeCount = buffer.getInt(gridAt + 36);
+        int layerCount = buffer.getInt(gridAt + 40);
+        if (gridColumns <= 0 || gridRows <= 0 || entryCount < 0 || largeCount < 0 || layerCount < 0 || !(cellSize > 0)) {
+            throw new IOException("El archivo está dañado");
+        }
+        at = gridAt + DocumentGrid.FIXED_SIZE;
+        for (int i = 0; i < layerCount; i++) layers.add(buffer.getInt(checked(at + 4L * i)));
+        at += 4L * layerCount;
+        tagStartAt = checked(at); at += 4L * rowCount;
+        cellStartAt = checked(at); at += 4L * ((long) gridColumns * gridRows + 1);
+        entriesAt = checked(at); at += 4L * entryCount;
+        largeAt = checked(at); at += 4L * largeCount;
+        if (at != buffer.capacity()) throw new IOException("El archivo está dañado");
+    }
+
+    // replaces the figures of the canvas with the ones of the document, paged in on demand
+    static LazyDocument attach(ByteBuffer buffer, int version, CanvasState canvasState, Path path) throws IOException {
+        LazyDocument document = new LazyDocument(buffer, version, canvasState, path);
+        canvasState.attach(document, document.layers, document.rowCount);
+        return document;
+    }
+
+    public int getFigureCount() { return rowCount; }
+
+    public Path getPath() { return path; }
+
+    long getFileSize() { return fileSize; }
+
+    long getFileModified() { return fileModified; }
+
+    public int getResidentCount() { return rowOf.size(); }
+
+    public long getMaterializedCount() { return materialized; }
+
+    public long getEvictedCount() { return evicted; }
+
+    public void setMaxResident(int maxResident) {
+        this.maxResident = maxResident;
+        estimatedArea = null;
+    }
+
+    // makes sure every live figure of the document that overlaps the area is in the canvas.
+    // Capped, as for painting, it leaves an area that isTooFarOut as it is
+    void pageIn(Bounds area, boolean capped) {
+        if (pagedArea != null && contains(pagedArea, area)) return;
+        if (capped && isTooFarOut(area)) return;
+        materializeIn(area);
+        pagedArea = area;
+
+        if (resident.size() > maxResident || heapIsTight()) pageOut(area);
+    }
+
+    // as pageIn for a hit-test: what is under the point is paged in, but the paged area stays the one
+    // on screen and nothing is paged out, moving the mouse must not page the view out and in again
+    void pageInPoint(double x, double y) {
+        if (pagedArea != null && pagedArea.contains(x, y)) return;
+        materializeIn(new Bounds(x, y, x, y));
+    }
+
+    private void materializeIn(Bounds area) {
+        forEachRowIn(area);
+        for (int row = scratch.nextSetBit(0); row >= 0; row = scratch.nextSetBit(row + 1)) {
+            if (loaded.get(row)) resident.get(row); // touched, moves to the recent end
+            else if (!deleted.get(row)) materialize(row);
+        }
+        scratch.clear();
+    }
+
+    // more rows overlap the area than may be in memory at once, paging them in would only page them out again.
+    // Estimated from the grid: the rows listed in the cells the area overlaps, counted once per cell
+    public boolean isTooFarOut(Bounds area) {
+        if (estimatedArea == null || !sameArea(estimatedArea, area)) {
+            estimatedArea = area;
+            estimatedTooFarOut = rowsIn(area, maxResident) > maxResident;
+        }
+        return estimatedTooFarOut;
+    }
+
+    // the rows of the layer overlapping the area that are neither in the canvas nor deleted, in z-order,
+    // read from the mapped columns without making figures of them: how an area that isTooFarOut is drawn
+    public void forEachRow(int layer, Bounds area, RowVisitor visitor) {
+        if (rowsIn(area, rowCount) >= rowCount) {
+            // the cells list every row at least once, going through the columns in order is cheaper
+            for (int row = 0; row < rowCount; row++) {
+                if (area.intersects(minX(buffer, row), minY(buffer, row), maxX(buffer, row), maxY(buffer, row))) visitRow(row, layer, visitor);
+            }
+            return;
+        }
+        forEachRowIn(area);
+        for (int row = scratch.nextSetBit(0); row >= 0; row = scratch.nextSetBit(row + 1)) visitRow(row, layer, visitor);
+        scratch.clear();
+    }
+
+    // only the columns read for drawing are checked, the tags are checked by tagsOf
+    private void visitRow(int row, int layer, RowVisitor visitor) {
+        if (loaded.get(row) || deleted.get(row) || buffer.getInt(layerAt + 4 * row) != layer) return;
+        byte type = buffer.get(typeAt + row);
+        if (type < ColumnarFigureStore.RECTANGLE || type > ColumnarFigureStore.CIRCLE) return;
+        visitor.visit(row, type == ColumnarFigureStore.ELLIPSE || type == ColumnarFigureStore.CIRCLE,
+                minX(buffer, row), minY(buffer, row), maxX(buffer, row), maxY(buffer, row), buffer.getInt(fill1At + 4 * row));
+    }
+
+    // tags of a row visited by forEachRow, to test it against the tag filter. None for a damaged row
+    public List<String> tagsOf(int row) {
+        return isValid(buffer, row) ? readTags(buffer, row) : List.of();
+    }
+
+    // the figure was edited: it is taken off the list of the ones that can be paged out
+    void figureEdited(Figure figure) {
+        Integer row = rowOf.get(figure);
+        if (row != null) resident.remove(row);
+    }
+
+    // figures the UI holds on to, never paged out until another set is pinned
+    void setPinned(Collection<Figure> figures) {
+        if (figures.isEmpty()) {
+            pinned = Set.of();
+            return;
+        }
+        pinned = Collections.newSetFromMap(new IdentityHashMap<>());
+        pinned.addAll(figures);
+    }
+
+    void figureDeleted(Figure figure) {
+        Integer row = rowOf.remove(figure);
+        if (row == null) return;
+        resident.remove(row);
+        loaded.clear(row);
+        deleted.set(row);
+    }
+
+    // rows of the layer that were never paged in go with it, as well as the paged in figures now in it.
+    // Returns the former, the latter go back with the bucket of the layer if it is restored
+    BitSet layerDeleted(int layer) {
+        BitSet rows = new BitSet();
+        for (int row = 0; row < rowCount; row++) {
+            if (!loaded.get(row) && !deleted.get(row) && buffer.getInt(layerAt + 4 * row) == layer) rows.set(row);
+        }
+        deleted.or(rows);
+        Iterator<Map.Entry<Figure, Integer>> it = rowOf.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Figure, Integer> entry = it.next();
+            if (entry.getKey().getLayer() != layer) continue;
+            resident.remove(entry.getValue());
+            loaded.clear(entry.getValue());
+            deleted.set(entry.getValue());
+            it.remove();
+        }
+        return rows;
+    }
+
+    // rows deleted since the document was opened, also the ones whose figure is back in the canvas
+    BitSet deletedRows() {
+        return (BitSet) deleted.clone();
+    }
+
+    // marks rows as deleted before anything was paged in, as when a journal is replayed
+    void rowsDeleted(BitSet rows) {
+        deleted.or(rows);
+        pagedArea = null;
+    }
+
+    // pages a single row in and returns its figure, null if it is already in the canvas or deleted
+    Figure pageInRow(int row) {
+        if (row < 0 || row >= rowCount || loaded.get(row) || deleted.get(row)) return null;
+        materialize(row);
+        return resident.get(row);
+    }
+
+    // the figure was paged in and still holds what the file has for its row
+    boolean isUnchanged(Figure figure) {
+        Integer row = rowOf.get(figure);
+        return row != null && matchesRow(figure, row);
+    }
+
+    // rows given back by an undone layer delete, they are paged in again the next time their area is queried
+    void layerRestored(BitSet rows) {
+        deleted.andNot(rows);
+        pagedArea = null;
+    }
+
+    // the whole document as it is now, used to save it. Needs the whole document in memory as columns
+    ColumnarFigureStore toStore() {
+        return contents(() -> { }).toStore();
+    }
+
+    // the document as it is now, to be read by a job while the FX thread goes on: a copy of the figures
+    // in the canvas and the rows that are neither in it nor deleted. Cheap to take, the rows stay in the file.
+    // The checkpoint runs every few thousand rows read, a job passes checkCancelled
+    public Contents contents(Runnable checkpoint) {
+        BitSet skipped = (BitSet) loaded.clone();
+        skipped.or(deleted);
+        return new Contents(canvasState.snapshot(), skipped, new ArrayList<>(canvasState.layers()), checkpoint);
+    }
+
+    // every figure of the layer in z-order: the ones in the canvas merged with the rows that were never
+    // paged in. Those are read into a new figure each time and never added to the canvas,
+    // so going through a whole document takes constant memory
+    Iterable<Figure> figuresOf(int layer) {
+        return () -> new Iterator<>() {
+            private final Iterator<Figure> inCanvas = canvasState.figuresView(layer).iterator();
+            private Figure nextInCanvas = inCanvas.hasNext() ? inCanvas.next() : null;
+            private int nextRow = findRow(layer, 0);
+
+            @Override
+            public boolean hasNext() {
+                return nextInCanvas != null || nextRow < rowCount;
+            }
+
+            @Override
+            public Figure next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                if (nextRow < rowCount && (nextInCanvas == null || nextRow < canvasState.orderOf(nextInCanvas))) {
+                    Figure figure = readFigure(buffer, nextRow);
+                    nextRow = findRow(layer, nextRow + 1);
+                    return figure;
+                }
+                Figure figure = nextInCanvas;
+                nextInCanvas = inCanvas.hasNext() ? inCanvas.next() : null;
+                return figure;
+            }
+        };
+    }
+
+    // next row of the layer from the given one that is neither in the canvas nor deleted, rowCount if none
+    private int findRow(int layer, int from) {
+        for (int row = from; row < rowCount; row++) {
+            if (!loaded.get(row) && !deleted.get(row) && isValid(buffer, row) && buffer.getInt(layerAt + 4 * row) == layer) return row;
+        }
+        return rowCount;
+    }
+
+    private void materialize(int row) {
+        if (!isValid(buffer, row)) {
+            deleted.set(row); // damaged row, skipped for good
+            return;
+        }
+        Figure figure = readFigure(buffer, row);
+        figure.setId(row);
+        canvasState.load(figure, row);
+        rowOf.put(figure, row);
+        resident.put(row, figure);
+        loaded.set(row);
+        materialized++;
+    }
+
+    // pages out clean figures outside the area until back under the budget, or to half of them
+    // when the heap is tight. Pinned ones stay where they are in the list
+    private void pageOut(Bounds keep) {
+        int target = heapIsTight() ? resident.size() / 2 : maxResident * 3 / 4;
+        Iterator<Map.Entry<Integer, Figure>> it = resident.entrySet().iterator();
+        while (resident.size() > target && it.hasNext()) {
+            Map.Entry<Integer, Figure> entry = it.next();
+            Figure figure = entry.getValue();
+            int row = entry.getKey();
+            if (pinned.contains(figure)
+                    || keep.intersects(figure.getMinX(), figure.getMinY(), figure.getMaxX(), figure.getMaxY())) continue;
+            it.remove();
+            if (!matchesRow(figure, row)) continue; // edited, stays in the canvas
+            canvasState.unload(figure);
+            rowOf.remove(figure);
+            loaded.clear(row);
+            evicted++;
+        }
+    }
+
+    // as forEachRowIn without marking: the entries of the cells the area overlaps, stopping once past the limit
+    private long rowsIn(Bounds area, long limit) {
+        int minCol = DocumentGrid.cellOf(area.getMinX(), originX, cellSize, gridColumns);
+        int maxCol = DocumentGrid.cellOf(area.getMaxX(), originX, cellSize, gridColumns);
+        int minRow = DocumentGrid.cellOf(area.getMinY(), originY, cellSize, gridRows);
+        int maxRow = DocumentGrid.cellOf(area.getMaxY(), originY, cellSize, gridRows);
+        long rows = largeCount;
+        for (int cy = minRow; cy <= maxRow && rows <= limit; cy++) {
+            // the cells of a grid row are consecutive, their entries too
+            int first = cy * gridColumns + minCol, last = cy * gridColumns + maxCol;
+            rows += buffer.getInt(cellStartAt + 4 * (last + 1)) - buffer.getInt(cellStartAt + 4 * first);
+        }
+        return rows;
+    }
+
+    // marks in scratch the rows listed in the cells the area overlaps, plus the large ones
+    private void forEachRowIn(Bounds area) {
+        int minCol = DocumentGrid.cellOf(area.getMinX(), originX, cellSize, gridColumns);
+        int maxCol = DocumentGrid.cellOf(area.getMaxX(), originX, cellSize, gridColumns);
+        int minRow = DocumentGrid.cellOf(area.getMinY(), originY, cellSize, gridRows);
+        int maxRow = DocumentGrid.cellOf(area.getMaxY(), originY, cellSize, gridRows);
+        for (int cy = minRow; cy <= maxRow; cy++) {
+            for (int cx = minCol; cx <= maxCol; cx++) {
+                int cell = cy * gridColumns + cx;
+                int start = buffer.getInt(cellStartAt + 4 * cell), end = buffer.getInt(cellStartAt + 4 * (cell + 1));
+                for (int i = start; i < end; i++) mark(buffer.getInt(entriesAt + 4 * i), area);
+            }
+        }
+        for (int i = 0; i < largeCount; i++) mark(buffer.getInt(largeAt + 4 * i), area);
+    }
+
+    private void mark(int row, Bounds area) {
+        if (row < 0 || row >= rowCount || scratch.get(row)) return;
+        if (area.intersects(minX(buffer, row), minY(buffer, row), maxX(buffer, row), maxY(buffer, row))) scratch.set(row);
+    }
+
+    // the readers below take the buffer to read from: the mapped one on the FX thread, a duplicate of it on a job
+    private Figure readFigure(ByteBuffer in, int row) {
+        Figure figure = ColumnarFigureStore.createFigure(in.get(typeAt + row), minX(in, row), minY(in, row), maxX(in, row), maxY(in, row));
+        figure.setFillColor1(ColumnarFigureStore.unpackArgb(in.getInt(fill1At + 4 * row)));
+        figure.setFillColor2(ColumnarFigureStore.unpackArgb(in.getInt(fill2At + 4 * row)));
+        figure.setShadowType(SHADOW_TYPES[in.get(shadowAt + row)]);
+        figure.setBorderType(BORDER_TYPES[in.get(borderAt + row)]);
+        figure.setBorderWidth(borderWidth(in, row));
+        figure.setLayer(in.getInt(layerAt + 4 * row));
+        figure.replaceTags(readTags(in, row));
+        return figure;
+    }
+
+    private List<String> readTags(ByteBuffer in, int row) {
+        int start = in.getInt(tagStartAt + 4 * row);
+        int count = in.getShort(tagCountAt + 2 * row);
+        List<String> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) tags.add(tagNames.get(in.getInt(tagDataAt + 4 * (start + i))));
+        return tags;
+    }
+
+    // the figure still holds exactly what the file has for its row
+    private boolean matchesRow(Figure figure, int row) {
+        return ColumnarFigureStore.typeOf(figure) == buffer.get(typeAt + row)
+                && figure.getMinX() == minX(buffer, row) && figure.getMinY() == minY(buffer, row)
+                && figure.getMaxX() == maxX(buffer, row) && figure.getMaxY() == maxY(buffer, row)
+                && ColumnarFigureStore.packArgb(figure.getFillColor1()) == buffer.getInt(fill1At + 4 * row)
+                && ColumnarFigureStore.packArgb(figure.getFillColor2()) == buffer.getInt(fill2At + 4 * row)
+                && figure.getShadowType().ordinal() == buffer.get(shadowAt + row)
+                && figure.getBorderType().ordinal() == buffer.get(borderAt + row)
+                && figure.getBorderWidth() == borderWidth(buffer, row)
+                && figure.getLayer() == buffer.getInt(layerAt + 4 * row)
+                && figure.getTags().equals(readTags(buffer, row));
+    }
+
+    private boolean isValid(ByteBuffer in, int row) {
+        byte type = in.get(typeAt + row), shadow = in.get(shadowAt + row), border = in.get(borderAt + row);
+        if (type < ColumnarFigureStore.RECTANGLE || type > ColumnarFigureStore.CIRCLE) return false;
+        if (shadow < 0 || shadow >= SHADOW_TYPES.length || border < 0 || border >= BORDER_TYPES.length) return false;
+        int start = in.getInt(tagStartAt + 4 * row);
+        int count = in.getShort(tagCountAt + 2 * row);
+        if (start < 0 || count < 0 || (long) start + count > tagDataLength) return false;
+        for (int i = 0; i < count; i++) {
+            int tag = in.getInt(tagDataAt + 4 * (start + i));
+            if (tag < 0 || tag >= tagNames.size()) return false;
+        }
+        return true;
+    }
+
+    private double minX(ByteBuffer in, int row) { return in.getDouble(minXAt + 8 * row); }
+    private double minY(ByteBuffer in, int row) { return in.getDouble(minYAt + 8 * row); }
+    private double maxX(ByteBuffer in, int row) { return in.getDouble(maxXAt + 8 * row); }
+    private double maxY(ByteBuffer in, int row) { return in.getDouble(maxYAt + 8 * row); }
+
+    private double borderWidth(ByteBuffer in, int row) {
+        return doubleWidths ? in.getDouble(borderWidthAt + 8 * row) : in.getFloat(borderWidthAt + 4 * row);
+    }
+
+    private int checked(long offset) throws IOException {
+        if (offset < 0 || offset > buffer.capacity()) throw new IOException("El archivo está dañado");
+        return (int) offset;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) / 8 * 8;
+    }
+
+    private static boolean sameArea(Bounds a, Bounds b) {
+        return a.getMinX() == b.getMinX() && a.getMinY() == b.getMinY() && a.getMaxX() == b.getMaxX() && a.getMaxY() == b.getMaxY();
+    }
+
+    private static boolean contains(Bounds outer, Bounds inner) {
+        return outer.contains(inner.getMinX(), inner.getMinY()) && outer.contains(inner.getMaxX(), inner.getMaxY());
+    }
+
+    private static boolean heapIsTight() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = runtime.totalMemory() - runtime.freeMemory();
+        return used > runtime.maxMemory() * HEAP_PRESSURE;
+    }
+
+    // Read by the thread of a job only, through a buffer of its own: the mapped one and the bitsets
+    // belong to the FX thread, which keeps paging in and out meanwhile
+    public final class Contents {
+
+        private static final int CHECKPOINT_ROWS = 4096;
+
+        private final CanvasSnapshot copy;
+        private final ColumnarFigureStore.Cursor cursor;
+        private final BitSet skipped;
+        private final List<Integer> layers;
+        private final Runnable checkpoint;
+        private final ByteBuffer rows = buffer.duplicate().order(buffer.order());
+
+        private Contents(CanvasSnapshot copy, BitSet skipped, List<Integer> layers, Runnable checkpoint) {
+            this.copy = copy;
+            this.cursor = copy.cursor();
+            this.skipped = skipped;
+            this.layers = layers;
+            this.checkpoint = checkpoint;
+        }
+
+        public List<Integer> layers() { return layers; }
+
+        // every figure of the layer in z-order, as LazyDocument.figuresOf: the rows are read into
+        // a new figure each time, going through a whole document takes constant memory
+        public Iterable<Figure> figuresOf(int layer) {
+            return () -> new Iterator<>() {
+                private int nextInCopy = findInCopy(layer);
+                private int nextRow = findRow(layer, 0);
+
+                @Override
+                public boolean hasNext() {
+                    return nextInCopy < copy.size() || nextRow < rowCount;
+                }
+
+                @Override
+                public Figure next() {
+                    if (!hasNext()) throw new NoSuchElementException();
+                    if (nextRow < rowCount && (nextInCopy == copy.size() || nextRow < copy.getOrder(nextInCopy))) {
+                        Figure figure = readFigure(rows, nextRow);
+                        figure.setId(nextRow);
+                        nextRow = findRow(layer, nextRow + 1);
+                        return figure;
+                    }
+                    Figure figure = copy.toFigure(nextInCopy);
+                    // the copy is sorted by layer, the next row is of this layer or the layer is done
+                    nextInCopy++;
+                    if (nextInCopy < copy.size() && cursor.moveTo(nextInCopy).getLayer() != layer) nextInCopy = copy.size();
+                    return figure;
+                }
+            };
+        }
+
+        // the whole document as columns, to save it
+        public ColumnarFigureStore toStore() {
+            ColumnarFigureStore store = new ColumnarFigureStore();
+            for (int layer : layers) {
+                for (Figure figure : figuresOf(layer)) store.add(figure);
+            }
+            return store;
+        }
+
+        // a canvas of its own with the figures of the visible layers that reach into the area, for an export
+        // of what is on screen. It belongs to the thread that made it
+        public CanvasState toCanvasState(Bounds area, IntPredicate visibleLayers) {
+            CanvasState canvas = new CanvasState();
+            for (int i = 0; i < copy.size(); i++) {
+                cursor.moveTo(i);
+                if (visibleLayers.test(cursor.getLayer())
+                        && area.intersects(cursor.getMinX(), cursor.getMinY(), cursor.getMaxX(), cursor.getMaxY())) {
+                    canvas.restoreFigure(copy.toFigure(i), copy.getOrder(i));
+                }
+            }
+            for (int row = skipped.nextClearBit(0); row < rowCount; row = skipped.nextClearBit(row + 1)) {
+                if (row % CHECKPOINT_ROWS == 0) checkpoint.run();
+                if (!visibleLayers.test(rows.getInt(layerAt + 4 * row))
+                        || !area.intersects(minX(rows, row), minY(rows, row), maxX(rows, row), maxY(rows, row))
+                        || !isValid(rows, row)) continue;
+                Figure figure = readFigure(rows, row);
+                figure.setId(row);
+                canvas.restoreFigure(figure, row);
+            }
+            return canvas;
+        }
+
+        // first figure of the layer in the copy, its size if none
+        private int findInCopy(int layer) {
+            for (int i = 0; i < copy.size(); i++) {
+                if (cursor.moveTo(i).getLayer() == layer) return i;
+            }
+            return copy.size();
+        }
+
+        private int findRow(int layer, int from) {
+            for (int row = skipped.nextClearBit(from); row < rowCount; row = skipped.nextClearBit(row + 1)) {
+                if (row % CHECKPOINT_ROWS == 0) checkpoint.run();
+                if (rows.getInt(layerAt + 4 * row) == layer && isValid(rows, row)) return row;
+            }
+            return rowCount;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package backend;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+// Appends the values of a registry to a CSV file at a fixed interval, from a thread of its own, so a load test
+// can be charted while it runs. One row per interval: the time in milliseconds and then every value, in name order.
+// The file rolls over once it reaches maxBytes: it becomes name.1 (the one before name.2, and so on up to keep files)
+// and a new one starts with its header. A metric that shows up later also starts a new file, so each file has
+// a single header. A file already there when it starts is rolled over too.
+public class MetricsCsvWriter implements AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 1000;
+    public static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+    public static final int DEFAULT_KEEP = 4;
+
+    private final MetricsRegistry registry;
+    private final Path file;
+    private final long intervalMillis;
+    private final long maxBytes;
+    private final int keep;
+    private final Thread writer;
+    private volatile boolean closed = false;
+    private volatile IOException failure;
+    private volatile long rows = 0;
+
+    // writer thread only
+    private BufferedWriter out;
+    private List<String> columns;
+    private long bytes;
+
+    public MetricsCsvWriter(MetricsRegistry registry, Path file, long intervalMillis, long maxBytes, int keep) throws IOException {
+        if (intervalMillis < 1 || maxBytes < 1 || keep < 0) {
+            throw new IllegalArgumentException("Intervalo, tamaño o cantidad de archivos inválidos");
+        }
+        this.registry = registry;
+        this.file = file;
+        this.intervalMillis = intervalMillis;
+        this.maxBytes = maxBytes;
+        this.keep = keep;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        if (Files.exists(file)) roll();
+        this.writer = new Thread(this::writeLoop, "metrics-csv");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public MetricsCsvWriter(MetricsRegistry registry, Path file) throws IOException {
+        this(registry, file, DEFAULT_INTERVAL_MILLIS, DEFAULT_MAX_BYTES, DEFAULT_KEEP);
+    }
+
+    // started when launching, e.g. -Dtpe.metrics.csv=carga.csv -Dtpe.metrics.interval=250. Null when not asked for
+    public static MetricsCsvWriter fromSystemProperties(MetricsRegistry registry) throws IOException {
+        String path = System.getProperty("tpe.metrics.csv");
+        if (path == null || path.isBlank()) return null;
+        long interval = Long.getLong("tpe.metrics.interval", DEFAULT_INTERVAL_MILLIS);
+        return new MetricsCsvWriter(registry, Path.of(path), interval, DEFAULT_MAX_BYTES, DEFAULT_KEEP);
+    }
+
+    public Path getFile() { return file; }
+
+    public long getRows() { return rows; }
+
+    // why the writer stopped on its own, null while it keeps writing
+    public IOException getFailure() { return failure; }
+
+    // writes a last row and closes the file
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public String toString() {
+        String state = failure != null ? "detenido: " + failure.getMessage() : closed ? "cerrado" : "cada " + intervalMillis + " ms";
+        return String.format("Métricas en %s: %d filas, %s", file, rows, state);
+    }
+
+    private void writeLoop() {
+        try {
+            long next = System.nanoTime();
+            while (true) {
+                // not interrupted to close: an interrupt in the middle of a write would close the file under it
+                next = Math.max(next, System.nanoTime()) + intervalMillis * 1_000_000L;
+                for (long wait; !closed && (wait = next - System.nanoTime()) > 0; ) LockSupport.parkNanos(this, wait);
+                writeRow(registry.values()); // closing still writes a last row
+                if (closed) break;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+    }
+
+    private void writeRow(Map<String, Double> values) throws IOException {
+        List<String> names = new ArrayList<>(values.keySet());
+        if (out == null || !names.equals(columns) || bytes >= maxBytes) {
+            if (out != null) {
+                out.close();
+                out = null;
+                roll();
+            }
+            columns = names;
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+            bytes = 0;
+            StringBuilder header = new StringBuilder("time_ms");
+            for (String name : names) header.append(',').append(name);
+            write(header);
+        }
+        StringBuilder row = new StringBuilder().append(System.currentTimeMillis());
+        for (double value : values.values()) {
+            row.append(',');
+            if (value == Math.rint(value) && Math.abs(value) < 1e15) row.append((long) value);
+            else row.append(String.format(Locale.ROOT, "%.4f", value));
+        }
+        write(row);
+        rows++;
+    }
+
+    // lines are flushed one by one, the file can be charted while it grows
+    private void write(StringBuilder line) throws IOException {
+        line.append('\n');
+        out.append(line);
+        out.flush();
+        bytes += line.length();
+    }
+
+    // name.keep is dropped, every other one moves one place up and the file becomes name.1
+    private void roll() throws IOException {
+        if (keep == 0) {
+            Files.deleteIfExists(file);
+            return;
+        }
+        Files.deleteIfExists(rolled(keep));
+        for (int i = keep - 1; i >= 1; i--) {
+            if (Files.exists(rolled(i))) Files.move(rolled(i), rolled(i + 1), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(file, rolled(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rolled(int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+}
@@ -0,0 +1,150 @@
+package backend;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Named counters, gauges and timers. The UI thread records them as it paints and handles the mouse,
+// any other thread can read them meanwhile (the HUD, MetricsCsvWriter).
+// Counters only grow, gauges hold the last value set (or read a supplier when asked, which must then be safe
+// from any thread) and timers keep their last TIMER_WINDOW samples, for the last one and percentiles of the recent ones.
+// Callers on a hot path look a metric up once and keep it, the lookup by name is not meant for every frame.
+public class MetricsRegistry {
+
+    public static final int TIMER_WINDOW = 1024;
+
+    private final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+    private final Map<String, Timer> timers = new ConcurrentSkipListMap<>();
+
+    // null when the JVM cannot tell how much a thread allocated
+    private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+    public Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, key -> new Gauge(null));
+    }
+
+    // a gauge read from somewhere else every time it is asked for, e.g. the queue depth of the jobs
+    public void gauge(String name, DoubleSupplier supplier) {
+        gauges.put(name, new Gauge(supplier));
+    }
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, key -> new Timer());
+    }
+
+    // every value by name, in name order. A timer gives name.count, name.last.ms, name.p50.ms, name.p99.ms and name.max.ms
+    public Map<String, Double> values() {
+        Map<String, Double> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) values.put(entry.getKey(), (double) entry.getValue().get());
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) values.put(entry.getKey(), entry.getValue().get());
+        for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+            String name = entry.getKey();
+            Timer timer = entry.getValue();
+            long[] window = timer.window();
+            values.put(name + ".count", (double) timer.getCount());
+            values.put(name + ".last.ms", timer.getLastMillis());
+            values.put(name + ".p50.ms", percentileMillis(window, 0.5));
+            values.put(name + ".p99.ms", percentileMillis(window, 0.99));
+            values.put(name + ".max.ms", window.length == 0 ? 0 : window[window.length - 1] / 1e6);
+        }
+        return values;
+    }
+
+    // bytes the current thread allocated since it started, -1 if the JVM does not keep count
+    public static long currentThreadAllocatedBytes() {
+        return THREADS == null ? -1 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) return null;
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) return null;
+        try {
+            if (!threads.isThreadAllocatedMemoryEnabled()) threads.setThreadAllocatedMemoryEnabled(true);
+        } catch (SecurityException | UnsupportedOperationException e) {
+            return null;
+        }
+        return threads;
+    }
+
+    // nearest rank over samples already sorted
+    private static double percentileMillis(long[] sorted, double quantile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank))] / 1e6;
+    }
+
+    public static final class Counter {
+        private final LongAdder count = new LongAdder();
+
+        private Counter() {
+        }
+
+        public void increment() { count.increment(); }
+
+        public void add(long amount) { count.add(amount); }
+
+        public long get() { return count.sum(); }
+    }
+
+    public static final class Gauge {
+        private final DoubleSupplier supplier;
+        private volatile double value;
+
+        private Gauge(DoubleSupplier supplier) {
+            this.supplier = supplier;
+        }
+
+        public void set(double value) {
+            if (supplier != null) throw new IllegalStateException("El indicador se lee de otra parte");
+            this.value = value;
+        }
+
+        public double get() {
+            return supplier != null ? supplier.getAsDouble() : value;
+        }
+    }
+
+    public static final class Timer {
+        private final long[] samples = new long[TIMER_WINDOW];
+        private long count = 0;
+        private long last = 0;
+
+        private Timer() {
+        }
+
+        public synchronized void record(long nanos) {
+            samples[(int) (count % TIMER_WINDOW)] = nanos;
+            count++;
+            last = nanos;
+        }
+
+        public synchronized long getCount() { return count; }
+
+        public synchronized double getLastMillis() { return last / 1e6; }
+
+        // over the last TIMER_WINDOW samples, 0 to 1
+        public double getPercentileMillis(double quantile) {
+            return percentileMillis(window(), quantile);
+        }
+
+        // the samples in the window, sorted
+        private long[] window() {
+            long[] window;
+            synchronized (this) {
+                window = Arrays.copyOf(samples, (int) Math.min(count, TIMER_WINDOW));
+            }
+            Arrays.sort(window);
+            return window;
+        }
+    }
+}
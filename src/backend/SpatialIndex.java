@@ -0,0 +1,294 @@
+package backend;
+
+import backend.model.Bounds;
+import backend.model.Figure;
+import backend.model.Point;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Uniform hash grid keyed on each figure's bounding box.
+// A point query only looks at one cell, a rectangle query only at the cells it overlaps,
+// so picking costs O(1 + k) instead of walking every figure.
+// Figures that would cover too many cells are kept apart in a small "large" list.
+public class SpatialIndex {
+
+    private static final double CELL_SIZE = 64.0;
+    private static final int MAX_CELLS_PER_FIGURE = 256;
+
+    private static final Comparator<Entry> BY_INSERTION = Comparator.comparingLong(e -> e.seq);
+
+    private final CellMap cells = new CellMap();
+    private final Map<Figure, Entry> entries = new IdentityHashMap<>();
+    private final List<Entry> large = new ArrayList<>();
+    private long nextSeq = 0;
+
+    private static class Entry {
+        private final Figure figure;
+        private final long seq;
+        private double minX, minY, maxX, maxY;
+        private int minCellX, minCellY, maxCellX, maxCellY;
+        private boolean isLarge;
+
+        private Entry(Figure figure, long seq) {
+            this.figure = figure;
+            this.seq = seq;
+        }
+
+        private boolean contains(double x, double y) {
+            return x >= minX && x <= maxX && y >= minY && y <= maxY;
+        }
+
+        private boolean intersects(Bounds area) {
+            return area.intersects(minX, minY, maxX, maxY);
+        }
+    }
+
+    public void insert(Figure figure) {
+        insert(figure, nextSeq);
+    }
+
+    // seq sets the position of the figure in query results, lower first
+    public void insert(Figure figure, long seq) {
+        if (entries.containsKey(figure)) return;
+        nextSeq = Math.max(nextSeq, seq + 1);
+        Entry entry = new Entry(figure, seq);
+        entries.put(figure, entry);
+        place(entry);
+    }
+
+    public void remove(Figure figure) {
+        Entry entry = entries.remove(figure);
+        if (entry != null) unplace(entry);
+    }
+
+    // while the figure stays within the same cells only the cached bounds change,
+    // so dragging a figure does not allocate
+    public void update(Figure figure) {
+        Entry entry = entries.get(figure);
+        if (entry == null) return;
+        if (!entry.isLarge && cellOf(figure.getMinX()) == entry.minCellX && cellOf(figure.getMinY()) == entry.minCellY
+                && cellOf(figure.getMaxX()) == entry.maxCellX && cellOf(figure.getMaxY()) == entry.maxCellY) {
+            readBounds(entry);
+            return;
+        }
+        unplace(entry);
+        place(entry);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    // bounds the figure was indexed with, which are the ones it had before a change until update is called.
+    // Null if the figure is not in the index
+    public Bounds boundsOf(Figure figure) {
+        Entry entry = entries.get(figure);
+        return entry == null ? null : new Bounds(entry.minX, entry.minY, entry.maxX, entry.maxY);
+    }
+
+    // same as boundsOf into minX, minY, maxX and maxY of the array, without allocating. False if the figure is not in the index
+    boolean boundsOf(Figure figure, double[] bounds) {
+        Entry entry = entries.get(figure);
+        if (entry == null) return false;
+        bounds[0] = entry.minX;
+        bounds[1] = entry.minY;
+        bounds[2] = entry.maxX;
+        bounds[3] = entry.maxY;
+        return true;
+    }
+
+    // figures whose shape contains the point, in insertion order (topmost last)
+    public List<Figure> queryPoint(Point point) {
+        List<Entry> found = new ArrayList<>();
+        List<Entry> cell = cells.get(key(cellOf(point.getX()), cellOf(point.getY())));
+        if (cell != null) {
+            for (Entry entry : cell) {
+                if (entry.contains(point.getX(), point.getY()) && entry.figure.contains(point)) found.add(entry);
+            }
+        }
+        for (Entry entry : large) {
+            if (entry.contains(point.getX(), point.getY()) && entry.figure.contains(point)) found.add(entry);
+        }
+        return toFigures(found);
+    }
+
+    // figures whose bounding box intersects the area, in insertion order
+    public List<Figure> queryRect(Bounds area) {
+        List<Entry> found = new ArrayList<>();
+        int minCellX = cellOf(area.getMinX()), minCellY = cellOf(area.getMinY());
+        int maxCellX = cellOf(area.getMaxX()), maxCellY = cellOf(area.getMaxY());
+        long cellCount = (long) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1);
+
+        if (cellCount > cells.size()) {
+            // the area is bigger than the populated grid, scanning the entries is cheaper
+            for (Entry entry : entries.values()) {
+                if (entry.intersects(area)) found.add(entry);
+            }
+            return toFigures(found);
+        }
+
+        Set<Entry> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int cx = minCellX; cx <= maxCellX; cx++) {
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                List<Entry> cell = cells.get(key(cx, cy));
+                if (cell == null) continue;
+                for (Entry entry : cell) {
+                    if (entry.intersects(area) && seen.add(entry)) found.add(entry);
+                }
+            }
+        }
+        for (Entry entry : large) {
+            if (entry.intersects(area)) found.add(entry);
+        }
+        return toFigures(found);
+    }
+
+    private void readBounds(Entry entry) {
+        entry.minX = entry.figure.getMinX();
+        entry.minY = entry.figure.getMinY();
+        entry.maxX = entry.figure.getMaxX();
+        entry.maxY = entry.figure.getMaxY();
+    }
+
+    private void place(Entry entry) {
+        readBounds(entry);
+        entry.minCellX = cellOf(entry.minX);
+        entry.minCellY = cellOf(entry.minY);
+        entry.maxCellX = cellOf(entry.maxX);
+        entry.maxCellY = cellOf(entry.maxY);
+        long cellCount = (long) (entry.maxCellX - entry.minCellX + 1) * (entry.maxCellY - entry.minCellY + 1);
+        entry.isLarge = cellCount > MAX_CELLS_PER_FIGURE;
+
+        if (entry.isLarge) {
+            large.add(entry);
+            return;
+        }
+        for (int cx = entry.minCellX; cx <= entry.maxCellX; cx++) {
+            for (int cy = entry.minCellY; cy <= entry.maxCellY; cy++) {
+                cells.getOrCreate(key(cx, cy)).add(entry);
+            }
+        }
+    }
+
+    private void unplace(Entry entry) {
+        if (entry.isLarge) {
+            large.remove(entry);
+            return;
+        }
+        for (int cx = entry.minCellX; cx <= entry.maxCellX; cx++) {
+            for (int cy = entry.minCellY; cy <= entry.maxCellY; cy++) {
+                long key = key(cx, cy);
+                List<Entry> cell = cells.get(key);
+                if (cell == null) continue;
+                cell.remove(entry);
+                if (cell.isEmpty()) cells.remove(key);
+            }
+        }
+    }
+
+    private static List<Figure> toFigures(List<Entry> found) {
+        found.sort(BY_INSERTION);
+        List<Figure> result = new ArrayList<>(found.size());
+        for (Entry entry : found) result.add(entry.figure);
+        return result;
+    }
+
+    private static int cellOf(double coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    // open addressing map from cell key to its entries. Keys stay primitive and the lists of emptied cells
+    // are kept for the next cell that fills, so a figure crossing cells while dragged does not allocate.
+    // A HashMap<Long, ...> boxed every key and, since Long.hashCode folds x onto y, piled diagonal cells into one bin
+    private static class CellMap {
+        private static final int MAX_SPARE = 64;
+
+        private long[] keys = new long[16];
+        private List<Entry>[] values = newValues(16);
+        private int size = 0;
+        private final List<List<Entry>> spare = new ArrayList<>();
+
+        @SuppressWarnings("unchecked")
+        private static List<Entry>[] newValues(int length) {
+            return (List<Entry>[]) new List[length];
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private int slotOf(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (values[slot] != null && keys[slot] != key) slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private List<Entry> get(long key) {
+            return values[slotOf(key)];
+        }
+
+        private List<Entry> getOrCreate(long key) {
+            int slot = slotOf(key);
+            if (values[slot] != null) return values[slot];
+            if ((size + 1) * 4 > keys.length * 3) {
+                grow();
+                slot = slotOf(key);
+            }
+            List<Entry> cell = spare.isEmpty() ? new ArrayList<>() : spare.remove(spare.size() - 1);
+            keys[slot] = key;
+            values[slot] = cell;
+            size++;
+            return cell;
+        }
+
+        private void remove(long key) {
+            int mask = keys.length - 1;
+            int slot = slotOf(key);
+            if (values[slot] == null) return;
+            if (spare.size() < MAX_SPARE) spare.add(values[slot]);
+            values[slot] = null;
+            size--;
+            // shifts back the entries of the probe run so lookups never stop at the hole
+            int next = (slot + 1) & mask;
+            while (values[next] != null) {
+                int home = hash(keys[next]) & mask;
+                if (((next - home) & mask) >= ((next - slot) & mask)) {
+                    keys[slot] = keys[next];
+                    values[slot] = values[next];
+                    values[next] = null;
+                    slot = next;
+                }
+                next = (next + 1) & mask;
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            List<Entry>[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = newValues(oldKeys.length * 2);
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] == null) continue;
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package backend;
+
+import backend.model.Figure;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Inverted index of tags: every tag string is interned to an int id,
+// and each tag id has a bitset with the ids of the figures that carry it.
+// Bits of figures in a dropped layer are left behind: they are never tested again
+// and are set back if the figures return to the canvas.
+class TagIndex {
+
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    private final List<String> tagNames = new ArrayList<>();
+    private final List<BitSet> postings = new ArrayList<>();
+    private long version = 0;
+
+    void add(Figure figure) {
+        for (String tag : figure.getTags()) postings.get(intern(tag)).set(figure.getId());
+        version++;
+    }
+
+    void remove(Figure figure) {
+        clear(figure, figure.getTags());
+    }
+
+    void update(Figure figure, List<String> oldTags) {
+        clear(figure, oldTags);
+        add(figure);
+    }
+
+    // forgets every figure, as when the canvas is cleared: the ids are handed out again by the next document
+    void clear() {
+        tagIds.clear();
+        tagNames.clear();
+        postings.clear();
+        version++;
+    }
+
+    // figures carrying the tag, empty for unknown tags. Must not be modified
+    BitSet figuresWith(String tag) {
+        Integer id = tagIds.get(tag);
+        return id == null ? new BitSet() : postings.get(id);
+    }
+
+    int tagCount() {
+        return tagNames.size();
+    }
+
+    String tagName(int tagId) {
+        return tagNames.get(tagId);
+    }
+
+    // bumped on every change, lets queries know their cached result is stale
+    long getVersion() {
+        return version;
+    }
+
+    private void clear(Figure figure, List<String> tags) {
+        for (String tag : tags) {
+            Integer id = tagIds.get(tag);
+            if (id != null) postings.get(id).clear(figure.getId());
+        }
+        version++;
+    }
+
+    private int intern(String tag) {
+        Integer id = tagIds.get(tag);
+        if (id == null) {
+            id = tagNames.size();
+            tagIds.put(tag, id);
+            tagNames.add(tag);
+            postings.add(new BitSet());
+        }
+        return id;
+    }
+}
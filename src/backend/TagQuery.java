@@ -0,0 +1,119 @@
+package backend;
+
+import backend.model.Figure;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.IntSupplier;
+
+// Tag filter evaluated against the inverted index of a CanvasState.
+// Words separated by spaces must all match (AND), "a|b" matches any of them (OR)
+// and a leading "-" excludes the tag (NOT). For example: "casa techo|pared -borrador".
+// The result is a bitset of figure ids, recomputed only when some tag changed.
+public class TagQuery {
+
+    private final TagIndex index;
+    private final IntSupplier idLimit;
+    private final List<Term> terms = new ArrayList<>();
+
+    private BitSet result;
+    private long resultVersion = -1;
+
+    private static class Term {
+        private final String[] alternatives;
+        private final boolean negated;
+
+        private Term(String[] alternatives, boolean negated) {
+            this.alternatives = alternatives;
+            this.negated = negated;
+        }
+
+        private boolean matches(List<String> tags) {
+            for (String tag : alternatives) {
+                if (tags.contains(tag)) return !negated;
+            }
+            return negated;
+        }
+    }
+
+    TagQuery(TagIndex index, IntSupplier idLimit, String expression) {
+        this.index = index;
+        this.idLimit = idLimit;
+        parse(expression, terms);
+    }
+
+    // the same filter tested on the tags each figure holds, for figures in no canvas (the rows a job reads
+    // from a lazy document). Needs no index, so it can be used from any thread
+    public static Predicate<Figure> byTags(String expression) {
+        List<Term> terms = new ArrayList<>();
+        parse(expression, terms);
+        return figure -> {
+            if (terms.isEmpty()) return false;
+            for (Term term : terms) {
+                if (!term.matches(figure.getTags())) return false;
+            }
+            return true;
+        };
+    }
+
+    private static void parse(String expression, List<Term> terms) {
+        for (String word : expression.trim().split("\\s+")) {
+            boolean negated = word.startsWith("-") && word.length() > 1;
+            if (negated) word = word.substring(1);
+            if (!word.isEmpty()) terms.add(new Term(word.split("\\|"), negated));
+        }
+    }
+
+    public boolean isEmpty() {
+        return terms.isEmpty();
+    }
+
+    // an empty query matches nothing
+    public boolean matches(Figure figure) {
+        return figure.getId() >= 0 && evaluate().get(figure.getId());
+    }
+
+    // the query tested on a list of tags instead of the index, for rows of a lazy document drawn without
+    // their figure (see LazyDocument.forEachRow)
+    public boolean matchesTags(List<String> tags) {
+        if (terms.isEmpty()) return false;
+        for (Term term : terms) {
+            if (!term.matches(tags)) return false;
+        }
+        return true;
+    }
+
+    // the result as it is now, no longer following the tags. Evaluated here, so other threads
+    // can test figures against it while this one keeps the index (and this query) to itself
+    public Predicate<Figure> frozen() {
+        BitSet matched = (BitSet) evaluate().clone();
+        return figure -> figure.getId() >= 0 && matched.get(figure.getId());
+    }
+
+    public int count() {
+        return evaluate().cardinality();
+    }
+
+    private BitSet evaluate() {
+        if (result == null || resultVersion != index.getVersion()) {
+            result = compute();
+            resultVersion = index.getVersion();
+        }
+        return result;
+    }
+
+    private BitSet compute() {
+        BitSet acc = null;
+        for (Term term : terms) {
+            BitSet matched = new BitSet();
+            for (String tag : term.alternatives) matched.or(index.figuresWith(tag));
+            if (term.negated) matched.flip(0, idLimit.getAsInt());
+
+            if (acc == null) acc = matched;
+            else acc.and(matched);
+        }
+        return acc == null ? new BitSet() : acc;
+    }
+}
@@ -0,0 +1,52 @@
+package backend.history;
+
+import backend.CanvasState;
+import backend.model.Figure;
+
+import java.util.Collection;
+import java.util.List;
+
+// New figures: created, duplicated, or the halves of a divided one.
+// They get their z-order the first time, a redo after an undo puts them back at the same one.
+public class AddFiguresCommand implements Command {
+
+    private final CanvasState canvasState;
+    private final String name;
+    private final List<Figure> figures;
+    private long[] orders;
+
+    public AddFiguresCommand(CanvasState canvasState, String name, List<Figure> figures) {
+        this.canvasState = canvasState;
+        this.name = name;
+        this.figures = List.copyOf(figures);
+    }
+
+    @Override
+    public void redo() {
+        if (orders == null) {
+            orders = new long[figures.size()];
+            for (int i = 0; i < figures.size(); i++) {
+                canvasState.addFigure(figures.get(i));
+                orders[i] = canvasState.orderOf(figures.get(i));
+            }
+        } else {
+            for (int i = 0; i < figures.size(); i++) canvasState.restoreFigure(figures.get(i), orders[i]);
+        }
+    }
+
+    @Override
+    public void undo() {
+        for (int i = figures.size() - 1; i >= 0; i--) canvasState.deleteFigure(figures.get(i));
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public Collection<Figure> getFigures() { return figures; }
+
+    @Override
+    public long getSizeInBytes() {
+        return History.COMMAND_BYTES + figures.size() * (History.FIGURE_BYTES + Long.BYTES);
+    }
+}
@@ -0,0 +1,30 @@
+package backend.history;
+
+import backend.model.Figure;
+
+import java.util.Collection;
+
+// An invertible change to a CanvasState. It only keeps what it needs to go both ways
+// (the figures it touches and their previous values), never a copy of the document,
+// so undoing or redoing it costs as much as the change itself.
+public interface Command {
+
+    // applies the change, also the first time (see History.perform)
+    void redo();
+
+    void undo();
+
+    // shown to the user, as in "Deshacer Mover figura"
+    String getName();
+
+    // figures whose area changes, the canvas repaints them before and after each step
+    Collection<Figure> getFigures();
+
+    // rough heap cost of keeping the command in the history
+    long getSizeInBytes();
+
+    // folds a command done right after this one into it, returns false if they stay apart
+    default boolean mergeWith(Command next) {
+        return false;
+    }
+}
@@ -0,0 +1,46 @@
+package backend.history;
+
+import backend.model.Figure;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Several commands done and undone as one step, as the delete and the two adds of a divide
+public class CompositeCommand implements Command {
+
+    private final String name;
+    private final List<Command> commands;
+
+    public CompositeCommand(String name, List<Command> commands) {
+        this.name = name;
+        this.commands = List.copyOf(commands);
+    }
+
+    @Override
+    public void redo() {
+        for (Command command : commands) command.redo();
+    }
+
+    @Override
+    public void undo() {
+        for (int i = commands.size() - 1; i >= 0; i--) commands.get(i).undo();
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public Collection<Figure> getFigures() {
+        List<Figure> figures = new ArrayList<>();
+        for (Command command : commands) figures.addAll(command.getFigures());
+        return figures;
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = History.COMMAND_BYTES;
+        for (Command command : commands) size += command.getSizeInBytes();
+        return size;
+    }
+}
@@ -0,0 +1,49 @@
+package backend.history;
+
+import backend.CanvasState;
+import backend.model.Figure;
+
+import java.util.Collection;
+import java.util.List;
+
+// Deleted figures are kept as they are, undo puts them back at the z-order they had
+public class DeleteFiguresCommand implements Command {
+
+    private final CanvasState canvasState;
+    private final String name;
+    private final List<Figure> figures;
+    private final long[] orders;
+
+    public DeleteFiguresCommand(CanvasState canvasState, String name, List<Figure> figures) {
+        this.canvasState = canvasState;
+        this.name = name;
+        this.figures = List.copyOf(figures);
+        this.orders = new long[figures.size()];
+    }
+
+    @Override
+    public void redo() {
+        for (int i = 0; i < figures.size(); i++) {
+            orders[i] = canvasState.orderOf(figures.get(i));
+            canvasState.deleteFigure(figures.get(i));
+        }
+    }
+
+    @Override
+    public void undo() {
+        for (int i = 0; i < figures.size(); i++) {
+            if (orders[i] >= 0) canvasState.restoreFigure(figures.get(i), orders[i]);
+        }
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public Collection<Figure> getFigures() { return figures; }
+
+    @Override
+    public long getSizeInBytes() {
+        return History.COMMAND_BYTES + figures.size() * (History.FIGURE_BYTES + Long.BYTES);
+    }
+}
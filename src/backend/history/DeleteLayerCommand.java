@@ -0,0 +1,50 @@
+package backend.history;
+
+import backend.CanvasState;
+import backend.DeletedLayer;
+import backend.model.Figure;
+
+import java.util.Collection;
+import java.util.List;
+
+// A whole layer taken out of the canvas. Its bucket is kept detached, undo puts it back in one step
+public class DeleteLayerCommand implements Command {
+
+    private final CanvasState canvasState;
+    private final int layer;
+    private DeletedLayer deletedLayer;
+
+    public DeleteLayerCommand(CanvasState canvasState, int layer) {
+        this.canvasState = canvasState;
+        this.layer = layer;
+    }
+
+    public int getLayer() { return layer; }
+
+    // null until the command runs
+    public DeletedLayer getDeletedLayer() { return deletedLayer; }
+
+    @Override
+    public void redo() {
+        deletedLayer = canvasState.deleteLayer(layer);
+    }
+
+    @Override
+    public void undo() {
+        canvasState.restoreLayer(deletedLayer);
+    }
+
+    @Override
+    public String getName() { return "Eliminar capa " + (layer + 1); }
+
+    @Override
+    public Collection<Figure> getFigures() {
+        return deletedLayer == null ? List.of() : deletedLayer.getFigures();
+    }
+
+    @Override
+    public long getSizeInBytes() {
+        int figures = deletedLayer == null ? 0 : deletedLayer.getFigures().size();
+        return History.COMMAND_BYTES + figures * History.FIGURE_BYTES;
+    }
+}
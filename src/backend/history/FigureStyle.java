@@ -0,0 +1,58 @@
+package backend.history;
+
+import backend.model.BorderType;
+import backend.model.Figure;
+import backend.model.ShadowType;
+import javafx.scene.paint.Color;
+
+import java.util.Objects;
+
+// The style attributes of a figure at one point in time
+public final class FigureStyle {
+
+    private final Color fillColor1, fillColor2;
+    private final ShadowType shadowType;
+    private final BorderType borderType;
+    private final double borderWidth;
+
+    private FigureStyle(Figure figure) {
+        this.fillColor1 = figure.getFillColor1();
+        this.fillColor2 = figure.getFillColor2();
+        this.shadowType = figure.getShadowType();
+        this.borderType = figure.getBorderType();
+        this.borderWidth = figure.getBorderWidth();
+    }
+
+    public static FigureStyle of(Figure figure) {
+        return new FigureStyle(figure);
+    }
+
+    void applyTo(Figure figure) {
+        figure.setFillColor1(fillColor1);
+        figure.setFillColor2(fillColor2);
+        figure.setShadowType(shadowType);
+        figure.setBorderType(borderType);
+        figure.setBorderWidth(borderWidth);
+    }
+
+    // one bit per attribute that differs from the other style
+    int differences(FigureStyle other) {
+        int mask = 0;
+        if (!Objects.equals(fillColor1, other.fillColor1)) mask |= 1;
+        if (!Objects.equals(fillColor2, other.fillColor2)) mask |= 1 << 1;
+        if (shadowType != other.shadowType) mask |= 1 << 2;
+        if (borderType != other.borderType) mask |= 1 << 3;
+        if (Double.compare(borderWidth, other.borderWidth) != 0) mask |= 1 << 4;
+        return mask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof FigureStyle && differences((FigureStyle) o) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(fillColor1, fillColor2, shadowType, borderType, borderWidth);
+    }
+}
@@ -0,0 +1,132 @@
+package backend.history;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Undo and redo stacks of commands, bounded by a memory budget.
+// When the commands kept add up to more than the budget the oldest ones are forgotten,
+// the last one done is always kept even if it is bigger than the whole budget.
+public class History {
+
+    public static final long DEFAULT_BUDGET = 16L << 20;
+
+    // estimates used by the commands for getSizeInBytes
+    static final long COMMAND_BYTES = 48;
+    static final long REFERENCE_BYTES = 8;
+    // a figure only the history holds on to (deleted, or added and then undone)
+    static final long FIGURE_BYTES = 160;
+
+    private final Deque<Command> undoStack = new ArrayDeque<>();
+    private final Deque<Command> redoStack = new ArrayDeque<>();
+    private long budget;
+    private long usedBytes = 0;
+    // told about every command done, undone or redone, after it was applied (the autosave journal listens)
+    private final List<Consumer<Command>> stepListeners = new ArrayList<>();
+
+    public History() {
+        this(DEFAULT_BUDGET);
+    }
+
+    public History(long budget) {
+        this.budget = budget;
+    }
+
+    // applies the command and records it
+    public void perform(Command command) {
+        command.redo();
+        record(command);
+    }
+
+    // records a command that was already applied, it is merged into the last one if they fit together
+    public void record(Command command) {
+        clearRedo();
+        notifyStep(command);
+        Command last = undoStack.peekLast();
+        if (last != null) {
+            long before = last.getSizeInBytes();
+            if (last.mergeWith(command)) {
+                usedBytes += last.getSizeInBytes() - before;
+                trim();
+                return;
+            }
+        }
+        undoStack.addLast(command);
+        usedBytes += command.getSizeInBytes();
+        trim();
+    }
+
+    public void addStepListener(Consumer<Command> listener) {
+        stepListeners.add(listener);
+    }
+
+    // the command undo would revert, null if there is none
+    public Command peekUndo() {
+        return undoStack.peekLast();
+    }
+
+    public Command peekRedo() {
+        return redoStack.peekLast();
+    }
+
+    // reverts the last command and returns it, null if there was nothing to undo
+    public Command undo() {
+        Command command = undoStack.pollLast();
+        if (command == null) return null;
+        command.undo();
+        redoStack.addLast(command);
+        notifyStep(command);
+        return command;
+    }
+
+    public Command redo() {
+        Command command = redoStack.pollLast();
+        if (command == null) return null;
+        command.redo();
+        undoStack.addLast(command);
+        notifyStep(command);
+        return command;
+    }
+
+    public boolean canUndo() { return !undoStack.isEmpty(); }
+
+    public boolean canRedo() { return !redoStack.isEmpty(); }
+
+    // forgets everything, as when another document is opened
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        usedBytes = 0;
+    }
+
+    public long getBudget() { return budget; }
+
+    public void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+    }
+
+    public long getUsedBytes() { return usedBytes; }
+
+    public int getUndoCount() { return undoStack.size(); }
+
+    public int getRedoCount() { return redoStack.size(); }
+
+    private void notifyStep(Command command) {
+        for (Consumer<Command> listener : stepListeners) listener.accept(command);
+    }
+
+    private void clearRedo() {
+        for (Command command : redoStack) usedBytes -= command.getSizeInBytes();
+        redoStack.clear();
+    }
+
+    // the oldest undo steps go first, the redo stack is never trimmed (it is cleared on the next command)
+    private void trim() {
+        while (usedBytes > budget && undoStack.size() > 1) {
+            usedBytes -= undoStack.pollFirst().getSizeInBytes();
+        }
+    }
+}
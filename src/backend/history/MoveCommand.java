@@ -0,0 +1,64 @@
+package backend.history;
+
+import backend.model.Figure;
+
+import java.util.Collection;
+import java.util.List;
+
+// Figures translated by the same offset. Each figure remembers the corner it started at,
+// undo and redo move it to that corner (plus the offset) so no rounding builds up.
+// A drag is a single command: the figures follow the mouse in place and the whole offset is
+// recorded when the drag ends, see the applied flag.
+public class MoveCommand implements Command {
+
+    private final String name;
+    private final List<Figure> figures;
+    private final double[] origins; // minX, minY of each figure before the move
+    private final double diffX, diffY;
+
+    public MoveCommand(String name, List<Figure> figures, double diffX, double diffY) {
+        this(name, figures, diffX, diffY, false);
+    }
+
+    // applied tells if the figures were already moved, as when a drag is recorded once it ends
+    public MoveCommand(String name, List<Figure> figures, double diffX, double diffY, boolean applied) {
+        this.name = name;
+        this.figures = List.copyOf(figures);
+        this.diffX = diffX;
+        this.diffY = diffY;
+        this.origins = new double[2 * figures.size()];
+        for (int i = 0; i < figures.size(); i++) {
+            Figure figure = figures.get(i);
+            origins[2 * i] = applied ? figure.getMinX() - diffX : figure.getMinX();
+            origins[2 * i + 1] = applied ? figure.getMinY() - diffY : figure.getMinY();
+        }
+    }
+
+    @Override
+    public void redo() {
+        moveTo(diffX, diffY);
+    }
+
+    @Override
+    public void undo() {
+        moveTo(0, 0);
+    }
+
+    private void moveTo(double offsetX, double offsetY) {
+        for (int i = 0; i < figures.size(); i++) {
+            Figure figure = figures.get(i);
+            figure.translate(origins[2 * i] + offsetX - figure.getMinX(), origins[2 * i + 1] + offsetY - figure.getMinY());
+        }
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public Collection<Figure> getFigures() { return figures; }
+
+    @Override
+    public long getSizeInBytes() {
+        return History.COMMAND_BYTES + figures.size() * (History.REFERENCE_BYTES + 2 * Double.BYTES);
+    }
+}
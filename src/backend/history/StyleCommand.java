@@ -0,0 +1,74 @@
+package backend.history;
+
+import backend.model.Figure;
+
+import java.util.Collection;
+import java.util.List;
+
+// A change of style of one or more figures, as the style of each one before and after.
+// Changes of the same attributes of the same figures in a row (dragging the border slider,
+// trying colors) fold into a single step.
+public class StyleCommand implements Command {
+
+    private final String name;
+    private final List<Figure> figures;
+    private final List<FigureStyle> before;
+    private List<FigureStyle> after;
+    // attributes changed in any of the figures
+    private final int changed;
+
+    public StyleCommand(String name, Figure figure, FigureStyle before, FigureStyle after) {
+        this(name, List.of(figure), List.of(before), List.of(after));
+    }
+
+    public StyleCommand(String name, List<Figure> figures, List<FigureStyle> before, List<FigureStyle> after) {
+        if (figures.size() != before.size() || figures.size() != after.size()) {
+            throw new IllegalArgumentException("Un estilo anterior y uno nuevo por figura");
+        }
+        this.name = name;
+        this.figures = List.copyOf(figures);
+        this.before = List.copyOf(before);
+        this.after = List.copyOf(after);
+        int mask = 0;
+        for (int i = 0; i < before.size(); i++) mask |= before.get(i).differences(after.get(i));
+        this.changed = mask;
+    }
+
+    @Override
+    public void redo() {
+        for (int i = 0; i < figures.size(); i++) after.get(i).applyTo(figures.get(i));
+    }
+
+    @Override
+    public void undo() {
+        for (int i = 0; i < figures.size(); i++) before.get(i).applyTo(figures.get(i));
+    }
+
+    @Override
+    public boolean mergeWith(Command next) {
+        if (!(next instanceof StyleCommand)) return false;
+        StyleCommand style = (StyleCommand) next;
+        if (style.changed != changed || !sameFigures(style.figures)) return false;
+        after = style.after;
+        return true;
+    }
+
+    private boolean sameFigures(List<Figure> others) {
+        if (others.size() != figures.size()) return false;
+        for (int i = 0; i < figures.size(); i++) {
+            if (others.get(i) != figures.get(i)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public Collection<Figure> getFigures() { return figures; }
+
+    @Override
+    public long getSizeInBytes() {
+        return History.COMMAND_BYTES + figures.size() * (3 * History.REFERENCE_BYTES + 2 * 48);
+    }
+}
@@ -0,0 +1,53 @@
+package backend.history;
+
+import backend.model.Figure;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+// Tags of one or more figures replaced by the same new list
+public class TagsCommand implements Command {
+
+    private final List<Figure> figures;
+    private final List<List<String>> before;
+    private final List<String> after;
+
+    public TagsCommand(Figure figure, List<String> after) {
+        this(List.of(figure), after);
+    }
+
+    public TagsCommand(List<Figure> figures, List<String> after) {
+        this.figures = List.copyOf(figures);
+        this.before = new ArrayList<>(figures.size());
+        for (Figure figure : figures) before.add(List.copyOf(figure.getTags()));
+        this.after = List.copyOf(after);
+    }
+
+    @Override
+    public void redo() {
+        for (Figure figure : figures) figure.replaceTags(after);
+    }
+
+    @Override
+    public void undo() {
+        for (int i = 0; i < figures.size(); i++) figures.get(i).replaceTags(before.get(i));
+    }
+
+    @Override
+    public String getName() { return "Editar etiquetas"; }
+
+    @Override
+    public Collection<Figure> getFigures() { return figures; }
+
+    @Override
+    public long getSizeInBytes() {
+        long size = History.COMMAND_BYTES + 2 * History.REFERENCE_BYTES;
+        for (List<String> tags : before) {
+            size += 2 * History.REFERENCE_BYTES;
+            for (String tag : tags) size += History.REFERENCE_BYTES + 40 + tag.length();
+        }
+        for (String tag : after) size += History.REFERENCE_BYTES + 40 + tag.length();
+        return size;
+    }
+}
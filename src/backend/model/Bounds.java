@@ -0,0 +1,64 @@
+package backend.model;
+
+// axis-aligned bounding box, used by the spatial index and the renderer
+public class Bounds {
+
+    private final double minX, minY, maxX, maxY;
+
+    public Bounds(double minX, double minY, double maxX, double maxY) {
+        this.minX = Math.min(minX, maxX);
+        this.minY = Math.min(minY, maxY);
+        this.maxX = Math.max(minX, maxX);
+        this.maxY = Math.max(minY, maxY);
+    }
+
+    public double getMinX() { return minX; }
+
+    public double getMinY() { return minY; }
+
+    public double getMaxX() { return maxX; }
+
+    public double getMaxY() { return maxY; }
+
+    public double getWidth() { return maxX - minX; }
+
+    public double getHeight() { return maxY - minY; }
+
+    public boolean contains(double x, double y) {
+        return x >= minX && x <= maxX && y >= minY && y <= maxY;
+    }
+
+    // the other box lies completely inside this one
+    public boolean contains(double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+        return otherMinX >= minX && otherMaxX <= maxX && otherMinY >= minY && otherMaxY <= maxY;
+    }
+
+    public boolean intersects(double otherMinX, double otherMinY, double otherMaxX, double otherMaxY) {
+        return otherMinX <= maxX && otherMaxX >= minX && otherMinY <= maxY && otherMaxY >= minY;
+    }
+
+    public boolean intersects(Bounds other) {
+        return intersects(other.minX, other.minY, other.maxX, other.maxY);
+    }
+
+    public Bounds union(Bounds other) {
+        return new Bounds(Math.min(minX, other.minX), Math.min(minY, other.minY),
+                Math.max(maxX, other.maxX), Math.max(maxY, other.maxY));
+    }
+
+    // the area both bounds cover, null if they do not overlap
+    public Bounds intersection(Bounds other) {
+        if (!intersects(other)) return null;
+        return new Bounds(Math.max(minX, other.minX), Math.max(minY, other.minY),
+                Math.min(maxX, other.maxX), Math.min(maxY, other.maxY));
+    }
+
+    public Bounds expand(double margin) {
+        return new Bounds(minX - margin, minY - margin, maxX + margin, maxY + margin);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("[%.2f , %.2f , %.2f , %.2f]", minX, minY, maxX, maxY);
+    }
+}
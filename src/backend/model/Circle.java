@@ -1,7 +1,7 @@
 package backend.model;
 
 public class Circle extends Ellipse {
-    private final double radius;
+    private double radius;
 
     public Circle(Point centerPoint, double radius) {
         super(centerPoint, 2 * radius, 2 * radius);
@@ -13,25 +13,49 @@ public class Circle extends Ellipse {
         this(centerPoint, Math.abs(edgePoint.getX() - centerPoint.getX()));
     }
 
+    @Override
+    public void reshape(Point centerPoint, Point edgePoint) {
+        notifyChanging();
+        setRadius(Math.abs(edgePoint.getX() - centerPoint.getX()));
+        centerX = centerPoint.getX();
+        centerY = centerPoint.getY();
+        notifyGeometryChanged();
+    }
+
+    // a circle has to stay round, the center follows the transform and the radius uses the mean scale
+    @Override
+    public void transform(double scaleX, double scaleY, double translateX, double translateY) {
+        notifyChanging();
+        centerX = scaleX * centerX + translateX;
+        centerY = scaleY * centerY + translateY;
+        setRadius(radius * Math.sqrt(Math.abs(scaleX * scaleY)));
+        notifyGeometryChanged();
+    }
+
+    private void setRadius(double radius) {
+        this.radius = radius;
+        sAxisX = 2 * radius;
+        sAxisY = 2 * radius;
+    }
+
     public double getRadius() {
         return radius;
     }
 
     @Override
     public String toString() {
-        return String.format("%s [Centro: %s, Diametro: %.2f]", figureName, centerPoint, sAxisX);
+        return String.format("%s [Centro: %s, Diametro: %.2f]", figureName, getCenterPoint(), sAxisX);
     }
 
-    @Override
-    public Point getCenter() { return centerPoint; }
-
     @Override
     public boolean contains(Point point) {
-        return centerPoint.getDistanceTo(point) < radius;
+        double diffX = point.getX() - centerX;
+        double diffY = point.getY() - centerY;
+        return diffX * diffX + diffY * diffY < radius * radius;
     }
 
     @Override
     public Figure deepCopy() {
-        return new Circle(new Point(centerPoint.getX(), centerPoint.getY()), radius);
+        return new Circle(new Point(centerX, centerY), radius);
     }
-}
\ No newline at end of file
+}
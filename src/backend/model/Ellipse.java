@@ -1,18 +1,18 @@
 package backend.model;
 
-import com.sun.scenario.effect.Brightpass;
-
 import java.util.ArrayList;
 import java.util.List;
 
 public class Ellipse extends Figure {
 
     protected String figureName = "Elipse";
-    protected Point centerPoint;
+    // center kept as primitives so moving an ellipse does not allocate
+    protected double centerX, centerY;
     protected double sAxisX, sAxisY;
 
     public Ellipse(Point centerPoint, double sAxisX, double sAxisY) {
-        this.centerPoint = centerPoint;
+        this.centerX = centerPoint.getX();
+        this.centerY = centerPoint.getY();
         this.sAxisX = sAxisX;
         this.sAxisY = sAxisY;
     }
@@ -26,45 +26,85 @@ public class Ellipse extends Figure {
         );
     }
 
+    @Override
+    public void reshape(Point startPoint, Point endPoint) {
+        notifyChanging();
+        centerX = (startPoint.getX() + endPoint.getX()) / 2;
+        centerY = (startPoint.getY() + endPoint.getY()) / 2;
+        sAxisX = Math.abs(endPoint.getX() - startPoint.getX());
+        sAxisY = Math.abs(endPoint.getY() - startPoint.getY());
+        notifyGeometryChanged();
+    }
+
     @Override
     public String getFigureName() { return figureName; }
 
-    public Point getCenterPoint() { return centerPoint; }
+    public Point getCenterPoint() { return new Point(centerX, centerY); }
+
+    public double getCenterX() { return centerX; }
+
+    public double getCenterY() { return centerY; }
 
     public double getsAxisX() { return sAxisX; }
 
     public double getsAxisY() { return sAxisY; }
 
     @Override
-    public Point getCenter() { return centerPoint;}
+    public Point getCenter() { return getCenterPoint(); }
 
     @Override
     public String toString() {
-        return String.format("%s [Centro: %s, Eje X: %.2f, Eje Y: %.2f]", figureName, centerPoint, sAxisX, sAxisY);
+        return String.format("%s [Centro: %s, Eje X: %.2f, Eje Y: %.2f]", figureName, getCenterPoint(), sAxisX, sAxisY);
     }
 
     @Override
     public boolean contains(Point point) {
-        double normalizedX = Math.pow(point.getX() - centerPoint.getX(), 2) / Math.pow(sAxisX, 2);
-        double normalizedY = Math.pow(point.getY() - centerPoint.getY(), 2) / Math.pow(sAxisY, 2);
+        // sAxisX and sAxisY are the full width and height, so compare against the semi axes
+        double normalizedX = Math.pow(point.getX() - centerX, 2) / Math.pow(sAxisX / 2, 2);
+        double normalizedY = Math.pow(point.getY() - centerY, 2) / Math.pow(sAxisY / 2, 2);
         return (normalizedX + normalizedY) <= 1.0;
     }
 
     @Override
-    public void move(double diffX, double diffY) {
-        centerPoint = new Point(centerPoint.getX() + diffX, centerPoint.getY() + diffY);
+    public void translate(double diffX, double diffY) {
+        notifyChanging();
+        centerX += diffX;
+        centerY += diffY;
+        notifyGeometryChanged();
+    }
+
+    @Override
+    public void transform(double scaleX, double scaleY, double translateX, double translateY) {
+        notifyChanging();
+        centerX = scaleX * centerX + translateX;
+        centerY = scaleY * centerY + translateY;
+        sAxisX *= Math.abs(scaleX);
+        sAxisY *= Math.abs(scaleY);
+        notifyGeometryChanged();
     }
 
+    @Override
+    public double getMinX() { return centerX - sAxisX / 2; }
+
+    @Override
+    public double getMinY() { return centerY - sAxisY / 2; }
+
+    @Override
+    public double getMaxX() { return centerX + sAxisX / 2; }
+
+    @Override
+    public double getMaxY() { return centerY + sAxisY / 2; }
+
     @Override
     public Figure deepCopy() {
-        return new Ellipse(new Point(centerPoint.getX(), centerPoint.getY()), sAxisX, sAxisY);
+        return new Ellipse(new Point(centerX, centerY), sAxisX, sAxisY);
     }
 
     @Override
     public Figure duplicate(double offsetX, double offsetY) {
         Point newCenter = new Point(
-                centerPoint.getX() + offsetX,
-                centerPoint.getY() + offsetY
+                centerX + offsetX,
+                centerY + offsetY
         );
 
         Ellipse duplicated = new Ellipse(newCenter, sAxisX, sAxisY);
@@ -80,15 +120,15 @@ public class Ellipse extends Figure {
         double halfYAxis = sAxisY / 2;
 
         Point leftCenter = new Point(
-                centerPoint.getX() - halfXAxis / 2,
-                centerPoint.getY()
+                centerX - halfXAxis / 2,
+                centerY
         );
         Ellipse left = new Ellipse(leftCenter, halfXAxis, halfYAxis);
         copyStyleTo(left);
 
         Point rightCenter = new Point(
-                centerPoint.getX() + halfXAxis / 2,
-                centerPoint.getY()
+                centerX + halfXAxis / 2,
+                centerY
         );
         Ellipse right = new Ellipse(rightCenter, halfXAxis, halfYAxis);
         copyStyleTo(right);
@@ -100,6 +140,9 @@ public class Ellipse extends Figure {
 
     @Override
     public void moveToCenter(double canvasWidth, double canvasHeight) {
-        centerPoint = new Point(canvasWidth / 2, canvasHeight / 2);
+        notifyChanging();
+        centerX = canvasWidth / 2;
+        centerY = canvasHeight / 2;
+        notifyGeometryChanged();
     }
-}
\ No newline at end of file
+}
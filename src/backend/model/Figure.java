@@ -3,7 +3,9 @@ package backend.model;
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.paint.Color;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 public abstract class Figure {
 
@@ -14,6 +16,8 @@ public abstract class Figure {
     private double borderWidth;
     private List<String> tags;
     private int layer;
+    private FigureObserver observer;
+    private int id = -1; // assigned by the CanvasState, -1 until the figure is added to one
 
     public Figure() {
         this.tags = new ArrayList<>();
@@ -27,7 +31,10 @@ public abstract class Figure {
 
     public void addTag(String tag) {
         if (!tags.contains(tag)) {
+            List<String> oldTags = List.copyOf(tags);
+            notifyChanging();
             tags.add(tag);
+            notifyTagsChanged(oldTags);
         }
     }
 
@@ -36,7 +43,15 @@ public abstract class Figure {
     }
 
     public void replaceTags(List<String> newTags) {
-        this.tags = new ArrayList<>(newTags);
+        List<String> oldTags = this.tags;
+        List<String> copy = new ArrayList<>(newTags);
+        notifyChanging();
+        this.tags = copy;
+        notifyTagsChanged(oldTags);
+    }
+
+    public List<String> getTags() {
+        return Collections.unmodifiableList(tags);
     }
 
     public String getTagsString() {
@@ -52,31 +67,136 @@ public abstract class Figure {
         target.setLayer(this.layer);
     }
 
+    public void setObserver(FigureObserver observer) { this.observer = observer; }
+
+    public int getId() { return id; }
+    public void setId(int id) { this.id = id; }
+
+    // every change calls this right before touching a field, and one of the notify methods below once done
+    protected void notifyChanging() {
+        if (observer != null) {
+            observer.changing(this);
+        }
+    }
+
+    private void notifyTagsChanged(List<String> oldTags) {
+        if (observer != null) {
+            try {
+                observer.tagsChanged(this, oldTags);
+            } finally {
+                observer.changed(this);
+            }
+        }
+    }
+
+    // subclasses call this after changing their geometry so the spatial index stays in sync
+    protected void notifyGeometryChanged() {
+        if (observer != null) {
+            try {
+                observer.geometryChanged(this);
+            } finally {
+                observer.changed(this);
+            }
+        }
+    }
+
     public int getLayer() { return layer; }
-    public void setLayer(int layer) { this.layer = layer; }
+    public void setLayer(int layer) {
+        if (this.layer == layer) return;
+        int oldLayer = this.layer;
+        notifyChanging();
+        this.layer = layer;
+        if (observer != null) {
+            try {
+                observer.layerChanged(this, oldLayer);
+            } finally {
+                observer.changed(this);
+            }
+        }
+    }
+
+    // style setters only notify when the value actually changes
+    private void notifyStyleChanged() {
+        if (observer != null) {
+            try {
+                observer.styleChanged(this);
+            } finally {
+                observer.changed(this);
+            }
+        }
+    }
 
     public Color getFillColor1() { return fillColor1; }
-    public void setFillColor1(Color fillColor1) { this.fillColor1 = fillColor1; }
+    public void setFillColor1(Color fillColor1) {
+        if (Objects.equals(this.fillColor1, fillColor1)) return;
+        notifyChanging();
+        this.fillColor1 = fillColor1;
+        notifyStyleChanged();
+    }
 
     public Color getFillColor2() { return fillColor2; }
-    public void setFillColor2(Color fillColor2) { this.fillColor2 = fillColor2; }
+    public void setFillColor2(Color fillColor2) {
+        if (Objects.equals(this.fillColor2, fillColor2)) return;
+        notifyChanging();
+        this.fillColor2 = fillColor2;
+        notifyStyleChanged();
+    }
 
     public ShadowType getShadowType() { return shadowType; }
-    public void setShadowType(ShadowType shadowType) { this.shadowType = shadowType; }
+    public void setShadowType(ShadowType shadowType) {
+        if (this.shadowType == shadowType) return;
+        notifyChanging();
+        this.shadowType = shadowType;
+        notifyStyleChanged();
+    }
 
     public BorderType getBorderType() { return borderType; }
-    public void setBorderType(BorderType borderType) { this.borderType = borderType; }
+    public void setBorderType(BorderType borderType) {
+        if (this.borderType == borderType) return;
+        notifyChanging();
+        this.borderType = borderType;
+        notifyStyleChanged();
+    }
 
     public double getBorderWidth() { return borderWidth; }
-    public void setBorderWidth(double borderWidth) { this.borderWidth = borderWidth; }
+    public void setBorderWidth(double borderWidth) {
+        if (Double.compare(this.borderWidth, borderWidth) == 0) return;
+        notifyChanging();
+        this.borderWidth = borderWidth;
+        notifyStyleChanged();
+    }
 
     public abstract boolean contains(Point point);
-    public abstract void move(double diffX, double diffY);
     public abstract Point getCenter();
+
+    // bounding box as primitives, reading it does not allocate
+    public abstract double getMinX();
+    public abstract double getMinY();
+    public abstract double getMaxX();
+    public abstract double getMaxY();
+
+    public Bounds getBounds() {
+        return new Bounds(getMinX(), getMinY(), getMaxX(), getMaxY());
+    }
+
+    public void move(double diffX, double diffY) {
+        translate(diffX, diffY);
+    }
+
+    // in-place transforms: they mutate the primitive geometry without creating objects
+    public abstract void translate(double diffX, double diffY);
+
+    // axis-aligned affine transform: x' = scaleX * x + translateX, y' = scaleY * y + translateY.
+    // Figures are axis-aligned, so rotation and shear are not supported
+    public abstract void transform(double scaleX, double scaleY, double translateX, double translateY);
     public abstract String getFigureName();
     public abstract Figure deepCopy();
 
     public abstract Figure duplicate(double offsetX, double offsetY);
     public abstract List<Figure> divide();
     public abstract void moveToCenter(double canvasWidth, double canvasHeight);
+
+    // redefines the geometry in place from the same two points the constructor takes,
+    // used to reuse a single preview figure while it is being dragged
+    public abstract void reshape(Point start, Point end);
 }
\ No newline at end of file
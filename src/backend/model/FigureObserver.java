@@ -0,0 +1,15 @@
+package backend.model;
+
+import java.util.List;
+
+// lets the owner of a figure (the CanvasState) know when its geometry, style, layer or tags changed.
+// Every change is told first with changing, before the figure is touched, and last with changed:
+// the owner holds its write lock in between, so no other thread reads the figure halfway changed
+public interface FigureObserver {
+    void changing(Figure figure);
+    void changed(Figure figure);
+    void geometryChanged(Figure figure);
+    void styleChanged(Figure figure);
+    void layerChanged(Figure figure, int oldLayer);
+    void tagsChanged(Figure figure, List<String> oldTags);
+}
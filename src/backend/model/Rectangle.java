@@ -5,12 +5,26 @@ import java.util.List;
 
 public class Rectangle extends Figure {
 
-    private Point topLeft, bottomRight;
+    // corners kept as primitives so moving a rectangle does not allocate
+    private double minX, minY, maxX, maxY;
     protected String figureName = "Rectangulo";
 
     public Rectangle(Point p1, Point p2) {
-        this.topLeft = new Point(Math.min(p1.getX(), p2.getX()), Math.min(p1.getY(), p2.getY()));
-        this.bottomRight = new Point(Math.max(p1.getX(), p2.getX()), Math.max(p1.getY(), p2.getY()));
+        setCorners(p1.getX(), p1.getY(), p2.getX(), p2.getY());
+    }
+
+    protected void setCorners(double x1, double y1, double x2, double y2) {
+        this.minX = Math.min(x1, x2);
+        this.minY = Math.min(y1, y2);
+        this.maxX = Math.max(x1, x2);
+        this.maxY = Math.max(y1, y2);
+    }
+
+    @Override
+    public void reshape(Point start, Point end) {
+        notifyChanging();
+        setCorners(start.getX(), start.getY(), end.getX(), end.getY());
+        notifyGeometryChanged();
     }
 
     @Override
@@ -19,54 +33,73 @@ public class Rectangle extends Figure {
     }
 
     public Point getTopLeft() {
-        return topLeft;
+        return new Point(minX, minY);
     }
 
     public Point getBottomRight() {
-        return bottomRight;
+        return new Point(maxX, maxY);
     }
 
     @Override
     public String toString() {
-        return String.format("%s [ %s , %s ]", figureName, topLeft, bottomRight);
+        return String.format("%s [ %s , %s ]", figureName, getTopLeft(), getBottomRight());
     }
 
     @Override
     public boolean contains(Point point) {
-        return point.getX() > topLeft.getX() && point.getX() < bottomRight.getX() &&
-                point.getY() > topLeft.getY() && point.getY() < bottomRight.getY();
+        return point.getX() > minX && point.getX() < maxX &&
+                point.getY() > minY && point.getY() < maxY;
     }
 
     @Override
-    public void move(double diffX, double diffY) {
-        topLeft = new Point(topLeft.getX() + diffX, topLeft.getY() + diffY);
-        bottomRight = new Point(bottomRight.getX() + diffX, bottomRight.getY() + diffY);
+    public void translate(double diffX, double diffY) {
+        notifyChanging();
+        minX += diffX; maxX += diffX;
+        minY += diffY; maxY += diffY;
+        notifyGeometryChanged();
+    }
+
+    @Override
+    public void transform(double scaleX, double scaleY, double translateX, double translateY) {
+        notifyChanging();
+        setCorners(scaleX * minX + translateX, scaleY * minY + translateY,
+                scaleX * maxX + translateX, scaleY * maxY + translateY);
+        notifyGeometryChanged();
     }
 
     @Override
     public Point getCenter() {
-        double centerX = (topLeft.getX() + bottomRight.getX()) / 2;
-        double centerY = (topLeft.getY() + bottomRight.getY()) / 2;
+        double centerX = (minX + maxX) / 2;
+        double centerY = (minY + maxY) / 2;
         return new Point(centerX, centerY);
     }
 
+    @Override
+    public double getMinX() { return minX; }
+
+    @Override
+    public double getMinY() { return minY; }
+
+    @Override
+    public double getMaxX() { return maxX; }
+
+    @Override
+    public double getMaxY() { return maxY; }
+
     @Override
     public Figure deepCopy() {
-        return new Rectangle(
-                new Point(topLeft.getX(), topLeft.getY()),
-                new Point(bottomRight.getX(), bottomRight.getY())
-        );
+        return new Rectangle(new Point(minX, minY), new Point(maxX, maxY));
     }
 
     @Override
     public Figure duplicate(double offsetX, double offsetY) {
         Point newTopLeft = new Point(
-                topLeft.getX() + offsetX,
-                topLeft.getY() + offsetY
+                minX + offsetX,
+                minY + offsetY
         );
         Point newBottomRight = new Point(
-                bottomRight.getX() + offsetX,
-                bottomRight.getY() + offsetY
+                maxX + offsetX,
+                maxY + offsetY
         );
 
         Rectangle duplicated = new Rectangle(newTopLeft, newBottomRight);
@@ -78,16 +111,16 @@ public class Rectangle extends Figure {
     public List<Figure> divide() {
         List<Figure> result = new ArrayList<>();
 
-        double width = Math.abs(bottomRight.getX() - topLeft.getX());
-        double quarterHeight = (Math.abs(bottomRight.getY() - topLeft.getY()))/4;
+        double width = getWidth();
+        double quarterHeight = getHeight() / 4;
 
-        Point leftTopLeft = new Point(topLeft.getX(), topLeft.getY() + quarterHeight);
-        Point leftBottomRight = new Point(topLeft.getX() + width / 2, bottomRight.getY() - quarterHeight);
+        Point leftTopLeft = new Point(minX, minY + quarterHeight);
+        Point leftBottomRight = new Point(minX + width / 2, maxY - quarterHeight);
         Rectangle left = new Rectangle(leftTopLeft, leftBottomRight);
         copyStyleTo(left);
 
-        Point rightTopLeft = new Point(topLeft.getX() + width / 2, topLeft.getY() + quarterHeight);
-        Point rightBottomRight = new Point(bottomRight.getX(), bottomRight.getY() - quarterHeight);
+        Point rightTopLeft = new Point(minX + width / 2, minY + quarterHeight);
+        Point rightBottomRight = new Point(maxX, maxY - quarterHeight);
         Rectangle right = new Rectangle(rightTopLeft, rightBottomRight);
         copyStyleTo(right);
 
@@ -98,21 +131,28 @@ public class Rectangle extends Figure {
 
     @Override
     public void moveToCenter(double canvasWidth, double canvasHeight) {
-        double width = Math.abs(bottomRight.getX() - topLeft.getX());
-        double height = Math.abs(bottomRight.getY() - topLeft.getY());
+        double width = getWidth();
+        double height = getHeight();
 
         double centerX = canvasWidth / 2;
         double centerY = canvasHeight / 2;
 
-        topLeft = new Point(centerX - width / 2, centerY - height / 2);
-        bottomRight = new Point(centerX + width / 2, centerY + height / 2);
+        notifyChanging();
+        setCorners(centerX - width / 2, centerY - height / 2, centerX + width / 2, centerY + height / 2);
+        notifyGeometryChanged();
+    }
+
+    protected void resize(Point topLeft, double width, double height) {
+        notifyChanging();
+        setCorners(topLeft.getX(), topLeft.getY(), topLeft.getX() + width, topLeft.getY() + height);
+        notifyGeometryChanged();
     }
 
     public double getWidth() {
-        return Math.abs(bottomRight.getX() - topLeft.getX());
+        return maxX - minX;
     }
 
     public double getHeight() {
-        return Math.abs(bottomRight.getY() - topLeft.getY());
+        return maxY - minY;
     }
-}
\ No newline at end of file
+}
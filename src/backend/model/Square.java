@@ -10,6 +10,23 @@ public class Square extends Rectangle {
         this(calculateTopLeft(start, end), Math.abs(end.getX() - start.getX()));
     }
 
+    @Override
+    public void reshape(Point start, Point end) {
+        double size = Math.abs(end.getX() - start.getX());
+        resize(calculateTopLeft(start, end), size, size);
+    }
+
+    // a square has to stay square, the center follows the transform and the side uses the mean scale
+    @Override
+    public void transform(double scaleX, double scaleY, double translateX, double translateY) {
+        double half = getSize() * Math.sqrt(Math.abs(scaleX * scaleY)) / 2;
+        double centerX = scaleX * (getMinX() + getMaxX()) / 2 + translateX;
+        double centerY = scaleY * (getMinY() + getMaxY()) / 2 + translateY;
+        notifyChanging();
+        setCorners(centerX - half, centerY - half, centerX + half, centerY + half);
+        notifyGeometryChanged();
+    }
+
     private static Point calculateTopLeft(Point start, Point end) {
         double size = Math.abs(end.getX() - start.getX());
         double x = start.getX();
@@ -23,6 +40,6 @@ public class Square extends Rectangle {
 
 
     public double getSize() {
-        return Math.abs(getTopLeft().getX() - getBottomRight().getX());
+        return getWidth();
     }
 }
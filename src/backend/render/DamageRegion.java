@@ -0,0 +1,38 @@
+package backend.render;
+
+import backend.model.Bounds;
+
+// Accumulates the areas of the canvas that changed since the last repaint.
+// Kept as the union of the damaged rectangles so the repaint can clip to a single area.
+public class DamageRegion {
+
+    private boolean empty = true;
+    private double minX, minY, maxX, maxY;
+
+    public void add(Bounds bounds) {
+        if (bounds != null) add(bounds.getMinX(), bounds.getMinY(), bounds.getMaxX(), bounds.getMaxY());
+    }
+
+    public void add(double minX, double minY, double maxX, double maxY) {
+        if (empty) {
+            this.minX = minX; this.minY = minY; this.maxX = maxX; this.maxY = maxY;
+            empty = false;
+        } else {
+            this.minX = Math.min(this.minX, minX);
+            this.minY = Math.min(this.minY, minY);
+            this.maxX = Math.max(this.maxX, maxX);
+            this.maxY = Math.max(this.maxY, maxY);
+        }
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    // returns the damaged area and resets the region, null if nothing changed
+    public Bounds take() {
+        if (empty) return null;
+        empty = true;
+        return new Bounds(minX, minY, maxX, maxY);
+    }
+}
@@ -0,0 +1,102 @@
+package backend.render;
+
+import backend.model.Figure;
+
+import java.util.Arrays;
+
+// Level of detail: how much of a figure is worth drawing for the size it has on screen.
+// Below pointBelow pixels a figure is a single point (or nothing at all when sub-pixel figures are hidden),
+// below fullFrom it is a flat shape with no shadow, gradient nor dashes, and from there on it gets every effect.
+// A degraded frame (while something is being dragged) draws every figure flat at most.
+// Keeps how many figures went out at each level, in the last frame and in total.
+public class DetailPolicy {
+
+    public enum Level { HIDDEN, POINT, FLAT, FULL }
+
+    public static final double DEFAULT_POINT_BELOW = 1.0;
+    public static final double DEFAULT_FULL_FROM = 6.0;
+
+    // sizes in screen pixels, along the largest side of the figure
+    private double pointBelow;
+    private double fullFrom;
+    private boolean hideSubPixel;
+
+    private final long[] frameCounts = new long[Level.values().length];
+    private final long[] totalCounts = new long[Level.values().length];
+    private long frames = 0;
+
+    public DetailPolicy() {
+        this(DEFAULT_POINT_BELOW, DEFAULT_FULL_FROM, false);
+    }
+
+    public DetailPolicy(double pointBelow, double fullFrom, boolean hideSubPixel) {
+        setThresholds(pointBelow, fullFrom);
+        this.hideSubPixel = hideSubPixel;
+    }
+
+    // thresholds can be set when launching, e.g. -Dtpe.lod.point=0.5 -Dtpe.lod.full=12 -Dtpe.lod.hide=true
+    public static DetailPolicy fromSystemProperties() {
+        try {
+            return new DetailPolicy(
+                    Double.parseDouble(System.getProperty("tpe.lod.point", String.valueOf(DEFAULT_POINT_BELOW))),
+                    Double.parseDouble(System.getProperty("tpe.lod.full", String.valueOf(DEFAULT_FULL_FROM))),
+                    Boolean.getBoolean("tpe.lod.hide"));
+        } catch (IllegalArgumentException e) {
+            return new DetailPolicy();
+        }
+    }
+
+    public void setThresholds(double pointBelow, double fullFrom) {
+        if (pointBelow < 0 || fullFrom < pointBelow) {
+            throw new IllegalArgumentException("Umbrales de detalle inválidos: " + pointBelow + ", " + fullFrom);
+        }
+        this.pointBelow = pointBelow;
+        this.fullFrom = fullFrom;
+    }
+
+    public double getPointBelow() { return pointBelow; }
+
+    public double getFullFrom() { return fullFrom; }
+
+    public void setHideSubPixel(boolean hideSubPixel) { this.hideSubPixel = hideSubPixel; }
+
+    public boolean isHideSubPixel() { return hideSubPixel; }
+
+    // level for a figure drawn at the given scale (screen pixels per world unit), counted in the current frame
+    public Level levelFor(Figure figure, double scale, boolean degraded) {
+        return levelFor(figure.getMinX(), figure.getMinY(), figure.getMaxX(), figure.getMaxY(), scale, degraded);
+    }
+
+    // the same for a bounding box, as for the rows of a document drawn without their figure
+    public Level levelFor(double minX, double minY, double maxX, double maxY, double scale, boolean degraded) {
+        double size = Math.max(maxX - minX, maxY - minY) * scale;
+        Level level;
+        if (size < pointBelow) level = hideSubPixel ? Level.HIDDEN : Level.POINT;
+        else if (degraded || size < fullFrom) level = Level.FLAT;
+        else level = Level.FULL;
+        frameCounts[level.ordinal()]++;
+        totalCounts[level.ordinal()]++;
+        return level;
+    }
+
+    public void startFrame() {
+        frames++;
+        Arrays.fill(frameCounts, 0);
+    }
+
+    public long getFrameCount(Level level) { return frameCounts[level.ordinal()]; }
+
+    public long getTotalCount(Level level) { return totalCounts[level.ordinal()]; }
+
+    @Override
+    public String toString() {
+        return String.format("Detalle (umbrales %.1f px / %.1f px%s)%n"
+                        + "Último frame: %d completas, %d planas, %d puntos, %d omitidas%n"
+                        + "Total en %d frames: %d completas, %d planas, %d puntos, %d omitidas",
+                pointBelow, fullFrom, hideSubPixel ? ", se omiten las de menos de un punto" : "",
+                frameCounts[Level.FULL.ordinal()], frameCounts[Level.FLAT.ordinal()],
+                frameCounts[Level.POINT.ordinal()], frameCounts[Level.HIDDEN.ordinal()],
+                frames, totalCounts[Level.FULL.ordinal()], totalCounts[Level.FLAT.ordinal()],
+                totalCounts[Level.POINT.ordinal()], totalCounts[Level.HIDDEN.ordinal()]);
+    }
+}
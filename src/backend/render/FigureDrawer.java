@@ -0,0 +1,195 @@
+package backend.render;
+
+import backend.model.*;
+import javafx.scene.paint.Color;
+
+// Draw logic for a single figure, shared by every layer canvas and by the headless exports.
+// It only talks to a Renderer, so the same shadows, gradients and dashes come out on screen and in a PNG.
+public class FigureDrawer {
+
+    public static final double SHADOW_OFFSET = 10.0;
+
+    // shared, renderers copy the pattern they are given
+    private static final double[] NO_DASHES = {};
+    private static final double[] SIMPLE_DASHES = {10d};
+    private static final double[] COMPLEX_DASHES = {30d, 10d, 15d, 10d};
+
+    private final double maxBorderWidth;
+
+    public FigureDrawer(double maxBorderWidth) {
+        this.maxBorderWidth = maxBorderWidth;
+    }
+
+    // area a figure paints on, including its border and shadow, null for no figure
+    public Bounds renderBounds(Figure figure) {
+        if (figure == null) return null;
+        DamageRegion region = new DamageRegion();
+        addRenderBounds(figure, region);
+        return region.take();
+    }
+
+    // same as renderBounds but straight into a damage region, without allocating
+    public void addRenderBounds(Figure figure, DamageRegion region) {
+        addRenderBounds(figure, figure.getMinX(), figure.getMinY(), figure.getMaxX(), figure.getMaxY(), region);
+    }
+
+    // the area the figure paints on with its style but another geometry, as the bounds it had before a move
+    public void addRenderBounds(Figure figure, double geometryMinX, double geometryMinY, double geometryMaxX,
+                                double geometryMaxY, DamageRegion region) {
+        double margin = figure.getBorderWidth() / 2 + 1; // +1 for antialiasing
+        double minX = geometryMinX - margin, minY = geometryMinY - margin;
+        double maxX = geometryMaxX + margin, maxY = geometryMaxY + margin;
+        switch (figure.getShadowType()) {
+            case SIMPLE: case COLORED: maxX += SHADOW_OFFSET; maxY += SHADOW_OFFSET; break;
+            case SIMPLE_INVERSE: case COLORED_INVERSE: minX -= SHADOW_OFFSET; minY -= SHADOW_OFFSET; break;
+            default: break;
+        }
+        region.add(minX, minY, maxX, maxY);
+    }
+
+    // the index works with the figure geometry, queries are widened by the largest border and shadow
+    public double maxRenderMargin() {
+        return maxBorderWidth / 2 + 1 + SHADOW_OFFSET;
+    }
+
+    public void draw(Renderer renderer, Figure figure) {
+        if (figure.getShadowType() != ShadowType.NONE) {
+            double offset = shadowOffset(figure.getShadowType());
+            renderer.setFill(shadowColor(figure)); renderer.setStroke(Color.TRANSPARENT);
+            drawFigureShape(renderer, figure, offset, offset);
+        }
+        setFilledStops(renderer, figure);
+
+        renderer.setStroke(Color.BLACK);
+        setLineDashes(renderer, figure.getBorderType());
+        renderer.setLineWidth(figure.getBorderWidth());
+
+        drawFigureShape(renderer, figure, 0, 0);
+    }
+
+    // small figures, or any figure while dragging: one solid color and a solid border, no shadow nor gradient
+    public void drawFlat(Renderer renderer, Figure figure) {
+        renderer.setFill(figure.getFillColor1());
+        renderer.setStroke(Color.BLACK);
+        renderer.setLineDashes(NO_DASHES);
+        renderer.setLineWidth(figure.getBorderWidth());
+        drawFigureShape(renderer, figure, 0, 0);
+    }
+
+    // a figure smaller than a pixel, a square of the given size (in world units) on its center
+    public void drawPoint(Renderer renderer, Figure figure, double size) {
+        renderer.setFill(figure.getFillColor1());
+        double centerX = (figure.getMinX() + figure.getMaxX()) / 2, centerY = (figure.getMinY() + figure.getMaxY()) / 2;
+        renderer.fillRect(centerX - size / 2, centerY - size / 2, size, size);
+    }
+
+    // a row of a document drawn without its figure: the box filled as a rectangle or an ellipse, in its first color
+    public void drawBox(Renderer renderer, boolean round, double minX, double minY, double maxX, double maxY, Color fill) {
+        renderer.setFill(fill);
+        if (round) renderer.fillOval(minX, minY, maxX - minX, maxY - minY);
+        else renderer.fillRect(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    // drawPoint for a row drawn without its figure
+    public void drawPoint(Renderer renderer, double minX, double minY, double maxX, double maxY, Color fill, double size) {
+        renderer.setFill(fill);
+        renderer.fillRect((minX + maxX) / 2 - size / 2, (minY + maxY) / 2 - size / 2, size, size);
+    }
+
+    // red outline drawn over the selected figure
+    public void drawSelection(Renderer renderer, Figure figure) {
+        renderer.setStroke(Color.RED); renderer.setLineDashes();
+        renderer.setLineWidth(figure.getBorderWidth());
+        strokeFigureShape(renderer, figure);
+    }
+
+    // ghost shown while a figure is being created
+    public void drawPreview(Renderer renderer, Figure figure) {
+        renderer.setGlobalAlpha(0.5);
+
+        setFilledStops(renderer, figure);
+
+        renderer.setStroke(Color.BLACK);
+        renderer.setLineWidth(figure.getBorderWidth());
+        setLineDashes(renderer, figure.getBorderType());
+
+        drawFigureShape(renderer, figure, 0, 0);
+        renderer.setGlobalAlpha(1.0);
+    }
+
+    // offset of the shadow copy on both axes, 0 for no shadow
+    public static double shadowOffset(ShadowType shadowType) {
+        switch (shadowType) {
+            case SIMPLE: case COLORED: return SHADOW_OFFSET;
+            case SIMPLE_INVERSE: case COLORED_INVERSE: return -SHADOW_OFFSET;
+            default: return 0;
+        }
+    }
+
+    public static Color shadowColor(Figure figure) {
+        switch (figure.getShadowType()) {
+            case COLORED: case COLORED_INVERSE: return figure.getFillColor1().darker();
+            default: return Color.GRAY;
+        }
+    }
+
+    // dash pattern of the border, empty for a solid line
+    public static double[] dashPattern(BorderType borderType) {
+        return dashes(borderType).clone();
+    }
+
+    private static double[] dashes(BorderType borderType) {
+        if(borderType == BorderType.DOTTED_SIMPLE) return SIMPLE_DASHES;
+        else if(borderType == BorderType.DOTTED_COMPLEX) return COMPLEX_DASHES;
+        else return NO_DASHES;
+    }
+
+    private void setLineDashes(Renderer renderer, BorderType borderType) {
+        renderer.setLineDashes(dashes(borderType));
+    }
+
+    private void setFilledStops(Renderer renderer, Figure figure) {
+        double x = figure.getMinX(), y = figure.getMinY();
+        double width = figure.getMaxX() - x, height = figure.getMaxY() - y;
+        if (figure instanceof Ellipse) {
+            renderer.setRadialGradientFill(figure.getFillColor1(), figure.getFillColor2(), x, y, width, height);
+        } else {
+            renderer.setLinearGradientFill(figure.getFillColor1(), figure.getFillColor2(), x, y, width, height);
+        }
+    }
+
+    private void drawFigureShape(Renderer renderer, Figure figure, double offsetX, double offsetY) {
+
+        if(figure instanceof Rectangle) {
+            Rectangle rectangle = (Rectangle) figure;
+
+            // Geometry calculations removed from frontend (should use backend methods)
+            double width = rectangle.getWidth();
+            double height = rectangle.getHeight();
+
+            renderer.fillRect(rectangle.getMinX() + offsetX, rectangle.getMinY() + offsetY, width, height);
+
+        } else if(figure instanceof Ellipse) {
+            Ellipse ellipse = (Ellipse) figure;
+            double width = ellipse.getsAxisX();
+            double height = ellipse.getsAxisY();
+            double x = (ellipse.getCenterX() - (width / 2)) + offsetX;
+            double y = (ellipse.getCenterY() - (height / 2)) + offsetY;
+
+            renderer.fillOval(x, y, width, height);
+        }
+        if (offsetX == 0) strokeFigureShape(renderer, figure);
+    }
+
+    private void strokeFigureShape(Renderer renderer, Figure figure) {
+        if(figure instanceof Rectangle) {
+            Rectangle rectangle = (Rectangle) figure;
+            renderer.strokeRect(rectangle.getMinX(), rectangle.getMinY(), rectangle.getWidth(), rectangle.getHeight());
+        } else if(figure instanceof Ellipse) {
+            Ellipse ellipse = (Ellipse) figure;
+            double width = ellipse.getsAxisX();
+            double height = ellipse.getsAxisY();
+            renderer.strokeOval(ellipse.getCenterX() - (width / 2), ellipse.getCenterY() - (height / 2), width, height);
+        }
+    }
+}
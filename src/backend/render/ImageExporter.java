@@ -0,0 +1,73 @@
+package backend.render;
+
+import backend.CanvasState;
+import backend.model.Bounds;
+import backend.model.Figure;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+// Renders a CanvasState into a BufferedImage with Java2D, without a JavaFX stage.
+// Meant for batch exports to PNG on machines without a display.
+public class ImageExporter {
+
+    private final FigureDrawer drawer;
+    private java.awt.Color background = java.awt.Color.WHITE;
+
+    public ImageExporter(FigureDrawer drawer) {
+        this.drawer = drawer;
+    }
+
+    // null leaves the image transparent
+    public void setBackground(java.awt.Color background) {
+        this.background = background;
+    }
+
+    // area covered by every figure, shadows and borders included
+    public Bounds contentBounds(CanvasState canvasState) {
+        DamageRegion region = new DamageRegion();
+        for (Figure figure : canvasState.figuresView()) drawer.addRenderBounds(figure, region);
+        Bounds bounds = region.take();
+        return bounds == null ? new Bounds(0, 0, 1, 1) : bounds;
+    }
+
+    public BufferedImage render(CanvasState canvasState) {
+        return render(canvasState, contentBounds(canvasState), figure -> true);
+    }
+
+    // figures are drawn in the same order as on screen, the filter plays the role of the hidden layers and tags
+    public BufferedImage render(CanvasState canvasState, Bounds area, Predicate<Figure> filter) {
+        int width = Math.max(1, (int) Math.ceil(area.getWidth()));
+        int height = Math.max(1, (int) Math.ceil(area.getHeight()));
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            if (background != null) {
+                g.setColor(background);
+                g.fillRect(0, 0, width, height);
+            }
+            g.translate(-area.getMinX(), -area.getMinY());
+            Java2DRenderer renderer = new Java2DRenderer(g);
+            for (Figure figure : canvasState.figuresIn(area.expand(drawer.maxRenderMargin()))) {
+                if (filter.test(figure) && drawer.renderBounds(figure).intersects(area)) drawer.draw(renderer, figure);
+            }
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    public void exportPng(CanvasState canvasState, Path file) throws IOException {
+        exportPng(canvasState, contentBounds(canvasState), figure -> true, file);
+    }
+
+    public void exportPng(CanvasState canvasState, Bounds area, Predicate<Figure> filter, Path file) throws IOException {
+        if (!ImageIO.write(render(canvasState, area, filter), "png", file.toFile())) {
+            throw new IOException("No hay un escritor de PNG disponible");
+        }
+    }
+}
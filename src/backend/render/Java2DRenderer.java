@@ -0,0 +1,131 @@
+package backend.render;
+
+import javafx.scene.paint.Color;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Graphics2D;
+import java.awt.LinearGradientPaint;
+import java.awt.MultipleGradientPaint;
+import java.awt.RadialGradientPaint;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+
+// Renderer over a Java2D Graphics2D, usually the one of a BufferedImage.
+// Needs no display, so documents can be rendered on machines without a screen.
+// Strokes use the same defaults as a JavaFX canvas (square caps, miter joins).
+public class Java2DRenderer implements Renderer {
+
+    private static final float[] GRADIENT_FRACTIONS = {0f, 1f};
+
+    private final Graphics2D g;
+
+    private java.awt.Paint fill = java.awt.Color.BLACK;
+    private java.awt.Color stroke = java.awt.Color.BLACK;
+    private float lineWidth = 1f;
+    private float[] dashes;
+
+    // reused for every shape, so drawing does not allocate per figure
+    private final Rectangle2D.Double rect = new Rectangle2D.Double();
+    private final Ellipse2D.Double oval = new Ellipse2D.Double();
+
+    public Java2DRenderer(Graphics2D g) {
+        this.g = g;
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+    }
+
+    @Override
+    public void setFill(Color color) {
+        fill = toAwt(color);
+    }
+
+    @Override
+    public void setLinearGradientFill(Color from, Color to, double x, double y, double width, double height) {
+        if (width <= 0) {
+            fill = toAwt(from);
+            return;
+        }
+        fill = new LinearGradientPaint((float) x, (float) y, (float) (x + width), (float) y,
+                GRADIENT_FRACTIONS, new java.awt.Color[]{toAwt(from), toAwt(to)});
+    }
+
+    // same as the proportional JavaFX gradient: it stretches into an ellipse on non square bounds
+    @Override
+    public void setRadialGradientFill(Color from, Color to, double x, double y, double width, double height) {
+        if (width <= 0 || height <= 0) {
+            fill = toAwt(from);
+            return;
+        }
+        fill = new RadialGradientPaint(new Rectangle2D.Double(x, y, width, height), GRADIENT_FRACTIONS,
+                new java.awt.Color[]{toAwt(from), toAwt(to)}, MultipleGradientPaint.CycleMethod.NO_CYCLE);
+    }
+
+    @Override
+    public void setStroke(Color color) {
+        stroke = toAwt(color);
+    }
+
+    @Override
+    public void setLineWidth(double width) {
+        lineWidth = (float) width;
+    }
+
+    @Override
+    public void setLineDashes(double... dashes) {
+        if (dashes == null || dashes.length == 0) {
+            this.dashes = null;
+            return;
+        }
+        this.dashes = new float[dashes.length];
+        for (int i = 0; i < dashes.length; i++) this.dashes[i] = (float) dashes[i];
+    }
+
+    @Override
+    public void setGlobalAlpha(double alpha) {
+        g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, (float) alpha));
+    }
+
+    @Override
+    public void fillRect(double x, double y, double width, double height) {
+        rect.setRect(x, y, width, height);
+        fillShape(rect);
+    }
+
+    @Override
+    public void strokeRect(double x, double y, double width, double height) {
+        rect.setRect(x, y, width, height);
+        strokeShape(rect);
+    }
+
+    @Override
+    public void fillOval(double x, double y, double width, double height) {
+        oval.setFrame(x, y, width, height);
+        fillShape(oval);
+    }
+
+    @Override
+    public void strokeOval(double x, double y, double width, double height) {
+        oval.setFrame(x, y, width, height);
+        strokeShape(oval);
+    }
+
+    private void fillShape(java.awt.Shape shape) {
+        g.setPaint(fill);
+        g.fill(shape);
+    }
+
+    private void strokeShape(java.awt.Shape shape) {
+        if (stroke.getAlpha() == 0 || lineWidth <= 0) return;
+        g.setPaint(stroke);
+        g.setStroke(new BasicStroke(lineWidth, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_MITER, 10f, dashes, 0f));
+        g.draw(shape);
+    }
+
+    private static java.awt.Color toAwt(Color color) {
+        return new java.awt.Color((float) color.getRed(), (float) color.getGreen(), (float) color.getBlue(),
+                (float) color.getOpacity());
+    }
+}
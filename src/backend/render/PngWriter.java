@@ -0,0 +1,144 @@
+package backend.render;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Streaming PNG encoder (8 bit RGBA, non interlaced).
+// Rows are written top to bottom as they are produced and compressed on the fly into IDAT chunks,
+// so the whole image never has to be in memory. Each row uses the Sub filter.
+public class PngWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int IDAT_SIZE = 64 * 1024;
+    private static final byte FILTER_SUB = 1;
+
+    private final OutputStream out;
+    private final int width, height;
+    private final DeflaterOutputStream deflater;
+    private final Deflater deflaterEngine;
+    private final byte[] row;
+    private int rowsWritten = 0;
+    private boolean closed = false;
+
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) throw new IllegalArgumentException("Tamaño de imagen inválido: " + width + "x" + height);
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * 4];
+
+        out.write(SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8); // bit depth
+        header.write(6); // color type RGBA
+        header.write(0); // deflate
+        header.write(0); // adaptive filtering
+        header.write(0); // no interlace
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        deflaterEngine = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        deflater = new DeflaterOutputStream(new IdatStream(), deflaterEngine, IDAT_SIZE);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    // writes the next row from width ARGB pixels starting at offset (as in BufferedImage.getRGB)
+    public void writeRow(int[] argb, int offset) throws IOException {
+        if (rowsWritten >= height) throw new IllegalStateException("Se escribieron todas las filas de la imagen");
+        row[0] = FILTER_SUB;
+        int previous = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = argb[offset + x];
+            int i = 1 + x * 4;
+            // Sub filter: each byte minus the same channel of the pixel on the left
+            row[i] = (byte) ((pixel >> 16) - (previous >> 16));
+            row[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+            row[i + 2] = (byte) (pixel - previous);
+            row[i + 3] = (byte) ((pixel >>> 24) - (previous >>> 24));
+            previous = pixel;
+        }
+        deflater.write(row);
+        rowsWritten++;
+    }
+
+    // finishes the image, the underlying stream is closed as well
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (rowsWritten != height) {
+                throw new IllegalStateException("Faltan filas: " + rowsWritten + " de " + height);
+            }
+            deflater.finish();
+            deflater.flush();
+            writeChunk("IEND", new byte[0], 0);
+        } finally {
+            deflaterEngine.end();
+            out.close();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        writeInt(out, length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(OutputStream stream, int value) throws IOException {
+        stream.write(value >>> 24);
+        stream.write(value >>> 16);
+        stream.write(value >>> 8);
+        stream.write(value);
+    }
+
+    // collects the compressed bytes and emits them as IDAT chunks of at most IDAT_SIZE bytes
+    private class IdatStream extends OutputStream {
+        private final byte[] buffer = new byte[IDAT_SIZE];
+        private int count = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) flushChunk();
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) flushChunk();
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (count > 0) flushChunk();
+            out.flush();
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk("IDAT", buffer, count);
+            count = 0;
+        }
+    }
+}
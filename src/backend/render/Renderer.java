@@ -0,0 +1,33 @@
+package backend.render;
+
+import javafx.scene.paint.Color;
+
+// Drawing surface used by FigurePainter.
+// Implemented over a JavaFX GraphicsContext for the screen and over Java2D for headless exports.
+public interface Renderer {
+
+    void setFill(Color color);
+
+    // horizontal gradient across the given bounds, as the figures are filled on screen
+    void setLinearGradientFill(Color from, Color to, double x, double y, double width, double height);
+
+    // gradient from the center to the edge of the given bounds
+    void setRadialGradientFill(Color from, Color to, double x, double y, double width, double height);
+
+    void setStroke(Color color);
+
+    void setLineWidth(double width);
+
+    // null or empty for a solid line
+    void setLineDashes(double... dashes);
+
+    void setGlobalAlpha(double alpha);
+
+    void fillRect(double x, double y, double width, double height);
+
+    void strokeRect(double x, double y, double width, double height);
+
+    void fillOval(double x, double y, double width, double height);
+
+    void strokeOval(double x, double y, double width, double height);
+}
@@ -0,0 +1,231 @@
+package backend.render;
+
+import backend.CanvasState;
+import backend.ColumnarFigureStore;
+import backend.model.Bounds;
+import backend.model.Ellipse;
+import backend.model.Figure;
+import backend.model.ShadowType;
+import javafx.scene.paint.Color;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+// Writes a CanvasState as SVG, figure by figure straight into the writer, without building a document.
+// Every layer is a <g>, rectangles and squares become <rect>, ellipses and circles <ellipse>.
+// Shadows are offset copies drawn first, borders keep their dash pattern as stroke-dasharray.
+// Gradients go into a <defs> next to the first figure that uses them and are shared by the
+// following ones with the same colors. Only the most recent MAX_GRADIENTS are remembered,
+// so memory stays constant however big the document is.
+public class SvgExporter {
+
+    private static final int MAX_GRADIENTS = 4096;
+
+    private final Writer out;
+    private final Map<Long, String> linearGradients = lruMap();
+    private final Map<Long, String> radialGradients = lruMap();
+    private int nextGradientId = 0;
+
+    private SvgExporter(Writer out) {
+        this.out = out;
+    }
+
+    public static void export(CanvasState canvasState, Bounds area, IntPredicate visibleLayers,
+                              Predicate<Figure> filter, Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            export(canvasState, area, visibleLayers, filter, writer);
+        }
+    }
+
+    // the area is the viewBox of the image, figures outside of it are written all the same
+    public static void export(CanvasState canvasState, Bounds area, IntPredicate visibleLayers,
+                              Predicate<Figure> filter, Writer writer) throws IOException {
+        export(canvasState.layers(), canvasState::documentFigures, area, visibleLayers, filter, writer);
+    }
+
+    // the figures of each layer in z-order come from figuresOf, as they are read from a lazy document by a job
+    public static void export(Iterable<Integer> layers, IntFunction<Iterable<Figure>> figuresOf, Bounds area,
+                              IntPredicate visibleLayers, Predicate<Figure> filter, Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            export(layers, figuresOf, area, visibleLayers, filter, writer);
+        }
+    }
+
+    public static void export(Iterable<Integer> layers, IntFunction<Iterable<Figure>> figuresOf, Bounds area,
+                              IntPredicate visibleLayers, Predicate<Figure> filter, Writer writer) throws IOException {
+        Writer out = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        new SvgExporter(out).write(layers, figuresOf, area, visibleLayers, filter);
+        out.flush();
+    }
+
+    private void write(Iterable<Integer> layers, IntFunction<Iterable<Figure>> figuresOf, Bounds area,
+                       IntPredicate visibleLayers, Predicate<Figure> filter) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" width=\"");
+        number(area.getWidth());
+        out.write("\" height=\"");
+        number(area.getHeight());
+        out.write("\" viewBox=\"");
+        number(area.getMinX()); out.write(' ');
+        number(area.getMinY()); out.write(' ');
+        number(area.getWidth()); out.write(' ');
+        number(area.getHeight());
+        // same stroke defaults as the canvas
+        out.write("\" stroke-linecap=\"square\" stroke-linejoin=\"miter\" stroke-miterlimit=\"10\">\n");
+
+        for (int layer : layers) {
+            if (!visibleLayers.test(layer)) continue;
+            out.write("<g id=\"capa-");
+            out.write(Integer.toString(layer + 1));
+            out.write("\">\n");
+            for (Figure figure : figuresOf.apply(layer)) {
+                if (filter.test(figure)) writeFigure(figure);
+            }
+            out.write("</g>\n");
+        }
+        out.write("</svg>\n");
+    }
+
+    private void writeFigure(Figure figure) throws IOException {
+        if (figure.getShadowType() != ShadowType.NONE) {
+            double offset = FigureDrawer.shadowOffset(figure.getShadowType());
+            shape(figure, offset);
+            out.write(" fill=\"");
+            color(FigureDrawer.shadowColor(figure));
+            out.write('"');
+            opacity("fill-opacity", FigureDrawer.shadowColor(figure));
+            out.write("/>\n");
+        }
+
+        String gradient = gradient(figure);
+        shape(figure, 0);
+        out.write(" fill=\"url(#");
+        out.write(gradient);
+        out.write(")\" stroke=\"#000000\" stroke-width=\"");
+        number(figure.getBorderWidth());
+        out.write('"');
+        double[] dashes = FigureDrawer.dashPattern(figure.getBorderType());
+        if (dashes.length > 0) {
+            out.write(" stroke-dasharray=\"");
+            for (int i = 0; i < dashes.length; i++) {
+                if (i > 0) out.write(' ');
+                number(dashes[i]);
+            }
+            out.write('"');
+        }
+        out.write("/>\n");
+    }
+
+    // opening of the element with its geometry, moved by offset on both axes
+    private void shape(Figure figure, double offset) throws IOException {
+        double minX = figure.getMinX() + offset, minY = figure.getMinY() + offset;
+        double width = figure.getMaxX() - figure.getMinX(), height = figure.getMaxY() - figure.getMinY();
+        if (figure instanceof Ellipse) {
+            out.write("<ellipse cx=\"");
+            number(minX + width / 2);
+            out.write("\" cy=\"");
+            number(minY + height / 2);
+            out.write("\" rx=\"");
+            number(width / 2);
+            out.write("\" ry=\"");
+            number(height / 2);
+        } else {
+            out.write("<rect x=\"");
+            number(minX);
+            out.write("\" y=\"");
+            number(minY);
+            out.write("\" width=\"");
+            number(width);
+            out.write("\" height=\"");
+            number(height);
+        }
+        out.write('"');
+    }
+
+    // id of the gradient for the colors of the figure, its definition is written first if it is new
+    private String gradient(Figure figure) throws IOException {
+        boolean radial = figure instanceof Ellipse;
+        long key = ((long) ColumnarFigureStore.packArgb(figure.getFillColor1()) << 32)
+                | (ColumnarFigureStore.packArgb(figure.getFillColor2()) & 0xffffffffL);
+        Map<Long, String> known = radial ? radialGradients : linearGradients;
+        String id = known.get(key);
+        if (id != null) return id;
+
+        id = "g" + nextGradientId++;
+        known.put(key, id);
+        out.write("<defs>");
+        if (radial) {
+            out.write("<radialGradient id=\"");
+            out.write(id);
+            out.write("\" cx=\"0.5\" cy=\"0.5\" r=\"0.5\">");
+        } else {
+            out.write("<linearGradient id=\"");
+            out.write(id);
+            out.write("\" x1=\"0\" y1=\"0\" x2=\"1\" y2=\"0\">");
+        }
+        stop(0, figure.getFillColor1());
+        stop(1, figure.getFillColor2());
+        out.write(radial ? "</radialGradient>" : "</linearGradient>");
+        out.write("</defs>\n");
+        return id;
+    }
+
+    private void stop(int offset, Color color) throws IOException {
+        out.write("<stop offset=\"");
+        out.write(Integer.toString(offset));
+        out.write("\" stop-color=\"");
+        color(color);
+        out.write('"');
+        opacity("stop-opacity", color);
+        out.write("/>");
+    }
+
+    private void color(Color color) throws IOException {
+        out.write('#');
+        hex(channel(color.getRed()));
+        hex(channel(color.getGreen()));
+        hex(channel(color.getBlue()));
+    }
+
+    private void hex(int value) throws IOException {
+        out.write(Character.forDigit(value >> 4, 16));
+        out.write(Character.forDigit(value & 0xf, 16));
+    }
+
+    private void opacity(String attribute, Color color) throws IOException {
+        if (color.getOpacity() >= 1) return;
+        out.write(' ');
+        out.write(attribute);
+        out.write("=\"");
+        number(color.getOpacity());
+        out.write('"');
+    }
+
+    // integers are written without decimals
+    private void number(double value) throws IOException {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) out.write(Long.toString((long) value));
+        else out.write(Double.toString(value));
+    }
+
+    private static int channel(double value) {
+        return (int) Math.round(value * 255);
+    }
+
+    private static Map<Long, String> lruMap() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, String> eldest) {
+                return size() > MAX_GRADIENTS;
+            }
+        };
+    }
+}
@@ -0,0 +1,215 @@
+package backend.render;
+
+import backend.CanvasState;
+import backend.model.Bounds;
+import backend.model.Figure;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// Raster export for images too big to hold in memory (posters of 20k x 20k and more).
+// The output is split in bands of square tiles. The tiles of a band are rasterized in parallel
+// on a ForkJoinPool, each one drawing only the figures that overlap it, and the band is then streamed
+// row by row into a PngWriter. At most two bands are alive at once: the next one renders while
+// the current one is encoded.
+// The canvas must not be edited while an export is running, export a CanvasSnapshot through
+// the figuresIn overload to keep editing.
+public class TiledExporter {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+
+    private final FigureDrawer drawer;
+    private final ForkJoinPool pool;
+    private final int tileSize;
+    private java.awt.Color background = java.awt.Color.WHITE;
+
+    public static class Stats {
+        private final int tiles;
+        private final long figuresDrawn;
+        private final long elapsedNanos;
+        private final long peakHeapBytes;
+
+        private Stats(int tiles, long figuresDrawn, long elapsedNanos, long peakHeapBytes) {
+            this.tiles = tiles;
+            this.figuresDrawn = figuresDrawn;
+            this.elapsedNanos = elapsedNanos;
+            this.peakHeapBytes = peakHeapBytes;
+        }
+
+        public int getTiles() { return tiles; }
+
+        // a figure spanning several tiles is counted once per tile
+        public long getFiguresDrawn() { return figuresDrawn; }
+
+        public long getElapsedNanos() { return elapsedNanos; }
+
+        // upper bound: the sum of the peaks of every heap pool during the export
+        public long getPeakHeapBytes() { return peakHeapBytes; }
+
+        public double getTilesPerSecond() {
+            return elapsedNanos == 0 ? 0 : tiles / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d baldosas en %.2f s (%.1f baldosas/s), pico de memoria %d MB",
+                    tiles, elapsedNanos / 1e9, getTilesPerSecond(), peakHeapBytes / (1024 * 1024));
+        }
+    }
+
+    private static class Band {
+        private final int height;
+        private final List<ForkJoinTask<BufferedImage>> tiles = new ArrayList<>();
+        private final long[] figuresDrawn;
+
+        private Band(int height, int columns) {
+            this.height = height;
+            this.figuresDrawn = new long[columns];
+        }
+    }
+
+    public TiledExporter(FigureDrawer drawer) {
+        this(drawer, ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE);
+    }
+
+    public TiledExporter(FigureDrawer drawer, ForkJoinPool pool, int tileSize) {
+        if (tileSize <= 0) throw new IllegalArgumentException("Tamaño de baldosa inválido: " + tileSize);
+        this.drawer = drawer;
+        this.pool = pool;
+        this.tileSize = tileSize;
+    }
+
+    // null leaves the image transparent
+    public void setBackground(java.awt.Color background) {
+        this.background = background;
+    }
+
+    // writes the area as a PNG into out, which is closed at the end
+    public Stats exportPng(CanvasState canvasState, Bounds area, Predicate<Figure> filter, OutputStream out) throws IOException {
+        return exportPng(canvasState::figuresIn, area, filter, out);
+    }
+
+    // the figures come from figuresIn, once per band with the area of the band, in paint order
+    public Stats exportPng(Function<Bounds, ? extends Iterable<Figure>> figuresIn, Bounds area, Predicate<Figure> filter,
+                           OutputStream out) throws IOException {
+        int width = Math.max(1, (int) Math.ceil(area.getWidth()));
+        int height = Math.max(1, (int) Math.ceil(area.getHeight()));
+        int columns = (width + tileSize - 1) / tileSize;
+        int bands = (height + tileSize - 1) / tileSize;
+
+        List<MemoryPoolMXBean> heapPools = heapPools();
+        for (MemoryPoolMXBean heapPool : heapPools) heapPool.resetPeakUsage();
+        long start = System.nanoTime();
+        long figuresDrawn = 0;
+
+        Deque<Band> pending = new ArrayDeque<>();
+        int[] row = new int[width];
+        try (PngWriter writer = new PngWriter(out, width, height)) {
+            for (int band = 0; band < bands; band++) {
+                pending.addLast(submitBand(figuresIn, area, filter, band, width, height, columns));
+                // keeps one band rendering ahead of the one being encoded
+                if (pending.size() == 2) figuresDrawn += writeBand(pending.removeFirst(), writer, row);
+            }
+            while (!pending.isEmpty()) figuresDrawn += writeBand(pending.removeFirst(), writer, row);
+        } finally {
+            for (Band band : pending) {
+                for (ForkJoinTask<BufferedImage> tile : band.tiles) tile.cancel(true);
+            }
+        }
+
+        long elapsed = System.nanoTime() - start;
+        long peak = 0;
+        for (MemoryPoolMXBean heapPool : heapPools) peak += heapPool.getPeakUsage().getUsed();
+        return new Stats(columns * bands, figuresDrawn, elapsed, peak);
+    }
+
+    private Band submitBand(Function<Bounds, ? extends Iterable<Figure>> figuresIn, Bounds area, Predicate<Figure> filter,
+                            int band, int width, int height, int columns) {
+        int bandY = band * tileSize;
+        Band result = new Band(Math.min(tileSize, height - bandY), columns);
+        double minY = area.getMinY() + bandY;
+        Bounds bandArea = new Bounds(area.getMinX(), minY, area.getMinX() + width, minY + result.height);
+
+        // the index is queried once per band on this thread, the tiles only cull from this list
+        List<Figure> candidates = new ArrayList<>();
+        for (Figure figure : figuresIn.apply(bandArea.expand(drawer.maxRenderMargin()))) {
+            if (filter.test(figure)) candidates.add(figure);
+        }
+        for (int column = 0; column < columns; column++) {
+            int tileX = column * tileSize;
+            int tileWidth = Math.min(tileSize, width - tileX);
+            Bounds tileArea = new Bounds(area.getMinX() + tileX, minY, area.getMinX() + tileX + tileWidth, minY + result.height);
+            int index = column;
+            result.tiles.add(pool.submit(() -> renderTile(candidates, tileArea, tileWidth, result.height, result.figuresDrawn, index)));
+        }
+        return result;
+    }
+
+    private BufferedImage renderTile(List<Figure> candidates, Bounds tileArea, int width, int height,
+                                     long[] figuresDrawn, int index) {
+        BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = tile.createGraphics();
+        try {
+            if (background != null) {
+                g.setColor(background);
+                g.fillRect(0, 0, width, height);
+            }
+            g.translate(-tileArea.getMinX(), -tileArea.getMinY());
+            Java2DRenderer renderer = new Java2DRenderer(g);
+            long drawn = 0;
+            for (Figure figure : candidates) {
+                if (!drawer.renderBounds(figure).intersects(tileArea)) continue;
+                drawer.draw(renderer, figure);
+                drawn++;
+            }
+            figuresDrawn[index] = drawn;
+        } finally {
+            g.dispose();
+        }
+        return tile;
+    }
+
+    private long writeBand(Band band, PngWriter writer, int[] row) throws IOException {
+        List<int[]> pixels = new ArrayList<>(band.tiles.size());
+        List<Integer> widths = new ArrayList<>(band.tiles.size());
+        for (ForkJoinTask<BufferedImage> task : band.tiles) {
+            BufferedImage tile = task.join();
+            pixels.add(((DataBufferInt) tile.getRaster().getDataBuffer()).getData());
+            widths.add(tile.getWidth());
+        }
+        for (int y = 0; y < band.height; y++) {
+            int x = 0;
+            for (int i = 0; i < pixels.size(); i++) {
+                int tileWidth = widths.get(i);
+                System.arraycopy(pixels.get(i), y * tileWidth, row, x, tileWidth);
+                x += tileWidth;
+            }
+            writer.writeRow(row, 0);
+        }
+        long drawn = 0;
+        for (long count : band.figuresDrawn) drawn += count;
+        return drawn;
+    }
+
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) pools.add(pool);
+        }
+        return pools;
+    }
+}
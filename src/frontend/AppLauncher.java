@@ -1,12 +1,16 @@
 package frontend;
 
 import backend.CanvasState;
+import backend.Journal;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Scene;
 import javafx.stage.Stage;
 
 public class AppLauncher extends Application {
 
+	private MainFrame frame;
+
 	public static void main(String[] args) {
 		launch(args);
 	}
@@ -14,12 +18,22 @@ public class AppLauncher extends Application {
 	@Override
 	public void start(Stage primaryStage) {
 		CanvasState canvasState = new CanvasState(); // BackEnd
-		MainFrame frame = new MainFrame(canvasState);
+		frame = new MainFrame(canvasState);
 		Scene scene = new Scene(frame);
-		primaryStage.setResizable(false);
 		primaryStage.setScene(scene);
 		primaryStage.show();
-		primaryStage.setOnCloseRequest(event -> System.exit(0));
+		// stop() runs on every way out, the autosave is closed there
+		primaryStage.setOnCloseRequest(event -> Platform.exit());
+		frame.startAutosave(Journal.DEFAULT_DIRECTORY);
+		frame.startMetricsFromSystemProperties();
+	}
+
+	@Override
+	public void stop() {
+		if (frame == null) return;
+		frame.stopJobs();
+		frame.stopMetrics();
+		frame.stopAutosave();
 	}
 
 }
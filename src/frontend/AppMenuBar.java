@@ -1,14 +1,90 @@
 package frontend;
 
+import backend.CanvasSnapshot;
+import backend.CanvasState;
+import backend.ColumnarFigureStore;
+import backend.DocumentFile;
+import backend.JobExecutor;
+import backend.LazyDocument;
+import backend.MetricsCsvWriter;
+import backend.TagQuery;
+import backend.history.History;
+import backend.model.Bounds;
+import backend.model.Figure;
+import backend.render.DetailPolicy;
+import backend.render.FigureDrawer;
+import backend.render.SvgExporter;
+import backend.render.TiledExporter;
 import javafx.application.Platform;
 import javafx.scene.control.*;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.layout.GridPane;
+import javafx.stage.FileChooser;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 
+// Opening, saving and exporting run as background jobs, the window keeps working meanwhile.
 public class AppMenuBar extends MenuBar {
 
-    public AppMenuBar() {
+    // figures handed to the canvas per turn of the FX thread while a document is opened
+    private static final int OPEN_BATCH = 2048;
+
+    private final CanvasState canvasState;
+    private final StatusPane statusPane;
+    private final PaintPane paintPane;
+    private final JobExecutor jobs;
+    private File currentFile;
+    // the open or save in progress, a second one waits for it to end
+    private JobExecutor.Job<?> documentJob;
+    // an open that already dropped the previous drawing, a failure keeps what it got to load
+    private boolean canvasReplaced;
+
+    public AppMenuBar(CanvasState canvasState, StatusPane statusPane, PaintPane paintPane, JobExecutor jobs) {
+        this.canvasState = canvasState;
+        this.statusPane = statusPane;
+        this.paintPane = paintPane;
+        this.jobs = jobs;
+
         Menu file = new Menu("Archivo");
+        MenuItem openMenuItem = new MenuItem("Abrir...");
+        openMenuItem.setOnAction(event -> open());
+        MenuItem saveMenuItem = new MenuItem("Guardar");
+        saveMenuItem.setOnAction(event -> save(currentFile));
+        MenuItem saveAsMenuItem = new MenuItem("Guardar como...");
+        saveAsMenuItem.setOnAction(event -> save(null));
+        MenuItem exportSvgMenuItem = new MenuItem("Exportar SVG...");
+        exportSvgMenuItem.setOnAction(event -> exportSvg());
+        MenuItem exportPngMenuItem = new MenuItem("Exportar PNG...");
+        exportPngMenuItem.setOnAction(event -> exportPng());
+        MenuItem autosaveMenuItem = new MenuItem("Autoguardado");
+        autosaveMenuItem.setOnAction(event -> {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Autoguardado");
+            alert.setHeaderText("Diario de cambios");
+            alert.setContentText(paintPane.getJournal() == null ? "El autoguardado está desactivado" : paintPane.getJournal().toString());
+            alert.showAndWait();
+        });
+        MenuItem jobsMenuItem = new MenuItem("Tareas en segundo plano");
+        jobsMenuItem.setOnAction(event -> {
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.setTitle("Tareas en segundo plano");
+            alert.setHeaderText("Abrir, guardar y exportar");
+            alert.setContentText(jobs.toString());
+            alert.showAndWait();
+        });
         MenuItem exitMenuItem = new MenuItem("Salir");
         exitMenuItem.setOnAction(event -> {
             Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
@@ -20,7 +96,36 @@ public class AppMenuBar extends MenuBar {
                 Platform.exit();
             }
         });
-        file.getItems().add(exitMenuItem);
+        file.getItems().addAll(openMenuItem, saveMenuItem, saveAsMenuItem, new SeparatorMenuItem(),
+                exportSvgMenuItem, exportPngMenuItem, new SeparatorMenuItem(), autosaveMenuItem, jobsMenuItem, exitMenuItem);
+        Menu edit = new Menu("Editar");
+        MenuItem undoMenuItem = new MenuItem("Deshacer");
+        undoMenuItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Z"));
+        undoMenuItem.setOnAction(event -> paintPane.undo());
+        MenuItem redoMenuItem = new MenuItem("Rehacer");
+        redoMenuItem.setAccelerator(KeyCombination.keyCombination("Shortcut+Y"));
+        redoMenuItem.setOnAction(event -> paintPane.redo());
+        // the items name the step they would take, they stay enabled so the shortcuts always work
+        edit.setOnShowing(event -> {
+            History history = paintPane.getHistory();
+            undoMenuItem.setText(history.canUndo() ? "Deshacer " + history.peekUndo().getName() : "Deshacer");
+            redoMenuItem.setText(history.canRedo() ? "Rehacer " + history.peekRedo().getName() : "Rehacer");
+        });
+        edit.getItems().addAll(undoMenuItem, redoMenuItem);
+        Menu view = new Menu("Ver");
+        MenuItem detailMenuItem = new MenuItem("Nivel de detalle...");
+        detailMenuItem.setOnAction(event -> editDetail());
+        CheckMenuItem metricsMenuItem = new CheckMenuItem("Rendimiento");
+        metricsMenuItem.setAccelerator(KeyCombination.keyCombination("F3"));
+        metricsMenuItem.setOnAction(event -> paintPane.setMetricsVisible(metricsMenuItem.isSelected()));
+        CheckMenuItem metricsCsvMenuItem = new CheckMenuItem("Registrar métricas en CSV...");
+        metricsCsvMenuItem.setOnAction(event -> metricsCsv(metricsCsvMenuItem.isSelected()));
+        // the CSV may have been started when launching, or stopped on its own after a write error
+        view.setOnShowing(event -> {
+            metricsMenuItem.setSelected(paintPane.isMetricsVisible());
+            metricsCsvMenuItem.setSelected(paintPane.getMetricsCsv() != null);
+        });
+        view.getItems().addAll(detailMenuItem, new SeparatorMenuItem(), metricsMenuItem, metricsCsvMenuItem);
         Menu help = new Menu("Ayuda");
         MenuItem aboutMenuItem = new MenuItem("Acerca De");
         aboutMenuItem.setOnAction(event -> {
@@ -31,7 +136,275 @@ public class AppMenuBar extends MenuBar {
             alert.showAndWait();
         });
         help.getItems().add(aboutMenuItem);
-        getMenus().addAll(file, help);
+        getMenus().addAll(file, edit, view, help);
+    }
+
+    private void open() {
+        if (documentBusy()) return;
+        if (canvasState.size() > 0) {
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+            alert.setTitle("Abrir");
+            alert.setHeaderText("Abrir un dibujo");
+            alert.setContentText("Se descartarán las figuras del dibujo actual. ¿Desea continuar?");
+            Optional<ButtonType> result = alert.showAndWait();
+            if (result.isEmpty() || result.get() != ButtonType.OK) return;
+        }
+        File file = fileChooser("Abrir dibujo").showOpenDialog(getScene().getWindow());
+        if (file == null) return;
+        long start = System.nanoTime();
+        Path path = file.toPath();
+        canvasReplaced = false;
+        documentJob = jobs.submit("Abriendo " + file.getName(), context -> openDocument(context, path), figures -> {
+            currentFile = file;
+            statusPane.updateStatus(String.format("Abierto %s: %d figuras en %d ms%s", file.getName(), figures,
+                    (System.nanoTime() - start) / 1_000_000, canvasState.getDocument() != null ? " (carga diferida)" : ""));
+        }, error -> {
+            // history and autosave start over from what got loaded
+            if (canvasReplaced) paintPane.documentLoaded();
+            failed("No se pudo abrir el dibujo", error);
+        });
+    }
+
+    // on the job thread: a document is read here and handed to the canvas in batches, a huge one
+    // is paged in as it is drawn instead, only the FX thread can attach it
+    private int openDocument(JobExecutor.Context context, Path path) throws Exception {
+        if (DocumentFile.opensLazily(path)) {
+            return context.onUiThread(() -> {
+                int figures = DocumentFile.open(path, canvasState);
+                canvasReplaced = true;
+                paintPane.documentLoaded();
+                return figures;
+            });
+        }
+        ColumnarFigureStore store = DocumentFile.load(path); // a file that can't be read leaves the canvas as it was
+        context.commit(() -> {
+            canvasState.clear();
+            canvasReplaced = true;
+            paintPane.documentLoaded();
+        });
+        for (int from = 0; from < store.size(); from += OPEN_BATCH) {
+            context.checkCancelled();
+            int to = Math.min(store.size(), from + OPEN_BATCH);
+            List<Figure> batch = new ArrayList<>(to - from);
+            for (int row = from; row < to; row++) batch.add(store.toFigure(row));
+            context.commit(() -> canvasState.inTransaction(() -> {
+                for (Figure figure : batch) canvasState.addFigure(figure);
+            }));
+            context.progress(to, store.size());
+        }
+        context.commit(paintPane::documentLoaded);
+        return store.size();
+    }
+
+    private void save(File file) {
+        if (documentBusy()) return;
+        if (file == null) {
+            file = fileChooser("Guardar dibujo").showSaveDialog(getScene().getWindow());
+            if (file == null) return;
+            if (!file.getName().contains(".")) file = new File(file.getParentFile(), file.getName() + "." + DocumentFile.EXTENSION);
+        }
+        File target = file;
+        boolean lazy = canvasState.getDocument() != null;
+        documentJob = jobs.submit("Guardando " + target.getName(), context -> {
+            // the rows of a lazy document are read here too, from what the FX thread tells is still in its file
+            ColumnarFigureStore store = lazy ? lazyContents(context).toStore() : DocumentFile.contents(canvasState);
+            context.checkCancelled();
+            DocumentFile.save(store, target.toPath());
+            return target;
+        }, saved -> {
+            currentFile = saved;
+            statusPane.updateStatus("Dibujo guardado en " + saved.getName());
+        }, error -> failed("No se pudo guardar el dibujo", error));
+    }
+
+    // tells the user to wait for the open or save in progress
+    private boolean documentBusy() {
+        if (documentJob == null || documentJob.isFinished()) return false;
+        statusPane.updateStatus("Espere a que termine: " + documentJob.getName());
+        return true;
+    }
+
+    // what is shown on the canvas: visible layers only, with the tag filter applied
+    private void exportSvg() {
+        File file = exportChooser("Exportar SVG", "Imágenes SVG (*.svg)", "svg").showSaveDialog(getScene().getWindow());
+        if (file == null) return;
+        export(file, (copy, context, area, visibleLayers, filter, path) -> {
+            // streamed layer by layer from the rows of the copy
+            SvgExporter.export(copy.layers(), layer -> {
+                context.checkCancelled();
+                return copy.figuresOf(layer);
+            }, area, visibleLayers, filter, path);
+            return "";
+        }, (contents, context, area, visibleLayers, filter, path) -> {
+            // the whole document is written, streamed layer by layer from its file
+            SvgExporter.export(contents.layers(), layer -> {
+                context.checkCancelled();
+                return contents.figuresOf(layer);
+            }, area, visibleLayers, filter, path);
+            return "";
+        });
+    }
+
+    private void exportPng() {
+        File file = exportChooser("Exportar PNG", "Imágenes PNG (*.png)", "png").showSaveDialog(getScene().getWindow());
+        if (file == null) return;
+        export(file, (copy, context, area, visibleLayers, filter, path) -> {
+            // the rows of each band are read from the copy as the band is drawn
+            return exportPng(bandArea -> {
+                context.checkCancelled();
+                return copy.figuresIn(bandArea);
+            }, area, visibleLayers, filter, path);
+        }, (contents, context, area, visibleLayers, filter, path) -> {
+            // only what reaches into the image, borders and shadows included
+            double margin = new FigureDrawer(PaintPane.MAX_BORDER_WIDTH).maxRenderMargin();
+            CanvasState copy = contents.toCanvasState(area.expand(margin), visibleLayers);
+            context.checkCancelled();
+            return exportPng(copy::figuresIn, area, visibleLayers, filter, path);
+        });
+    }
+
+    private static String exportPng(Function<Bounds, ? extends Iterable<Figure>> figuresIn, Bounds area,
+                                    IntPredicate visibleLayers, Predicate<Figure> filter, Path file) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file)) {
+            TiledExporter exporter = new TiledExporter(new FigureDrawer(PaintPane.MAX_BORDER_WIDTH));
+            return ": " + exporter.exportPng(figuresIn, area,
+                    figure -> visibleLayers.test(figure.getLayer()) && filter.test(figure), out);
+        }
+    }
+
+    // an export from a copy of the canvas, read on the thread of the job. Returns what to add to the message once it is written
+    private interface Export {
+        String run(CanvasSnapshot copy, JobExecutor.Context context, Bounds area, IntPredicate visibleLayers,
+                   Predicate<Figure> filter, Path file) throws IOException;
+    }
+
+    // the same export from the contents of a lazy document, read on the thread of the job
+    private interface LazyExport {
+        String run(LazyDocument.Contents contents, JobExecutor.Context context, Bounds area, IntPredicate visibleLayers,
+                   Predicate<Figure> filter, Path file) throws IOException;
+    }
+
+    // runs the export as a job over a copy of the canvas, with the area, layers and tag filter shown now.
+    // The copy is read row by row, and a lazy document is not copied whole: the job reads its rows from the file
+    // as it writes them
+    private void export(File file, Export export, LazyExport lazyExport) {
+        Bounds area = paintPane.getCanvasArea();
+        Set<Integer> visibleLayers = new HashSet<>();
+        for (int layer : canvasState.layers()) if (paintPane.isLayerVisible(layer)) visibleLayers.add(layer);
+        String filterExpression = paintPane.getFilterExpression();
+        boolean lazy = canvasState.getDocument() != null;
+        jobs.submit("Exportando " + file.getName(), context -> {
+            // the rows are not in the tag index, so the filter is tested on the tags of each figure
+            Predicate<Figure> tagFilter = filterExpression == null ? figure -> true : TagQuery.byTags(filterExpression);
+            if (lazy) return lazyExport.run(lazyContents(context), context, area, visibleLayers::contains, tagFilter, file.toPath());
+            CanvasSnapshot copy = canvasState.snapshot();
+            context.checkCancelled();
+            return export.run(copy, context, area, visibleLayers::contains, tagFilter, file.toPath());
+        }, message -> statusPane.updateStatus("Dibujo exportado en " + file.getName() + message),
+                error -> failed("No se pudo exportar el dibujo", error));
+    }
+
+    // what the lazy document has now, taken on the FX thread and read on the job's, which checks for a cancel as it reads
+    private LazyDocument.Contents lazyContents(JobExecutor.Context context) throws Exception {
+        LazyDocument.Contents contents = context.onUiThread(() -> canvasState.getDocument() == null ? null
+                : canvasState.getDocument().contents(context::checkCancelled));
+        if (contents == null) throw new IllegalStateException("El dibujo ya no se lee de su archivo");
+        return contents;
+    }
+
+    // a cancelled job already said so in the status bar
+    private void failed(String header, Throwable error) {
+        if (error instanceof CancellationException) return;
+        showError(header, error);
+    }
+
+    // shows how many figures were drawn at each level and lets the thresholds be changed
+    private void editDetail() {
+        DetailPolicy policy = paintPane.getDetailPolicy();
+        Spinner<Double> pointSpinner = new Spinner<>(0.0, 100.0, policy.getPointBelow(), 0.5);
+        Spinner<Double> fullSpinner = new Spinner<>(0.0, 1000.0, policy.getFullFrom(), 1.0);
+        pointSpinner.setEditable(true);
+        fullSpinner.setEditable(true);
+        CheckBox hideCheck = new CheckBox("Omitir las figuras de menos de un punto");
+        hideCheck.setSelected(policy.isHideSubPixel());
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.addRow(0, new Label("Punto por debajo de (px):"), pointSpinner);
+        grid.addRow(1, new Label("Detalle completo desde (px):"), fullSpinner);
+        grid.add(hideCheck, 0, 2, 2, 1);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Nivel de detalle");
+        dialog.setHeaderText(policy.toString());
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        Optional<ButtonType> result = dialog.showAndWait();
+        if (result.isEmpty() || result.get() != ButtonType.OK) return;
+        try {
+            policy.setThresholds(pointSpinner.getValue(), fullSpinner.getValue());
+            policy.setHideSubPixel(hideCheck.isSelected());
+            paintPane.detailChanged();
+        } catch (IllegalArgumentException e) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Nivel de detalle");
+            alert.setHeaderText("No se cambiaron los umbrales");
+            alert.setContentText(e.getMessage());
+            alert.showAndWait();
+        }
+    }
+
+    // starts or stops writing the metrics to a CSV file, one row per second
+    private void metricsCsv(boolean start) {
+        if (!start) {
+            MetricsCsvWriter writer = paintPane.stopMetricsCsv();
+            if (writer == null) return;
+            if (writer.getFailure() != null) showError("No se pudieron registrar las métricas", writer.getFailure());
+            else statusPane.updateStatus(writer.toString());
+            return;
+        }
+        File file = exportChooser("Registrar métricas", "Valores separados por comas (*.csv)", "csv")
+                .showSaveDialog(getScene().getWindow());
+        if (file == null) return;
+        try {
+            paintPane.startMetricsCsv(file.toPath());
+            statusPane.updateStatus("Registrando métricas en " + file.getName());
+        } catch (IOException e) {
+            showError("No se pudieron registrar las métricas", e);
+        }
+    }
+
+    private FileChooser fileChooser(String title) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Dibujos (*." + DocumentFile.EXTENSION + ")",
+                "*." + DocumentFile.EXTENSION));
+        if (currentFile != null) {
+            chooser.setInitialDirectory(currentFile.getParentFile());
+            chooser.setInitialFileName(currentFile.getName());
+        }
+        return chooser;
+    }
+
+    private FileChooser exportChooser(String title, String description, String extension) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle(title);
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(description, "*." + extension));
+        if (currentFile != null) {
+            chooser.setInitialDirectory(currentFile.getParentFile());
+            String name = currentFile.getName();
+            chooser.setInitialFileName((name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name) + "." + extension);
+        }
+        return chooser;
+    }
+
+    private void showError(String header, Throwable e) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Archivo");
+        alert.setHeaderText(header);
+        alert.setContentText(e.getMessage() != null ? e.getMessage() : e.toString());
+        alert.showAndWait();
     }
 
 }
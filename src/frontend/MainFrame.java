@@ -1,15 +1,121 @@
 package frontend;
 
 import backend.CanvasState;
+import backend.JobExecutor;
+import backend.Journal;
+import backend.MetricsCsvWriter;
+import backend.MetricsRegistry;
+import frontend.render.RenderScheduler;
+import javafx.application.Platform;
+import javafx.scene.control.Alert;
+import javafx.scene.control.ButtonType;
 import javafx.scene.layout.VBox;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+
 public class MainFrame extends VBox {
 
+    private final CanvasState canvasState;
+    private final StatusPane statusPane;
+    private final PaintPane paintPane;
+    private final JobExecutor jobs = new JobExecutor(Platform::runLater, JobExecutor.DEFAULT_MAX_RUNNING);
+    private Journal journal;
+
     public MainFrame(CanvasState canvasState) {
-        getChildren().add(new AppMenuBar());
-        StatusPane statusPane = new StatusPane();
-        getChildren().add(new PaintPane(canvasState, statusPane));
+        this.canvasState = canvasState;
+        statusPane = new StatusPane();
+        paintPane = new PaintPane(canvasState, statusPane);
+        jobs.addListener(this::jobChanged);
+        registerJobMetrics(paintPane.getMetrics());
+        registerRenderMetrics(paintPane.getMetrics());
+        getChildren().add(new AppMenuBar(canvasState, statusPane, paintPane, jobs));
+        getChildren().add(paintPane);
         getChildren().add(statusPane);
     }
 
+    // offers to recover what a previous session that did not close cleanly left, then starts journaling
+    public void startAutosave(Path directory) {
+        if (Journal.hasRecoverable(directory)) {
+            Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
+            alert.setTitle("Recuperar");
+            alert.setHeaderText("La sesión anterior no se cerró correctamente");
+            alert.setContentText("Se encontró un dibujo sin guardar. ¿Desea recuperarlo?");
+            Optional<ButtonType> result = alert.showAndWait();
+            if (result.isPresent() && result.get() == ButtonType.OK) {
+                try {
+                    Journal.Recovery recovery = Journal.recover(directory, canvasState);
+                    paintPane.documentLoaded();
+                    statusPane.updateStatus(recovery.toString());
+                } catch (IOException e) {
+                    canvasState.clear();
+                    paintPane.documentLoaded();
+                    Alert error = new Alert(Alert.AlertType.ERROR);
+                    error.setTitle("Recuperar");
+                    error.setHeaderText("No se pudo recuperar el dibujo");
+                    error.setContentText(e.getMessage());
+                    error.showAndWait();
+                }
+            }
+        }
+        try {
+            journal = Journal.open(directory, canvasState);
+            paintPane.setJournal(journal);
+        } catch (IOException e) {
+            statusPane.updateStatus("Autoguardado desactivado: " + e.getMessage());
+        }
+    }
+
+    // -Dtpe.metrics.csv starts writing the metrics as soon as the window opens, for load tests
+    public void startMetricsFromSystemProperties() {
+        try {
+            MetricsCsvWriter writer = MetricsCsvWriter.fromSystemProperties(paintPane.getMetrics());
+            if (writer != null) paintPane.startMetricsCsv(writer);
+        } catch (IOException | IllegalArgumentException e) {
+            statusPane.updateStatus("No se pudieron registrar las métricas: " + e.getMessage());
+        }
+    }
+
+    // the last row of the metrics is written before leaving
+    public void stopMetrics() {
+        paintPane.stopMetricsCsv();
+    }
+
+    // a clean exit leaves nothing to recover
+    public void stopAutosave() {
+        if (journal != null) journal.close(true);
+    }
+
+    // whatever is still running in the background is dropped on exit
+    public void stopJobs() {
+        jobs.cancelAll();
+    }
+
+    // the job counters are read from the CSV thread too, JobExecutor keeps them safe to read from anywhere
+    private void registerJobMetrics(MetricsRegistry metrics) {
+        metrics.gauge("jobs.queued", jobs::getQueueDepth);
+        metrics.gauge("jobs.running", jobs::getRunning);
+        metrics.gauge("jobs.done", jobs::getDone);
+        metrics.gauge("jobs.failed", jobs::getFailed);
+        metrics.gauge("jobs.cancelled", jobs::getCancelled);
+        metrics.gauge("jobs.latency.avg.ms", jobs::getAverageLatencyMillis);
+        metrics.gauge("jobs.wait.avg.ms", jobs::getAverageWaitMillis);
+    }
+
+    // repaints asked for against the ones that ran, the difference is what coalescing saved
+    private void registerRenderMetrics(MetricsRegistry metrics) {
+        RenderScheduler scheduler = paintPane.getRenderScheduler();
+        metrics.gauge("render.requested", scheduler::getRequestedFrames);
+        metrics.gauge("render.executed", scheduler::getExecutedFrames);
+        metrics.gauge("render.coalesced", scheduler::getCoalescedFrames);
+    }
+
+    // progress of the jobs in the status bar, the ones that end leave their own message there
+    private void jobChanged(JobExecutor.Job<?> job) {
+        if (!job.isFinished() || job.getState() == JobExecutor.State.CANCELLED) statusPane.updateStatus(job.toString());
+        boolean busy = jobs.getRunning() + jobs.getQueueDepth() > 0;
+        statusPane.setCancelAction(busy ? jobs::cancelAll : null);
+    }
+
 }
@@ -0,0 +1,73 @@
+package frontend;
+
+import backend.MetricsRegistry;
+import frontend.render.LayeredCanvas;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.control.Label;
+import javafx.util.Duration;
+
+// Live numbers of the rendering over the canvas: the last and p99 frame time, what the last frame drew and what it
+// left out, the shadows and gradients it made, what it allocated and how long hit-testing takes on each mouse move.
+// It reads the registry a few times a second while it is shown, never on every frame.
+public class MetricsHud extends Label {
+
+    private static final Duration REFRESH = Duration.millis(250);
+
+    private final MetricsRegistry.Timer frameTime, hitTestTime;
+    private final MetricsRegistry.Counter frames;
+    private final MetricsRegistry.Gauge drawn, culled, layerFiltered, tagFiltered, lodHidden, shadows, gradients, allocated;
+    private final Timeline refresh = new Timeline(new KeyFrame(REFRESH, event -> refresh()));
+
+    public MetricsHud(MetricsRegistry metrics) {
+        frameTime = metrics.timer(LayeredCanvas.FRAME_TIME);
+        hitTestTime = metrics.timer(PaintPane.HIT_TEST_TIME);
+        frames = metrics.counter(LayeredCanvas.FRAMES);
+        drawn = metrics.gauge(LayeredCanvas.FRAME_DRAWN);
+        culled = metrics.gauge(LayeredCanvas.FRAME_CULLED);
+        layerFiltered = metrics.gauge(LayeredCanvas.FRAME_LAYER_FILTERED);
+        tagFiltered = metrics.gauge(LayeredCanvas.FRAME_TAG_FILTERED);
+        lodHidden = metrics.gauge(LayeredCanvas.FRAME_LOD_HIDDEN);
+        shadows = metrics.gauge(LayeredCanvas.FRAME_SHADOWS);
+        gradients = metrics.gauge(LayeredCanvas.FRAME_GRADIENTS);
+        allocated = metrics.gauge(LayeredCanvas.FRAME_ALLOCATED);
+
+        setStyle("-fx-background-color: rgba(0, 0, 0, 0.7); -fx-text-fill: white; -fx-font-family: monospace;"
+                + " -fx-font-size: 11px; -fx-padding: 6; -fx-background-radius: 4;");
+        setMaxSize(USE_PREF_SIZE, USE_PREF_SIZE); // over a corner, not stretched over the canvas
+        setMouseTransparent(true);
+        setFocusTraversable(false);
+        refresh.setCycleCount(Timeline.INDEFINITE);
+        // refreshed only while shown
+        visibleProperty().addListener((obs, oldVal, newVal) -> {
+            if (newVal) {
+                refresh();
+                refresh.play();
+            } else {
+                refresh.stop();
+            }
+        });
+        setVisible(false);
+    }
+
+    private void refresh() {
+        setText(String.format("Frame: %.2f ms, p99 %.2f ms (%d frames)%n"
+                        + "Figuras: %d dibujadas, %d fuera del área, %d sin detalle%n"
+                        + "Filtradas: %d por capa, %d por etiqueta%n"
+                        + "Sombras: %d, gradientes creados: %d%n"
+                        + "Memoria por frame: %s%n"
+                        + "Hit-test: %.3f ms, p99 %.3f ms",
+                frameTime.getLastMillis(), frameTime.getPercentileMillis(0.99), frames.get(),
+                (long) drawn.get(), (long) culled.get(), (long) lodHidden.get(),
+                (long) layerFiltered.get(), (long) tagFiltered.get(),
+                (long) shadows.get(), (long) gradients.get(),
+                MetricsRegistry.currentThreadAllocatedBytes() < 0 ? "no disponible" : bytes((long) allocated.get()),
+                hitTestTime.getLastMillis(), hitTestTime.getPercentileMillis(0.99)));
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        return String.format("%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -1,37 +1,60 @@
 package frontend;
 
+import backend.BatchProcessor;
 import backend.CanvasState;
+import backend.Journal;
+import backend.MetricsCsvWriter;
+import backend.MetricsRegistry;
+import backend.TagQuery;
+import backend.history.*;
 import backend.model.*;
+import backend.render.DetailPolicy;
+import backend.render.FigureDrawer;
 import frontend.managers.LayerManager;
+import frontend.render.LayeredCanvas;
+import frontend.render.RenderScheduler;
 import javafx.geometry.Insets;
 import javafx.scene.Cursor;
-import javafx.scene.canvas.Canvas;
-import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.control.*;
+import javafx.scene.input.MouseButton;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
 import javafx.scene.paint.Color;
-import javafx.scene.paint.CycleMethod;
-import javafx.scene.paint.LinearGradient;
-import javafx.scene.paint.RadialGradient;
-import javafx.scene.paint.Stop;
 import javafx.geometry.Pos;
 import javafx.scene.layout.HBox;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class PaintPane extends BorderPane {
 
+	static final double MAX_BORDER_WIDTH = 20;
+	// time spent finding the figures under the mouse, on every move
+	static final String HIT_TEST_TIME = "hittest.time";
+
 	// canvas and state
 	private final CanvasState canvasState;
-	private final Canvas canvas = new Canvas(900, 780);
-	private final GraphicsContext gc = canvas.getGraphicsContext2D();
+	private final LayeredCanvas canvas;
+	private final RenderScheduler renderScheduler;
+
+	// render metrics, shown over the canvas and optionally written to a CSV file
+	private final MetricsRegistry metrics = new MetricsRegistry();
+	private final MetricsRegistry.Timer hitTestTime = metrics.timer(HIT_TEST_TIME);
+	private final MetricsHud metricsHud = new MetricsHud(metrics);
+	private MetricsCsvWriter metricsCsv;
 
 	// tools
 	private final ToggleButton selectionButton = new ToggleButton("Seleccionar");
@@ -57,14 +80,31 @@ public class PaintPane extends BorderPane {
 
 	// borders
 	private final ChoiceBox<BorderType> borderBox = new ChoiceBox<>();
-	private final Slider borderSlider = new Slider(1, 20, 1);
+	private final Slider borderSlider = new Slider(1, MAX_BORDER_WIDTH, 1);
 
 	private Point startPoint;
-	private Figure selectedFigure;
+	// last drag position as primitives, moving a figure does not allocate
+	private double lastDragX, lastDragY;
+	// offset of the current drag so far, recorded as a single move when the mouse is released
+	private double dragDiffX, dragDiffY;
+	// dragging with the secondary or middle button pans the view, positions in screen pixels
+	private boolean panning = false;
+	private double lastPanX, lastPanY;
+	// with the selection tool a press on a selected figure moves the selection, on empty space it drags a band
+	private boolean movingSelection = false;
+	private boolean selectingBand = false;
+	// in the order they were selected, the side panel shows the style of the last one
+	private final Set<Figure> selection = new LinkedHashSet<>();
+	// the selection as a list while it is dragged, walked by index so a mouse event allocates nothing
+	private final List<Figure> dragged = new ArrayList<>();
+	// set while the side panel is filled from the selection, so it is not taken as a change of style
+	private boolean showingSelection = false;
 	private final StatusPane statusPane;
 	private Figure previewFigure;
 
     private final LayerManager layerManager;
+	private final History history = new History();
+	private Journal journal;
 
 	private final String[] rdmMessages = {
 			"Estado actual: objeto == null \uD83D\uDE31\u200B\uD83D\uDE2D",
@@ -88,10 +128,15 @@ public class PaintPane extends BorderPane {
     private final RadioButton allFilterRb = new RadioButton("Todas");
     private final RadioButton soloFilterRb = new RadioButton("Solo");
     private final TextField filterField = new TextField();
+    // the tag filter on the canvas, null when every figure is shown
+    private TagQuery tagQuery;
 
 	public PaintPane(CanvasState canvasState, StatusPane statusPane) {
 		this.canvasState = canvasState;
 		this.statusPane = statusPane;
+		this.canvas = new LayeredCanvas(canvasState, new FigureDrawer(MAX_BORDER_WIDTH),
+				DetailPolicy.fromSystemProperties(), metrics, 900, 780);
+		this.renderScheduler = new RenderScheduler(canvas::render);
 
 		// Initialize creation strategies (removes if/else from createFigure)
 		creationStrategies.put(rectangleButton, Rectangle::new);
@@ -123,37 +168,32 @@ public class PaintPane extends BorderPane {
 		borderSlider.setShowTickLabels(true);
 
 		shadowBox.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
-			if (selectedFigure != null) {
-				selectedFigure.setShadowType(newVal);
-				redrawCanvas();
+			if (!selection.isEmpty() && !showingSelection) {
+				updateStyle("Cambiar sombra", figure -> figure.setShadowType(newVal));
 			}
 		});
 
 		fillColorPicker1.setOnAction(e -> {
-			if (selectedFigure != null) {
-				selectedFigure.setFillColor1(fillColorPicker1.getValue());
-				redrawCanvas();
+			if (!selection.isEmpty() && !showingSelection) {
+				updateStyle("Cambiar relleno", figure -> figure.setFillColor1(fillColorPicker1.getValue()));
 			}
 		});
 
 		fillColorPicker2.setOnAction(e -> {
-			if (selectedFigure != null) {
-				selectedFigure.setFillColor2(fillColorPicker2.getValue());
-				redrawCanvas();
+			if (!selection.isEmpty() && !showingSelection) {
+				updateStyle("Cambiar relleno", figure -> figure.setFillColor2(fillColorPicker2.getValue()));
 			}
 		});
 
 		borderBox.getSelectionModel().selectedItemProperty().addListener((obs, oldVal, newVal) -> {
-			if (selectedFigure != null) {
-				selectedFigure.setBorderType(newVal);
-				redrawCanvas();
+			if (!selection.isEmpty() && !showingSelection) {
+				updateStyle("Cambiar borde", figure -> figure.setBorderType(newVal));
 			}
 		});
 
 		borderSlider.valueProperty().addListener((obs, oldVal, newVal) -> {
-			if (selectedFigure != null) {
-				selectedFigure.setBorderWidth(newVal.doubleValue());
-				redrawCanvas();
+			if (!selection.isEmpty() && !showingSelection) {
+				updateStyle("Cambiar grosor", figure -> figure.setBorderWidth(newVal.doubleValue()));
 			}
 		});
 
@@ -165,62 +205,68 @@ public class PaintPane extends BorderPane {
 		centerButton.setCursor(Cursor.HAND);
 
 
-        layerManager = new LayerManager(canvasState, statusPane, this::redrawCanvas);
+        layerManager = new LayerManager(canvasState, statusPane, renderScheduler, canvas::setLayerVisible, history);
 
 
 		duplicateButton.setOnAction(event -> {
-			if (selectedFigure != null) {
+			if (!selection.isEmpty()) {
 				double offsetX = 20.0;
 				double offsetY = 20.0;
 
-				Figure duplicated = selectedFigure.duplicate(offsetX, offsetY);
-				canvasState.addFigure(duplicated);
-				redrawCanvas();
-				statusPane.updateStatus("Figura duplicada");
+				// the copies are built on the workers and added in a single step
+				List<Figure> duplicated = BatchProcessor.map(selectedFigures(), figure -> figure.duplicate(offsetX, offsetY));
+				perform(new AddFiguresCommand(canvasState, figuresName("Duplicar figura"), duplicated));
+				statusPane.updateStatus(duplicated.size() > 1 ? duplicated.size() + " figuras duplicadas" : "Figura duplicada");
 			}
 		});
 
 		divideButton.setOnAction(event -> {
-			if (selectedFigure != null) {
-				java.util.List<Figure> dividedFigures = selectedFigure.divide();
-
-				canvasState.deleteFigure(selectedFigure);
-
-				for (Figure fig : dividedFigures) {
-					canvasState.addFigure(fig);
-				}
-				selectedFigure = null;
-				redrawCanvas();
-				statusPane.updateStatus("Figura dividida");
+			if (!selection.isEmpty()) {
+				List<Figure> figures = selectedFigures();
+				List<Figure> dividedFigures = BatchProcessor.flatMap(figures, Figure::divide);
+
+				// the originals go and the halves come in a single step
+				perform(new CompositeCommand(figuresName("Dividir figura"), List.of(
+						new DeleteFiguresCommand(canvasState, "Borrar figuras", figures),
+						new AddFiguresCommand(canvasState, "Agregar figuras", dividedFigures))));
+				selectFigure(null);
+				statusPane.updateStatus(figures.size() > 1 ? figures.size() + " figuras divididas" : "Figura dividida");
 			}
 		});
 
 		centerButton.setOnAction(event -> {
-			if (selectedFigure != null) {
-				selectedFigure.moveToCenter(canvas.getWidth(), canvas.getHeight());
-				redrawCanvas();
-				statusPane.updateStatus("Figura movida al centro");
+			if (!selection.isEmpty()) {
+				// to the center of what is on screen, as an offset so it can be undone. Several figures move
+				// together, the center of the box around all of them lands there
+				Bounds area = selectionBounds();
+				Bounds visible = canvas.getVisibleArea();
+				int moved = selection.size();
+				perform(new MoveCommand(figuresName("Centrar figura"), selectedFigures(),
+						visible.getMinX() + visible.getWidth() / 2 - (area.getMinX() + area.getWidth() / 2),
+						visible.getMinY() + visible.getHeight() / 2 - (area.getMinY() + area.getHeight() / 2)));
+				statusPane.updateStatus(moved > 1 ? "Figuras movidas al centro" : "Figura movida al centro");
 			}
 		});
 
 
 		// tool help messages
-		setToolHelp(selectionButton, "Seleccionar: Haga clic en una figura para editarla o arrastre para moverla");
+		setToolHelp(selectionButton, "Seleccionar: Haga clic en una figura para editarla o arrastre para moverla. Shift+clic suma o quita figuras, arrastrar sobre el fondo selecciona un área");
 		setToolHelp(rectangleButton, "Rectángulo: Arrastre el mouse para crear");
 		setToolHelp(circleButton, "Círculo: Arrastre desde el centro para definir el radio");
 		setToolHelp(squareButton, "Cuadrado: Arrastre para definir el tamaño");
 		setToolHelp(ellipseButton, "Elipse: Arrastre el área que contendrá la elipse");
-		setToolHelp(deleteButton, "Borrar: Elimina la figura seleccionada permanentemente");
+		setToolHelp(deleteButton, "Borrar: Elimina las figuras seleccionadas");
 
-		setToolHelp(duplicateButton, "Duplicar: Crea una copia exacta de la figura seleccionada");
-		setToolHelp(divideButton, "Dividir: Parte la figura seleccionada en dos mitades");
-		setToolHelp(centerButton, "Centrar: Mueve la figura seleccionada al centro del lienzo");
+		setToolHelp(duplicateButton, "Duplicar: Crea una copia exacta de las figuras seleccionadas");
+		setToolHelp(divideButton, "Dividir: Parte cada figura seleccionada en dos mitades");
+		setToolHelp(centerButton, "Centrar: Mueve las figuras seleccionadas al centro del lienzo");
 
 		setToolHelp(shadowBox, "Sombra: Elija un estilo de sombra para la figura");
 		setToolHelp(fillColorPicker1, "Color Primario: Relleno principal o inicio del degradado");
 		setToolHelp(fillColorPicker2, "Color Secundario: Color final del degradado");
 		setToolHelp(borderSlider, "Grosor: Ajuste el ancho del borde");
 		setToolHelp(borderBox, "Tipo de Borde: Elija el estilo de línea del contorno");
+		setToolHelp(filterField, "Filtro: todas las palabras deben estar (casa techo), a|b alguna de ellas, -a excluye la etiqueta");
 
 
 		// Layout Sidebar
@@ -271,8 +317,13 @@ public class PaintPane extends BorderPane {
 			info.setHeaderText("Paint JavaFX - Guía Rápida");
 			info.setContentText(
 					"ATAJOS DE TECLADO:\n" +
-							"• ESC: Deseleccionar figura\n" +
-							"• SUPR / BACKSPACE: Eliminar figura seleccionada\n\n" +
+							"• ESC: Deseleccionar figuras\n" +
+							"• SUPR / BACKSPACE: Eliminar figuras seleccionadas\n" +
+							"• SHIFT+clic: Sumar o quitar una figura de la selección\n" +
+							"• Arrastrar sobre el fondo: Seleccionar las figuras de un área\n" +
+							"• CTRL+Z / CTRL+Y: Deshacer / Rehacer\n" +
+							"• Rueda del mouse: Zoom, arrastrar con el botón derecho: Desplazar\n" +
+							"• 0: Volver a la vista inicial\n\n" +
 							"TRUCOS:\n" +
 							"• Modo Oscuro: Usa el botón 🌙 para descansar la vista\n\n" +
 							"PS:\n" +
@@ -312,20 +363,33 @@ public class PaintPane extends BorderPane {
 		);
 		setTop(topBar);
 
+		// mouse positions go through the viewport, figures live in world coordinates
 		canvas.setOnMousePressed(event -> {
-			startPoint = new Point(event.getX(), event.getY());
+			if (event.getButton() != MouseButton.PRIMARY) {
+				panning = true;
+				lastPanX = event.getX();
+				lastPanY = event.getY();
+				canvas.setCursor(Cursor.MOVE);
+				return;
+			}
+			startPoint = new Point(canvas.toWorldX(event.getX()), canvas.toWorldY(event.getY()));
+			lastDragX = startPoint.getX();
+			lastDragY = startPoint.getY();
+			dragDiffX = 0;
+			dragDiffY = 0;
+			if (selectionButton.isSelected()) pressSelection(startPoint, event.isShiftDown());
 		});
 
 		canvas.setOnMouseMoved(event -> {
-			Point eventPoint = new Point(event.getX(), event.getY());
-			boolean found = false;
+			Point eventPoint = new Point(canvas.toWorldX(event.getX()), canvas.toWorldY(event.getY()));
+			long hitTestStart = System.nanoTime();
+			List<Figure> hits = shownAt(eventPoint);
+			hitTestTime.record(System.nanoTime() - hitTestStart);
+			boolean found = !hits.isEmpty();
 			StringBuilder label = new StringBuilder();
 
-			for(Figure figure : canvasState.figures()) {
-				if(figure.contains(eventPoint)) {
-					found = true;
-					label.append(figure.toString());
-				}
+			for(Figure figure : hits) {
+				label.append(figure.toString());
 			}
 
 			if(found) {
@@ -342,87 +406,140 @@ public class PaintPane extends BorderPane {
 			}
 		});
 
-		canvas.setOnMouseClicked(event -> {
-			if(selectionButton.isSelected()) {
-				Point eventPoint = new Point(event.getX(), event.getY());
-				boolean found = false;
-				StringBuilder label = new StringBuilder("Se seleccionó: ");
-				for (Figure figure : canvasState.figures()) {
-					if(figure.contains(eventPoint)) {
-						found = true;
-						selectedFigure = figure;
-						label.append(figure.toString());
-					}
-				}
-				if (found) {
-					statusPane.updateStatus(label.toString());
-					fillColorPicker1.setValue(selectedFigure.getFillColor1());
-					fillColorPicker2.setValue(selectedFigure.getFillColor2());
-					shadowBox.setValue(selectedFigure.getShadowType());
-					borderBox.setValue(selectedFigure.getBorderType());
-					borderSlider.setValue(selectedFigure.getBorderWidth());
-                    tagsArea.setText(selectedFigure.getTagsString());
-				} else {
-					selectedFigure = null;
-                    tagsArea.clear();
-					statusPane.updateStatus("Ninguna figura encontrada");
-				}
-				redrawCanvas();
-			}
-		});
-
 		canvas.setOnMouseDragged(event -> {
-			Point eventPoint = new Point(event.getX(), event.getY());
-
-			// move logic
-			if (selectionButton.isSelected() && selectedFigure != null) {
-				double diffX = eventPoint.getX() - startPoint.getX();
-				double diffY = eventPoint.getY() - startPoint.getY();
-				selectedFigure.move(diffX, diffY);
+			if (panning) {
+				canvas.setDegraded(true);
+				canvas.pan(event.getX() - lastPanX, event.getY() - lastPanY);
+				lastPanX = event.getX();
+				lastPanY = event.getY();
+				renderScheduler.requestRender();
+				return;
+			}
+			double worldX = canvas.toWorldX(event.getX()), worldY = canvas.toWorldY(event.getY());
+
+			// move logic, translated in place without creating objects
+			if (selectionButton.isSelected() && movingSelection) {
+				double diffX = worldX - lastDragX;
+				double diffY = worldY - lastDragY;
+				canvas.setDegraded(true);
+				canvasState.beginTransaction();
+				try {
+					for (int i = 0; i < dragged.size(); i++) dragged.get(i).translate(diffX, diffY);
+				} finally {
+					canvasState.commitTransaction();
+				}
+				dragDiffX += diffX;
+				dragDiffY += diffY;
+				renderScheduler.requestRender();
 
-				// update startPoint for continuous movement
-				startPoint = eventPoint;
+				// update the last position for continuous movement
+				lastDragX = worldX;
+				lastDragY = worldY;
+			}
 
-				redrawCanvas();
+			else if (selectionButton.isSelected() && selectingBand && startPoint != null) {
+				canvas.setSelectionBand(new Bounds(startPoint.getX(), startPoint.getY(), worldX, worldY));
+				renderScheduler.requestRender();
 			}
 
-			// drawing logic
-			else if (!selectionButton.isSelected()) {
-				previewFigure = createFigure(startPoint, eventPoint);
-				redrawCanvas();
+			// drawing logic, the ghost is created once and then reshaped in place
+			else if (!selectionButton.isSelected() && startPoint != null) {
+				Point eventPoint = new Point(worldX, worldY);
+				if (previewFigure == null) {
+					previewFigure = createFigure(startPoint, eventPoint);
+				} else {
+					previewFigure.reshape(startPoint, eventPoint);
+				}
+				canvas.setPreviewFigure(previewFigure);
+				renderScheduler.requestRender();
 			}
 		});
 
 		canvas.setOnMouseReleased(event -> {
-			Point endPoint = new Point(event.getX(), event.getY());
+			// full quality comes back where the drag left figures drawn with less detail
+			canvas.setDegraded(false);
+			renderScheduler.requestRender();
+			if (panning) {
+				panning = false;
+				canvas.setCursor(Cursor.DEFAULT);
+				return;
+			}
+			Point endPoint = new Point(canvas.toWorldX(event.getX()), canvas.toWorldY(event.getY()));
 			if(startPoint == null) return;
 
 			// only if we are in drawing mode, not selection
 			if (!selectionButton.isSelected()) {
-				Figure newFigure = createFigure(startPoint, endPoint);
+				// the ghost already has the final style, it becomes the new figure
+				Figure newFigure = previewFigure;
+				if (newFigure != null) {
+					newFigure.reshape(startPoint, endPoint);
+				} else {
+					newFigure = createFigure(startPoint, endPoint);
+				}
 
 				if (newFigure != null) {
-					canvasState.addFigure(newFigure);
+					perform(new AddFiguresCommand(canvasState, "Crear " + newFigure.getFigureName(), List.of(newFigure)));
+				}
+			} else if (movingSelection && (dragDiffX != 0 || dragDiffY != 0)) {
+				// the whole drag is one step, the figures are already where they were dropped
+				history.record(new MoveCommand(figuresName("Mover figura"), selectedFigures(), dragDiffX, dragDiffY, true));
+				dragDiffX = 0;
+				dragDiffY = 0;
+			} else if (selectingBand) {
+				canvas.setSelectionBand(null);
+				if (endPoint.getX() != startPoint.getX() || endPoint.getY() != startPoint.getY()) {
+					selectInBand(new Bounds(startPoint.getX(), startPoint.getY(), endPoint.getX(), endPoint.getY()));
 				}
 			}
+			movingSelection = false;
+			dragged.clear();
+			selectingBand = false;
 
 			startPoint = null;
 			previewFigure = null; // erasing the ghost preview
-			redrawCanvas();
+			canvas.setPreviewFigure(null);
+			renderScheduler.requestRender();
 		});
 
 		deleteButton.setOnAction(event -> {
-			if (selectedFigure != null) {
-				canvasState.deleteFigure(selectedFigure);
-				selectedFigure = null;
-				redrawCanvas();
+			if (!selection.isEmpty()) {
+				perform(new DeleteFiguresCommand(canvasState, figuresName("Borrar figura"), selectedFigures()));
+				selectFigure(null);
 			}
 		});
 
 		setLeft(buttonsBox);
-		setRight(canvas);
+		// the HUD sits over the top left corner of the canvas and lets the mouse through
+		StackPane.setAlignment(metricsHud, Pos.TOP_LEFT);
+		StackPane.setMargin(metricsHud, new Insets(8));
+		setCenter(new StackPane(canvas, metricsHud));
+
+		// zoom around the mouse, one notch of the wheel is about 15%
+		canvas.setOnScroll(event -> {
+			if (event.getDeltaY() == 0) return;
+			canvas.zoom(Math.pow(1.0035, event.getDeltaY()), event.getX(), event.getY());
+			renderScheduler.requestRender();
+			statusPane.updateStatus(String.format("Zoom: %.0f%%", canvas.getViewport().getScale() * 100));
+		});
+
+		// the stage can be resized, the canvases follow on the next frame
+		canvas.widthProperty().addListener((obs, oldVal, newVal) -> renderScheduler.requestRender());
+		canvas.heightProperty().addListener((obs, oldVal, newVal) -> renderScheduler.requestRender());
 
 		// keyboard 'shortcuts'
+		// figures deleted by any means leave the selection, unless they came back in the same change.
+		// A deleted layer is reported as the layer, its figures are found by the layer they are in
+		canvasState.addListener(change -> {
+			if (change.isCleared() && !selection.isEmpty()) {
+				selection.clear();
+				selectionChanged();
+			} else if ((!change.getRemoved().isEmpty() || !change.getRemovedLayers().isEmpty()) && selection.removeIf(figure ->
+					(change.getRemoved().contains(figure) && !change.getAdded().contains(figure))
+							|| (change.getRemovedLayers().contains(figure.getLayer()) && !change.getRestoredLayers().contains(figure.getLayer())))) {
+				selectionChanged();
+			}
+		});
+
 		canvas.setFocusTraversable(true);
 		canvas.addEventFilter(javafx.scene.input.MouseEvent.ANY, e -> canvas.requestFocus());
 		canvas.setOnKeyPressed(event -> {
@@ -430,19 +547,28 @@ public class PaintPane extends BorderPane {
 				case DELETE:
 				case BACK_SPACE:
 					//  Supr or Backspace: deletes the figure
-					if (selectedFigure != null) {
-						canvasState.deleteFigure(selectedFigure);
-						selectedFigure = null;
-						redrawCanvas();
-						statusPane.updateStatus("Figura eliminada con teclado");
+					if (!selection.isEmpty()) {
+						// counted first, the deleted figures leave the selection as the command runs
+						int deleted = selection.size();
+						perform(new DeleteFiguresCommand(canvasState, figuresName("Borrar figura"), selectedFigures()));
+						statusPane.updateStatus(deleted > 1 ? deleted + " figuras eliminadas con teclado"
+								: "Figura eliminada con teclado");
+						selectFigure(null);
 					}
 					break;
 
+				case DIGIT0:
+				case NUMPAD0:
+					canvas.resetViewport();
+					renderScheduler.requestRender();
+					statusPane.updateStatus("Vista inicial");
+					break;
+
 				case ESCAPE:
 					// Esc: deselects any selected figure
-					if (selectedFigure != null) {
-						selectedFigure = null;
-						redrawCanvas();
+					if (!selection.isEmpty()) {
+						selectFigure(null);
+						renderScheduler.requestRender();
 						statusPane.updateStatus("Ninguna figura seleccionada");
 					}
 					break;
@@ -455,15 +581,16 @@ public class PaintPane extends BorderPane {
         saveTagsBtn.setMaxWidth(Double.MAX_VALUE);
 
         saveTagsBtn.setOnAction(e -> {
-            if (selectedFigure != null) {
+            if (!selection.isEmpty()) {
                 // Separa el texto por espacios o saltos de línea [cite: 322, 323]
                 String[] parts = tagsArea.getText().trim().split("\\s+");
                 List<String> newTags = new ArrayList<>();
                 for (String p : parts) {
                     if (!p.isEmpty()) newTags.add(p);
                 }
-                selectedFigure.replaceTags(newTags); // Reemplaza existentes [cite: 324]
-                statusPane.updateStatus("Etiquetas guardadas para " + selectedFigure.getFigureName());
+                perform(new TagsCommand(selectedFigures(), newTags)); // Reemplaza existentes [cite: 324]
+                statusPane.updateStatus("Etiquetas guardadas para " + (selection.size() > 1 ? selection.size() + " figuras"
+                        : selection.iterator().next().getFigureName()));
             }
         });
 
@@ -479,105 +606,261 @@ public class PaintPane extends BorderPane {
         });
 	}
 
-	private Stop[] getFilledStops(Figure figure) {
-		Stop[] stops = {new Stop(0, figure.getFillColor1()), new Stop(1, figure.getFillColor2())};
-		if (figure instanceof Ellipse) {
-			gc.setFill(new RadialGradient(0, 0, 0.5, 0.5, 0.5, true, CycleMethod.NO_CYCLE, stops));
-		} else {
-			gc.setFill(new LinearGradient(0, 0, 1, 0, true, CycleMethod.NO_CYCLE, stops));
-		}
-		return stops;
+	// a document was opened in place of the current one, every layer is repainted from the canvas state
+	public void documentLoaded() {
+		history.clear();
+		if (journal != null) journal.snapshot(); // the journal starts over from the new document
+		selectFigure(null);
+		previewFigure = null;
+		canvas.setPreviewFigure(null);
+		layerManager.loadLayers(canvasState.layers());
+		for (int layer : canvasState.layers()) canvas.damageLayer(layer);
+		redrawCanvas(); // damages every layer canvas, old ones are dropped on the next frame
 	}
 
-	// Draw logic
-	private void redrawCanvas() {
-		gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+	// what the exports take from the canvas: the area on screen, the visible layers and the tag filter
+	public Bounds getCanvasArea() {
+		return canvas.getVisibleArea();
+	}
 
-		List<Figure> sortedFigures = new ArrayList<>();
-		for (Figure f : canvasState.figures()) {
-			sortedFigures.add(f);
-		}
-		sortedFigures.sort(Comparator.comparingInt(Figure::getLayer));
+	public boolean isLayerVisible(int layer) {
+		return canvas.isLayerVisible(layer);
+	}
 
-        for (Figure figure : sortedFigures) {
-            boolean layerVisible = layerManager.isLayerVisible(figure.getLayer());
+	public DetailPolicy getDetailPolicy() {
+		return canvas.getDetailPolicy();
+	}
 
-            boolean tagsVisible = true;
-            if (soloFilterRb.isSelected()) {
-                String filterText = filterField.getText().trim().split("\\s+")[0]; // Solo primera palabra [cite: 328]
-                tagsVisible = !filterText.isEmpty() && figure.hasTag(filterText);
-            }
+	// after changing the thresholds of the detail policy
+	public void detailChanged() {
+		canvas.detailChanged();
+		renderScheduler.requestRender();
+	}
 
-            if (!layerVisible || !tagsVisible) {
-                continue;
-            }
+	public Predicate<Figure> getFilter() {
+		return canvas.getFilter();
+	}
 
-            if (figure.getShadowType() != ShadowType.NONE) {
-                double offset = 10.0;
-                double shadowX = 0; double shadowY = 0; Color shadowColor = Color.GRAY;
-                switch (figure.getShadowType()) {
-                    case SIMPLE: shadowX = offset; shadowY = offset; shadowColor = Color.GRAY; break;
-                    case COLORED: shadowX = offset; shadowY = offset; shadowColor = figure.getFillColor1().darker(); break;
-                    case SIMPLE_INVERSE: shadowX = -offset; shadowY = -offset; shadowColor = Color.GRAY; break;
-                    case COLORED_INVERSE: shadowX = -offset; shadowY = -offset; shadowColor = figure.getFillColor1().darker(); break;
-                    default: break;
-                }
-                gc.setFill(shadowColor); gc.setStroke(Color.TRANSPARENT);
-                drawFigureShape(figure, shadowX, shadowY);
-        }
-			Stop[] stops = getFilledStops(figure);
+	// the tag filter as typed, null when every figure is shown. A job parses it again against its own copy of the canvas
+	public String getFilterExpression() {
+		return soloFilterRb.isSelected() ? filterField.getText() : null;
+	}
 
-			if (figure == selectedFigure) {
-				gc.setStroke(Color.RED); gc.setLineDashes((double[]) null);
-			} else {
-				gc.setStroke(Color.BLACK);
-				if(figure.getBorderType() == BorderType.DOTTED_SIMPLE) gc.setLineDashes(10d);
-				else if(figure.getBorderType() == BorderType.DOTTED_COMPLEX) gc.setLineDashes(30d, 10d, 15d, 10d);
-				else gc.setLineDashes((double[]) null);
-			}
-			gc.setLineWidth(figure.getBorderWidth());
+	public MetricsRegistry getMetrics() {
+		return metrics;
+	}
+
+	public RenderScheduler getRenderScheduler() {
+		return renderScheduler;
+	}
+
+	public void setMetricsVisible(boolean visible) {
+		metricsHud.setVisible(visible);
+	}
+
+	public boolean isMetricsVisible() {
+		return metricsHud.isVisible();
+	}
+
+	// the metrics go to the file every second until stopMetricsCsv, a previous file there is rolled over
+	public void startMetricsCsv(Path file) throws IOException {
+		startMetricsCsv(new MetricsCsvWriter(metrics, file));
+	}
+
+	// a writer set up elsewhere over getMetrics(), as the one asked for when launching
+	public void startMetricsCsv(MetricsCsvWriter writer) {
+		stopMetricsCsv();
+		metricsCsv = writer;
+	}
 
-			drawFigureShape(figure, 0, 0);
+	// returns the writer that was stopped, null if none was running
+	public MetricsCsvWriter stopMetricsCsv() {
+		MetricsCsvWriter writer = metricsCsv;
+		metricsCsv = null;
+		if (writer != null) writer.close();
+		return writer;
+	}
+
+	public MetricsCsvWriter getMetricsCsv() {
+		return metricsCsv;
+	}
+
+	public History getHistory() {
+		return history;
+	}
+
+	// from now on every step of the history is autosaved
+	public void setJournal(Journal journal) {
+		this.journal = journal;
+		history.addStepListener(journal::commandApplied);
+	}
+
+	public Journal getJournal() {
+		return journal;
+	}
+
+	public void undo() {
+		Command command = history.peekUndo();
+		if (command == null) {
+			statusPane.updateStatus("No hay nada para deshacer");
+			return;
 		}
+		stepHistory(command, history::undo);
+		statusPane.updateStatus("Deshecho: " + command.getName());
+	}
 
-		if (previewFigure != null) {
-			gc.setGlobalAlpha(0.5);
+	public void redo() {
+		Command command = history.peekRedo();
+		if (command == null) {
+			statusPane.updateStatus("No hay nada para rehacer");
+			return;
+		}
+		stepHistory(command, history::redo);
+		statusPane.updateStatus("Rehecho: " + command.getName());
+	}
+
+	// the canvas repaints what the step changed, as one change
+	private void stepHistory(Command command, Runnable step) {
+		canvasState.inTransaction(step);
+		// the outlines of the selected figures may have moved, their style may be another one
+		selectionChanged();
+	}
 
-			Stop[] stops = getFilledStops(previewFigure);
+	// applies a command through the history, the canvas gets everything it changed as one change
+	private void perform(Command command) {
+		canvasState.inTransaction(() -> history.perform(command));
+		renderScheduler.requestRender();
+	}
 
-			gc.setStroke(Color.BLACK);
-			gc.setLineWidth(previewFigure.getBorderWidth());
-			if(previewFigure.getBorderType() == BorderType.DOTTED_SIMPLE) gc.setLineDashes(10d);
-			else if(previewFigure.getBorderType() == BorderType.DOTTED_COMPLEX) gc.setLineDashes(30d, 10d, 15d, 10d);
-			else gc.setLineDashes((double[]) null);
+	// a style change from the side panel to every selected figure, one step recorded only if it changed something
+	private void updateStyle(String name, Consumer<Figure> change) {
+		List<Figure> figures = selectedFigures();
+		List<FigureStyle> before = BatchProcessor.map(figures, FigureStyle::of);
+		canvasState.inTransaction(() -> {
+			for (Figure figure : figures) change.accept(figure);
+		});
+		renderScheduler.requestRender();
+		List<FigureStyle> after = BatchProcessor.map(figures, FigureStyle::of);
+		if (!after.equals(before)) history.record(new StyleCommand(name, figures, before, after));
+	}
 
-			drawFigureShape(previewFigure, 0, 0);
-			gc.setGlobalAlpha(1.0);
+	// a press with the selection tool. On a figure it selects it (shift adds it or takes it out) and a drag
+	// then moves the whole selection, on empty space a drag selects what is inside the rectangle
+	private void pressSelection(Point point, boolean shiftDown) {
+		List<Figure> hits = shownAt(point);
+		Figure hit = hits.isEmpty() ? null : hits.get(hits.size() - 1); // the topmost one
+		if (hit == null) {
+			if (!shiftDown) selectFigure(null);
+			selectingBand = true;
+			statusPane.updateStatus("Ninguna figura encontrada");
+			return;
 		}
+		if (shiftDown) {
+			if (!selection.remove(hit)) selection.add(hit);
+			selectionChanged();
+		} else {
+			if (!selection.contains(hit)) selectFigure(hit);
+			movingSelection = true;
+			dragged.clear();
+			dragged.addAll(selection);
+		}
+		StringBuilder label = new StringBuilder("Se seleccionó: ");
+		for (Figure figure : hits) {
+			label.append(figure.toString());
+		}
+		statusPane.updateStatus(selection.size() > 1 ? label + " (" + selection.size() + " figuras)" : label.toString());
 	}
 
-	private void drawFigureShape(Figure figure, double offsetX, double offsetY) {
+	// every figure shown entirely inside the band joins the selection, for large areas the test runs on the workers
+	// figures under the point that are on screen: hidden layers and figures the tag filter leaves out
+	// can't be pointed at, the same as in selectInBand
+	private List<Figure> shownAt(Point point) {
+		List<Figure> hits = canvasState.figuresAt(point);
+		hits.removeIf(figure -> !canvas.isLayerVisible(figure.getLayer()) || (tagQuery != null && !tagQuery.matches(figure)));
+		return hits;
+	}
 
-		if(figure instanceof Rectangle) {
-			Rectangle rectangle = (Rectangle) figure;
+	private void selectInBand(Bounds band) {
+		// the test runs on pool threads for large bands: layer visibility and the tag filter are
+		// resolved here, the workers only read these copies
+		Set<Integer> visibleLayers = new HashSet<>();
+		for (int layer : canvasState.layers()) if (canvas.isLayerVisible(layer)) visibleLayers.add(layer);
+		Set<Integer> visible = Set.copyOf(visibleLayers);
+		Predicate<Figure> tagged = tagQuery != null ? tagQuery.frozen() : figure -> true;
+		List<Figure> inside = BatchProcessor.filter(canvasState.figuresIn(band), figure ->
+				band.contains(figure.getMinX(), figure.getMinY(), figure.getMaxX(), figure.getMaxY())
+						&& visible.contains(figure.getLayer()) && tagged.test(figure));
+		selection.addAll(inside);
+		selectionChanged();
+		statusPane.updateStatus(selection.isEmpty() ? "Ninguna figura seleccionada" : selection.size() + " figuras seleccionadas");
+	}
 
-			// Geometry calculations removed from frontend (should use backend methods)
-			double width = rectangle.getWidth();
-			double height = rectangle.getHeight();
+	// a single figure, or none at all
+	private void selectFigure(Figure figure) {
+		selection.clear();
+		if (figure != null) selection.add(figure);
+		selectionChanged();
+	}
 
-			gc.fillRect(rectangle.getTopLeft().getX() + offsetX, rectangle.getTopLeft().getY() + offsetY, width, height);
-			if (offsetX == 0) gc.strokeRect(rectangle.getTopLeft().getX(), rectangle.getTopLeft().getY(), width, height);
+	// the side panel shows the style of the last selected figure and the tags every selected figure has
+	private void selectionChanged() {
+		canvas.setSelection(selection);
+		canvasState.setPinned(selection); // a lazy document must not page them out while selected
+		renderScheduler.requestRender();
+		if (selection.isEmpty()) {
+			tagsArea.clear();
+			return;
+		}
+		Figure last = null;
+		for (Figure figure : selection) last = figure;
+		showingSelection = true;
+		fillColorPicker1.setValue(last.getFillColor1());
+		fillColorPicker2.setValue(last.getFillColor2());
+		shadowBox.setValue(last.getShadowType());
+		borderBox.setValue(last.getBorderType());
+		borderSlider.setValue(last.getBorderWidth());
+		showingSelection = false;
+		List<String> common = new ArrayList<>(last.getTags());
+		for (Figure figure : selection) {
+			if (common.isEmpty()) break;
+			common.retainAll(figure.getTags());
+		}
+		tagsArea.setText(String.join(" ", common));
+	}
 
-		} else if(figure instanceof Ellipse) {
-			Ellipse ellipse = (Ellipse) figure;
-			double width = ellipse.getsAxisX();
-			double height = ellipse.getsAxisY();
-			double x = (ellipse.getCenterPoint().getX() - (width / 2)) + offsetX;
-			double y = (ellipse.getCenterPoint().getY() - (height / 2)) + offsetY;
+	private List<Figure> selectedFigures() {
+		return new ArrayList<>(selection);
+	}
 
-			gc.fillOval(x, y, width, height);
-			if (offsetX == 0) gc.strokeOval(x - offsetX, y - offsetY, width, height);
+	// box around every selected figure
+	private Bounds selectionBounds() {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		for (Figure figure : selection) {
+			minX = Math.min(minX, figure.getMinX());
+			minY = Math.min(minY, figure.getMinY());
+			maxX = Math.max(maxX, figure.getMaxX());
+			maxY = Math.max(maxY, figure.getMaxY());
+		}
+		return new Bounds(minX, minY, maxX, maxY);
+	}
+
+	// name of a step over the selection, in plural when it takes several figures
+	private String figuresName(String name) {
+		return selection.size() > 1 ? name + "s" : name;
+	}
+
+	// the tag filter can show or hide figures anywhere on the canvas
+	private void redrawCanvas() {
+		if (soloFilterRb.isSelected()) {
+			// parsed once here, each figure then costs a single bit lookup
+			tagQuery = canvasState.tagQuery(filterField.getText());
+			canvas.setFilter(tagQuery::matches, tagQuery::matchesTags);
+		} else {
+			tagQuery = null;
+			canvas.setFilter(figure -> true, null);
 		}
+		renderScheduler.requestRender();
 	}
 
 	private Figure createFigure(Point start, Point end) {
@@ -1,12 +1,14 @@
 package frontend;
 
 import javafx.geometry.Pos;
+import javafx.scene.control.Button;
 import javafx.scene.control.Label;
 import javafx.scene.layout.BorderPane;
 
 public class StatusPane extends BorderPane {
 
 	private final Label statusLabel;
+	private final Button cancelButton;
 
 	public StatusPane() {
 		setStyle("-fx-background-color: #999;");
@@ -14,10 +16,20 @@ public class StatusPane extends BorderPane {
 		statusLabel.setAlignment(Pos.CENTER);
 		statusLabel.setStyle("-fx-font-size: 16");
 		setCenter(statusLabel);
+		cancelButton = new Button("Cancelar");
+		setRight(cancelButton);
+		setCancelAction(null);
 	}
 	
 	public void updateStatus(String text) {
 		statusLabel.setText(text);
 	}
 
+	// the button is only there while something can be cancelled, null takes it away
+	public void setCancelAction(Runnable action) {
+		cancelButton.setOnAction(action == null ? null : event -> action.run());
+		cancelButton.setVisible(action != null);
+		cancelButton.setManaged(action != null);
+	}
+
 }
\ No newline at end of file
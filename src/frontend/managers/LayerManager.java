@@ -1,23 +1,29 @@
 package frontend.managers;
 
 import backend.CanvasState;
-import backend.model.Figure;
+import backend.history.DeleteLayerCommand;
+import backend.history.History;
 import frontend.StatusPane;
+import frontend.render.RenderScheduler;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
 import javafx.scene.layout.HBox;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
 
 public class LayerManager extends HBox {
 
 
     private final CanvasState canvasState;
     private final StatusPane statusPane;
-    private final Runnable redrawCallback;
+    private final RenderScheduler renderScheduler;
+    private final BiConsumer<Integer, Boolean> visibilityCallback;
+    private final History history;
 
 
     private int currentLayer = 0;
@@ -33,10 +39,13 @@ public class LayerManager extends HBox {
     private final Button addLayerBtn = new Button("Agregar Capa");
     private final Button deleteLayerBtn = new Button("Eliminar Capa");
 
-    public LayerManager(CanvasState canvasState, StatusPane statusPane, Runnable redrawCallback) {
+    public LayerManager(CanvasState canvasState, StatusPane statusPane, RenderScheduler renderScheduler,
+                        BiConsumer<Integer, Boolean> visibilityCallback, History history) {
         this.canvasState = canvasState;
         this.statusPane = statusPane;
-        this.redrawCallback = redrawCallback;
+        this.renderScheduler = renderScheduler;
+        this.visibilityCallback = visibilityCallback;
+        this.history = history;
 
         this.setSpacing(10);
         this.setAlignment(Pos.CENTER_LEFT);
@@ -73,12 +82,14 @@ public class LayerManager extends HBox {
 
         showLayerRb.setOnAction(e -> {
             layersVisibility.put(currentLayer, true);
-            redrawCallback.run();
+            visibilityCallback.accept(currentLayer, true); // layers are cached, no full repaint needed
+            renderScheduler.requestRender();
         });
 
         hideLayerRb.setOnAction(e -> {
             layersVisibility.put(currentLayer, false);
-            redrawCallback.run();
+            visibilityCallback.accept(currentLayer, false);
+            renderScheduler.requestRender();
         });
 
         // Botón Agregar
@@ -122,28 +133,51 @@ public class LayerManager extends HBox {
         Alert alert = new Alert(Alert.AlertType.CONFIRMATION);
         alert.setTitle("Eliminar Capa");
         alert.setHeaderText("¿Estás seguro de eliminar la Capa " + (currentLayer + 1) + "?");
-        alert.setContentText("Esta acción borrará todas las figuras de la capa y no se puede deshacer");
+        alert.setContentText("Esta acción borrará todas las figuras de la capa (se puede deshacer con Ctrl+Z)");
 
         alert.showAndWait().ifPresent(response -> {
             if (response == ButtonType.OK) {
-                List<Figure> toDelete = new ArrayList<>();
-                for (Figure f : canvasState.figures()) {
-                    if (f.getLayer() == currentLayer) toDelete.add(f);
-                }
-                for (Figure f : toDelete) canvasState.deleteFigure(f);
-
-                layersVisibility.remove(currentLayer);
-                availableLayers.remove((Integer) currentLayer);
-
-                updateLayersBox();
-                layersBox.getSelectionModel().selectFirst();
-
-                redrawCallback.run();
+                int layer = currentLayer;
+                // the layer list follows the command when it is undone or redone from the menu
+                history.perform(new DeleteLayerCommand(canvasState, layer) {
+                    @Override
+                    public void redo() {
+                        super.redo();
+                        getDeletedLayer().setVisible(isLayerVisible(layer));
+                        removeLayer(layer);
+                    }
+
+                    @Override
+                    public void undo() {
+                        super.undo();
+                        restoreLayer(layer, getDeletedLayer().isVisible());
+                    }
+                });
+                renderScheduler.requestRender();
                 statusPane.updateStatus("Capa eliminada");
             }
         });
     }
 
+    private void removeLayer(int layer) {
+        layersVisibility.remove(layer);
+        availableLayers.remove((Integer) layer);
+        updateLayersBox();
+        layersBox.getSelectionModel().selectFirst();
+    }
+
+    // back shown or hidden, as it was when it was deleted
+    private void restoreLayer(int layer, boolean visible) {
+        if (!availableLayers.contains(layer)) availableLayers.add(layer);
+        layersVisibility.put(layer, visible);
+        visibilityCallback.accept(layer, visible);
+        updateLayersBox();
+        layersBox.getSelectionModel().select(availableLayers.indexOf(layer));
+        // the box may have been on it already, then the listener does not tell the buttons
+        showLayerRb.setSelected(visible);
+        hideLayerRb.setSelected(!visible);
+    }
+
     private void updateLayersBox() {
         String selected = layersBox.getValue();
         layersBox.getItems().clear();
@@ -159,6 +193,24 @@ public class LayerManager extends HBox {
     }
 
 
+    // after opening a document: the fixed layers plus the ones in the file, all of them visible
+    public void loadLayers(Collection<Integer> layers) {
+        for (Map.Entry<Integer, Boolean> entry : layersVisibility.entrySet()) {
+            if (!entry.getValue()) visibilityCallback.accept(entry.getKey(), true);
+        }
+        availableLayers.clear();
+        layersVisibility.clear();
+        initializeState();
+        for (Integer layer : layers) {
+            if (!availableLayers.contains(layer)) availableLayers.add(layer);
+            layersVisibility.put(layer, true);
+            nextLayerId = Math.max(nextLayerId, layer + 1);
+        }
+        updateLayersBox();
+        layersBox.getSelectionModel().selectFirst();
+        showLayerRb.setSelected(true);
+    }
+
     public int getCurrentLayer() {
         return currentLayer;
     }
@@ -0,0 +1,90 @@
+package frontend.render;
+
+import backend.render.Renderer;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.CycleMethod;
+import javafx.scene.paint.LinearGradient;
+import javafx.scene.paint.RadialGradient;
+import javafx.scene.paint.Stop;
+
+// Renderer over the GraphicsContext of a JavaFX canvas
+public class FxRenderer implements Renderer {
+
+    private final GraphicsContext gc;
+    // gradient paints created since the last takeGradientCount, each fill makes a new one
+    private long gradients = 0;
+
+    public FxRenderer(GraphicsContext gc) {
+        this.gc = gc;
+    }
+
+    @Override
+    public void setFill(Color color) {
+        gc.setFill(color);
+    }
+
+    // proportional gradients already follow the shape they fill, the bounds are not needed
+    @Override
+    public void setLinearGradientFill(Color from, Color to, double x, double y, double width, double height) {
+        gradients++;
+        gc.setFill(new LinearGradient(0, 0, 1, 0, true, CycleMethod.NO_CYCLE, stops(from, to)));
+    }
+
+    @Override
+    public void setRadialGradientFill(Color from, Color to, double x, double y, double width, double height) {
+        gradients++;
+        gc.setFill(new RadialGradient(0, 0, 0.5, 0.5, 0.5, true, CycleMethod.NO_CYCLE, stops(from, to)));
+    }
+
+    @Override
+    public void setStroke(Color color) {
+        gc.setStroke(color);
+    }
+
+    @Override
+    public void setLineWidth(double width) {
+        gc.setLineWidth(width);
+    }
+
+    @Override
+    public void setLineDashes(double... dashes) {
+        gc.setLineDashes(dashes == null || dashes.length == 0 ? null : dashes);
+    }
+
+    @Override
+    public void setGlobalAlpha(double alpha) {
+        gc.setGlobalAlpha(alpha);
+    }
+
+    @Override
+    public void fillRect(double x, double y, double width, double height) {
+        gc.fillRect(x, y, width, height);
+    }
+
+    @Override
+    public void strokeRect(double x, double y, double width, double height) {
+        gc.strokeRect(x, y, width, height);
+    }
+
+    @Override
+    public void fillOval(double x, double y, double width, double height) {
+        gc.fillOval(x, y, width, height);
+    }
+
+    @Override
+    public void strokeOval(double x, double y, double width, double height) {
+        gc.strokeOval(x, y, width, height);
+    }
+
+    // how many gradients were created since the last call
+    public long takeGradientCount() {
+        long count = gradients;
+        gradients = 0;
+        return count;
+    }
+
+    private static Stop[] stops(Color from, Color to) {
+        return new Stop[]{new Stop(0, from), new Stop(1, to)};
+    }
+}
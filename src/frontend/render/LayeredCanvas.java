@@ -0,0 +1,501 @@
+package frontend.render;
+
+import backend.CanvasChange;
+import backend.CanvasState;
+import backend.ColumnarFigureStore;
+import backend.LazyDocument;
+import backend.MetricsRegistry;
+import backend.model.Bounds;
+import backend.model.Figure;
+import backend.model.ShadowType;
+import backend.render.DamageRegion;
+import backend.render.DetailPolicy;
+import backend.render.FigureDrawer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.shape.Rectangle;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+// One offscreen canvas per layer, stacked in layer order and composited by the scene graph.
+// Only the damaged area of a changed layer is re-rasterized, the other layers are reused as they are.
+// Hiding a layer just hides its canvas.
+// Transient content (creation preview, selection outlines, rubber band) lives in an overlay canvas on top,
+// so it never touches the layer rasters.
+// The canvases are as big as the pane and show the world through a Viewport. Damage is kept in world
+// coordinates and cut to the visible area before painting, so figures outside the view are never
+// queried nor drawn: a frame costs what is visible, not what is in the document.
+// The damage comes from the changes the canvas state reports, so whoever edits the figures does not need
+// to know what is on screen.
+// Each figure is drawn with the level of detail its size on screen is worth (see DetailPolicy). While degraded
+// (during a drag) nothing gets the full effects, the areas drawn that way are painted again once it ends.
+// Every frame leaves its numbers in a MetricsRegistry: how long it took and what it allocated, and of the figures
+// of the repainted layers how many were drawn, culled (outside the repainted area) or filtered out.
+// A lazy document viewed so far out that paging it in would go over its resident cap is drawn from its columns
+// instead (see LazyDocument.forEachRow): no figure is made for those rows, at most a flat box or a point each.
+public class LayeredCanvas extends Pane {
+
+    // names of the metrics of the last frame
+    public static final String FRAME_TIME = "frame.time";
+    public static final String FRAMES = "frame.count";
+    public static final String FRAME_DRAWN = "frame.figures.drawn";
+    public static final String FRAME_CULLED = "frame.figures.culled";
+    public static final String FRAME_LAYER_FILTERED = "frame.figures.filtered.layer";
+    public static final String FRAME_TAG_FILTERED = "frame.figures.filtered.tag";
+    public static final String FRAME_LOD_HIDDEN = "frame.figures.hidden.lod";
+    public static final String FRAME_SHADOWS = "frame.shadows";
+    public static final String FRAME_GRADIENTS = "frame.gradients";
+    public static final String FRAME_ALLOCATED = "frame.allocated.bytes";
+
+    private final CanvasState canvasState;
+    private final FigureDrawer drawer;
+    private final DetailPolicy detailPolicy;
+    private boolean degraded = false;
+    private final Viewport viewport = new Viewport();
+    // size of the canvases in screen pixels, follows the size of the pane
+    private double canvasWidth, canvasHeight;
+
+    private final NavigableMap<Integer, LayerCanvas> layers = new TreeMap<>();
+    private final Map<Integer, Boolean> layersVisibility = new HashMap<>();
+
+    private final Canvas overlay;
+    private final GraphicsContext overlayGc;
+    private final FxRenderer overlayRenderer;
+    private Bounds overlayDrawnArea;
+    private boolean overlayDirty = false;
+
+    private Predicate<Figure> filter = figure -> true;
+    // the same filter on the tags of a row drawn without its figure, null lets every row through
+    private Predicate<List<String>> tagsFilter;
+    // color of the last row drawn from a document, consecutive rows often share it
+    private int lastRowArgb;
+    private Color lastRowColor;
+    // read, not copied: the owner calls setSelection again after changing it
+    private Set<Figure> selection = Set.of();
+    private Bounds selectionBand;
+    private Figure previewFigure;
+
+    private final MetricsRegistry.Timer frameTime;
+    private final MetricsRegistry.Counter frames;
+    private final MetricsRegistry.Gauge drawnGauge, culledGauge, layerFilteredGauge, tagFilteredGauge, lodHiddenGauge,
+            shadowsGauge, gradientsGauge, allocatedGauge;
+    // counted by paintLayer during the current frame
+    private long drawn, culled, tagFiltered, lodHidden, shadows;
+
+    private static class LayerCanvas {
+        private final Canvas canvas;
+        private final GraphicsContext gc;
+        private final FxRenderer renderer;
+        private final DamageRegion damage = new DamageRegion();
+        // drawn with less detail while degraded, to be painted again in full
+        private final DamageRegion degradedArea = new DamageRegion();
+
+        private LayerCanvas(double width, double height) {
+            this.canvas = new Canvas(width, height);
+            this.gc = canvas.getGraphicsContext2D();
+            this.renderer = new FxRenderer(gc);
+            canvas.setMouseTransparent(true);
+        }
+
+        private void resize(double width, double height) {
+            canvas.setWidth(width);
+            canvas.setHeight(height);
+        }
+    }
+
+    public LayeredCanvas(CanvasState canvasState, FigureDrawer drawer, DetailPolicy detailPolicy, MetricsRegistry metrics,
+                         double width, double height) {
+        this.canvasState = canvasState;
+        this.drawer = drawer;
+        this.detailPolicy = detailPolicy;
+        this.frameTime = metrics.timer(FRAME_TIME);
+        this.frames = metrics.counter(FRAMES);
+        this.drawnGauge = metrics.gauge(FRAME_DRAWN);
+        this.culledGauge = metrics.gauge(FRAME_CULLED);
+        this.layerFilteredGauge = metrics.gauge(FRAME_LAYER_FILTERED);
+        this.tagFilteredGauge = metrics.gauge(FRAME_TAG_FILTERED);
+        this.lodHiddenGauge = metrics.gauge(FRAME_LOD_HIDDEN);
+        this.shadowsGauge = metrics.gauge(FRAME_SHADOWS);
+        this.gradientsGauge = metrics.gauge(FRAME_GRADIENTS);
+        this.allocatedGauge = metrics.gauge(FRAME_ALLOCATED);
+        this.canvasWidth = width;
+        this.canvasHeight = height;
+        setPrefSize(width, height);
+        setMinSize(1, 1);
+
+        overlay = new Canvas(width, height);
+        overlay.setMouseTransparent(true);
+        overlayGc = overlay.getGraphicsContext2D();
+        overlayRenderer = new FxRenderer(overlayGc);
+        getChildren().add(overlay);
+        canvasState.addListener(this::canvasChanged);
+
+        // the canvases may be bigger than the pane for a moment while it shrinks
+        Rectangle clip = new Rectangle();
+        clip.widthProperty().bind(widthProperty());
+        clip.heightProperty().bind(heightProperty());
+        setClip(clip);
+    }
+
+    public double getCanvasWidth() { return canvasWidth; }
+
+    public double getCanvasHeight() { return canvasHeight; }
+
+    public Viewport getViewport() { return viewport; }
+
+    // area of the world on screen right now
+    public Bounds getVisibleArea() {
+        return viewport.visibleArea(canvasWidth, canvasHeight);
+    }
+
+    public double toWorldX(double screenX) { return viewport.toWorldX(screenX); }
+
+    public double toWorldY(double screenY) { return viewport.toWorldY(screenY); }
+
+    // zoom around a point of the screen, as the one under the mouse
+    public void zoom(double factor, double screenX, double screenY) {
+        if (viewport.zoom(factor, screenX, screenY)) viewportChanged();
+    }
+
+    public void pan(double screenDiffX, double screenDiffY) {
+        viewport.pan(screenDiffX, screenDiffY);
+        viewportChanged();
+    }
+
+    public void resetViewport() {
+        viewport.reset();
+        viewportChanged();
+    }
+
+    public DetailPolicy getDetailPolicy() { return detailPolicy; }
+
+    // cheaper frames while the user drags, full quality comes back where it was missing when it ends
+    public void setDegraded(boolean degraded) {
+        if (this.degraded == degraded) return;
+        this.degraded = degraded;
+        if (!degraded) {
+            for (LayerCanvas layerCanvas : layers.values()) layerCanvas.damage.add(layerCanvas.degradedArea.take());
+        }
+    }
+
+    public boolean isDegraded() { return degraded; }
+
+    // the thresholds changed, everything visible may be drawn at another level
+    public void detailChanged() {
+        damageAll();
+    }
+
+    // the canvases follow the size of the pane, everything visible is painted again
+    @Override
+    protected void layoutChildren() {
+        super.layoutChildren();
+        double width = Math.max(1, Math.ceil(getWidth())), height = Math.max(1, Math.ceil(getHeight()));
+        if (width == canvasWidth && height == canvasHeight) return;
+        canvasWidth = width;
+        canvasHeight = height;
+        overlay.setWidth(width);
+        overlay.setHeight(height);
+        for (LayerCanvas layerCanvas : layers.values()) layerCanvas.resize(width, height);
+        viewportChanged();
+    }
+
+    private void viewportChanged() {
+        damageAll();
+        overlayDirty = true;
+        overlayDrawnArea = null;
+        overlayGc.clearRect(0, 0, canvasWidth, canvasHeight);
+    }
+
+    // marks the area the figure currently paints on as damaged in its layer
+    public void damage(Figure figure) {
+        if (figure == null) return;
+        drawer.addRenderBounds(figure, layerCanvas(figure.getLayer()).damage);
+        if (selection.contains(figure)) overlayDirty = true;
+    }
+
+    // every change is damaged where the figure painted before and where it paints now.
+    // A drag reports a move per mouse event, so the empty parts are skipped without an iterator
+    private void canvasChanged(CanvasChange change) {
+        if (change.isCleared()) damageAll();
+        // a whole layer went or came back, its canvas is repainted once instead of around each figure
+        if (!change.getRemovedLayers().isEmpty()) for (int layer : change.getRemovedLayers()) damageLayer(layer);
+        if (!change.getRestoredLayers().isEmpty()) for (int layer : change.getRestoredLayers()) damageLayer(layer);
+        if (!change.getRemovedLayers().isEmpty() || !change.getRestoredLayers().isEmpty()) overlayDirty = true;
+        if (!change.getRemoved().isEmpty()) for (Figure figure : change.getRemoved()) damage(figure);
+        if (!change.getAdded().isEmpty()) for (Figure figure : change.getAdded()) damage(figure);
+        boolean layersChanged = !change.getOldLayers().isEmpty();
+        for (int i = 0; i < change.getMovedCount(); i++) {
+            Figure figure = change.getMoved(i);
+            Integer oldLayer = layersChanged ? change.getOldLayers().get(figure) : null;
+            drawer.addRenderBounds(figure, change.getOldMinX(i), change.getOldMinY(i), change.getOldMaxX(i), change.getOldMaxY(i),
+                    layerCanvas(oldLayer != null ? oldLayer : figure.getLayer()).damage);
+            damage(figure);
+        }
+        if (change.getStyleChanged().isEmpty() && !layersChanged && change.getOldTags().isEmpty()) return;
+        // the old style may have painted elsewhere (a shadow on the other side, a wider border), the widest margin covers it
+        for (Figure figure : change.getStyleChanged()) {
+            layerCanvas(figure.getLayer()).damage.add(figure.getBounds().expand(drawer.maxRenderMargin()));
+            if (selection.contains(figure)) overlayDirty = true;
+        }
+        for (Map.Entry<Figure, Integer> entry : change.getOldLayers().entrySet()) {
+            layerCanvas(entry.getValue()).damage.add(entry.getKey().getBounds().expand(drawer.maxRenderMargin()));
+            damage(entry.getKey());
+        }
+        // the tag filter may show or hide them now
+        for (Figure figure : change.getOldTags().keySet()) damage(figure);
+    }
+
+    public void damageLayer(int layer) {
+        layerCanvas(layer).damage.add(getVisibleArea());
+    }
+
+    public void damageAll() {
+        Bounds visible = getVisibleArea();
+        for (LayerCanvas layerCanvas : layers.values()) layerCanvas.damage.add(visible);
+    }
+
+    // re-rasterizes the damaged area of each visible layer, hidden layers keep their damage until shown
+    public void repaint() {
+        // the counts of the last frame are kept until another frame draws figures
+        for (Map.Entry<Integer, LayerCanvas> entry : layers.entrySet()) {
+            if (isLayerVisible(entry.getKey()) && !entry.getValue().damage.isEmpty()) {
+                detailPolicy.startFrame();
+                break;
+            }
+        }
+        for (Map.Entry<Integer, LayerCanvas> entry : layers.entrySet()) {
+            if (isLayerVisible(entry.getKey())) paintLayer(entry.getKey(), entry.getValue());
+        }
+        if (overlayDirty) paintOverlay();
+    }
+
+    public void setLayerVisible(int layer, boolean visible) {
+        layersVisibility.put(layer, visible);
+        LayerCanvas layerCanvas = layers.get(layer);
+        if (layerCanvas == null) return;
+        layerCanvas.canvas.setVisible(visible);
+        // pending damage of the layer (if any) gets painted in the next frame
+        if (!selection.isEmpty()) overlayDirty = true;
+    }
+
+    public boolean isLayerVisible(int layer) {
+        return layersVisibility.getOrDefault(layer, true);
+    }
+
+    // one frame: drops the canvases of deleted layers and repaints whatever is damaged
+    public void render() {
+        long start = System.nanoTime();
+        long allocatedBefore = MetricsRegistry.currentThreadAllocatedBytes();
+        drawn = culled = tagFiltered = lodHidden = shadows = 0;
+        syncLayers();
+        repaint();
+        frameEnded(start, allocatedBefore);
+    }
+
+    // the numbers of the frame go to the registry, hidden layers count as filtered out whole
+    private void frameEnded(long start, long allocatedBefore) {
+        long layerFiltered = 0, gradients = overlayRenderer.takeGradientCount();
+        for (int layer : canvasState.layers()) {
+            if (!isLayerVisible(layer)) layerFiltered += canvasState.figuresView(layer).size();
+        }
+        for (LayerCanvas layerCanvas : layers.values()) gradients += layerCanvas.renderer.takeGradientCount();
+        drawnGauge.set(drawn);
+        culledGauge.set(culled);
+        layerFilteredGauge.set(layerFiltered);
+        tagFilteredGauge.set(tagFiltered);
+        lodHiddenGauge.set(lodHidden);
+        shadowsGauge.set(shadows);
+        gradientsGauge.set(gradients);
+        long allocatedAfter = MetricsRegistry.currentThreadAllocatedBytes();
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) allocatedGauge.set(allocatedAfter - allocatedBefore);
+        frames.increment();
+        frameTime.record(System.nanoTime() - start);
+    }
+
+    // drops the canvases of layers that no longer exist in the canvas state
+    public void syncLayers() {
+        Iterator<Map.Entry<Integer, LayerCanvas>> it = layers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, LayerCanvas> entry = it.next();
+            if (!canvasState.layers().contains(entry.getKey())) {
+                getChildren().remove(entry.getValue().canvas);
+                it.remove();
+                overlayDirty = true; // selected figures may have gone with their layer
+            }
+        }
+    }
+
+    // a change of filter can show or hide figures anywhere, so every layer is damaged.
+    // tagsFilter is the filter tested on the tags of a row of a lazy document, null if every row passes
+    public void setFilter(Predicate<Figure> filter, Predicate<List<String>> tagsFilter) {
+        this.filter = filter;
+        this.tagsFilter = tagsFilter;
+        damageAll();
+        overlayDirty = true;
+    }
+
+    public Predicate<Figure> getFilter() {
+        return filter;
+    }
+
+    public void setSelection(Set<Figure> figures) {
+        selection = figures;
+        overlayDirty = true;
+    }
+
+    // rectangle being dragged to select figures, null once it is released
+    public void setSelectionBand(Bounds band) {
+        selectionBand = band;
+        overlayDirty = true;
+    }
+
+    // also called again with the same figure after it was reshaped in place
+    public void setPreviewFigure(Figure figure) {
+        previewFigure = figure;
+        overlayDirty = true;
+    }
+
+    // the overlay only holds a couple of figures, it is cleared where it was drawn last time and redrawn
+    private void paintOverlay() {
+        overlayDirty = false;
+        if (overlayDrawnArea != null) {
+            clearScreenArea(overlayGc, overlayDrawnArea);
+            overlayDrawnArea = null;
+        }
+        overlayGc.save();
+        applyViewport(overlayGc);
+        // only the outlines on screen, a large selection can reach far beyond the view
+        DamageRegion drawn = new DamageRegion();
+        Bounds visible = getVisibleArea().expand(drawer.maxRenderMargin());
+        for (Figure figure : selection) {
+            if (!visible.intersects(figure.getMinX(), figure.getMinY(), figure.getMaxX(), figure.getMaxY())
+                    || !canvasState.layers().contains(figure.getLayer())
+                    || !isLayerVisible(figure.getLayer()) || !filter.test(figure)) continue;
+            drawer.drawSelection(overlayRenderer, figure);
+            drawer.addRenderBounds(figure, drawn);
+        }
+        if (selectionBand != null) {
+            double pixel = 1 / viewport.getScale();
+            overlayGc.setStroke(Color.DODGERBLUE);
+            overlayGc.setLineWidth(pixel);
+            overlayGc.setLineDashes(4 * pixel);
+            overlayGc.setFill(Color.DODGERBLUE.deriveColor(0, 1, 1, 0.15));
+            overlayGc.fillRect(selectionBand.getMinX(), selectionBand.getMinY(), selectionBand.getWidth(), selectionBand.getHeight());
+            overlayGc.strokeRect(selectionBand.getMinX(), selectionBand.getMinY(), selectionBand.getWidth(), selectionBand.getHeight());
+            overlayGc.setLineDashes(null);
+            drawn.add(selectionBand.expand(pixel));
+        }
+        overlayDrawnArea = drawn.take();
+        if (previewFigure != null) {
+            drawer.drawPreview(overlayRenderer, previewFigure);
+            Bounds previewArea = drawer.renderBounds(previewFigure);
+            overlayDrawnArea = overlayDrawnArea == null ? previewArea : overlayDrawnArea.union(previewArea);
+        }
+        overlayGc.restore();
+    }
+
+    private void paintLayer(int layer, LayerCanvas layerCanvas) {
+        Bounds damaged = layerCanvas.damage.take();
+        if (damaged == null) return;
+        // culling: nothing outside the view is queried or drawn, damage there is simply dropped
+        Bounds area = damaged.intersection(getVisibleArea());
+        if (area == null) return;
+        GraphicsContext gc = layerCanvas.gc;
+
+        // cleared and clipped on whole screen pixels so no half cleared pixels are left at the edges
+        gc.save();
+        Bounds screenArea = clearScreenArea(gc, area);
+        gc.beginPath();
+        gc.rect(screenArea.getMinX(), screenArea.getMinY(), screenArea.getWidth(), screenArea.getHeight());
+        gc.clip();
+        area = new Bounds(viewport.toWorldX(screenArea.getMinX()), viewport.toWorldY(screenArea.getMinY()),
+                viewport.toWorldX(screenArea.getMaxX()), viewport.toWorldY(screenArea.getMaxY()));
+        applyViewport(gc);
+        if (degraded) layerCanvas.degradedArea.add(area);
+
+        // figuresIn already comes out in z-order. Whatever is not looked at here is culled
+        double scale = viewport.getScale();
+        long looked = 0;
+        Bounds queried = area.expand(drawer.maxRenderMargin());
+        // too far out to page in: the rows not in memory go first, under the figures that are
+        LazyDocument document = canvasState.getDocument();
+        if (document != null && document.isTooFarOut(queried)) paintRows(document, layer, layerCanvas.renderer, queried, scale);
+        for (Figure figure : canvasState.figuresIn(layer, queried)) {
+            if (!filter.test(figure)) {
+                tagFiltered++;
+                looked++;
+                continue;
+            }
+            if (!drawer.renderBounds(figure).intersects(area)) continue;
+            looked++;
+            switch (detailPolicy.levelFor(figure, scale, degraded)) {
+                case FULL:
+                    if (figure.getShadowType() != ShadowType.NONE) shadows++;
+                    drawer.draw(layerCanvas.renderer, figure);
+                    drawn++;
+                    break;
+                case FLAT: drawer.drawFlat(layerCanvas.renderer, figure); drawn++; break;
+                case POINT: drawer.drawPoint(layerCanvas.renderer, figure, 1 / scale); drawn++; break;
+                default: lodHidden++; break;
+            }
+        }
+        culled += Math.max(0, canvasState.figuresView(layer).size() - looked);
+        gc.restore();
+    }
+
+    // the rows of the layer straight from the columns of the document, as flat boxes or points: no figure is made
+    private void paintRows(LazyDocument document, int layer, FxRenderer renderer, Bounds area, double scale) {
+        document.forEachRow(layer, area, (row, round, minX, minY, maxX, maxY, fillArgb) -> {
+            if (tagsFilter != null && !tagsFilter.test(document.tagsOf(row))) {
+                tagFiltered++;
+                return;
+            }
+            if (fillArgb != lastRowArgb || lastRowColor == null) {
+                lastRowArgb = fillArgb;
+                lastRowColor = ColumnarFigureStore.unpackArgb(fillArgb);
+            }
+            switch (detailPolicy.levelFor(minX, minY, maxX, maxY, scale, degraded)) {
+                case HIDDEN: lodHidden++; return;
+                case POINT: drawer.drawPoint(renderer, minX, minY, maxX, maxY, lastRowColor, 1 / scale); break;
+                default: drawer.drawBox(renderer, round, minX, minY, maxX, maxY, lastRowColor); break;
+            }
+            drawn++;
+        });
+    }
+
+    // clears a world area on the screen, grown to whole pixels. Returns the screen rectangle cleared
+    private Bounds clearScreenArea(GraphicsContext gc, Bounds worldArea) {
+        double minX = Math.max(0, Math.floor(viewport.toScreenX(worldArea.getMinX())) - 1);
+        double minY = Math.max(0, Math.floor(viewport.toScreenY(worldArea.getMinY())) - 1);
+        double maxX = Math.min(canvasWidth, Math.ceil(viewport.toScreenX(worldArea.getMaxX())) + 1);
+        double maxY = Math.min(canvasHeight, Math.ceil(viewport.toScreenY(worldArea.getMaxY())) + 1);
+        gc.clearRect(minX, minY, maxX - minX, maxY - minY);
+        return new Bounds(minX, minY, maxX, maxY);
+    }
+
+    private void applyViewport(GraphicsContext gc) {
+        double scale = viewport.getScale();
+        gc.setTransform(scale, 0, 0, scale, -viewport.getOriginX() * scale, -viewport.getOriginY() * scale);
+    }
+
+    private LayerCanvas layerCanvas(int layer) {
+        LayerCanvas layerCanvas = layers.get(layer);
+        if (layerCanvas == null) {
+            layerCanvas = new LayerCanvas(canvasWidth, canvasHeight);
+            layerCanvas.canvas.setVisible(isLayerVisible(layer));
+            // children are kept in layer order, lower layers first and the overlay last
+            getChildren().add(layers.headMap(layer).size(), layerCanvas.canvas);
+            layers.put(layer, layerCanvas);
+        }
+        return layerCanvas;
+    }
+}
@@ -0,0 +1,54 @@
+package frontend.render;
+
+import javafx.animation.AnimationTimer;
+
+// Coalesces redraw requests: callers only mark the scene as dirty and
+// at most one repaint runs per pulse (screen refresh).
+// The timer is stopped while there is nothing to draw.
+public class RenderScheduler {
+
+    private final Runnable renderTask;
+    private final AnimationTimer timer;
+    private boolean dirty = false;
+
+    // how many repaints were asked for versus how many actually ran. Only the FX thread counts,
+    // the metrics read them from other threads too
+    private volatile long requestedFrames = 0;
+    private volatile long executedFrames = 0;
+
+    public RenderScheduler(Runnable renderTask) {
+        this.renderTask = renderTask;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                runFrame();
+            }
+        };
+    }
+
+    public void requestRender() {
+        requestedFrames++;
+        if (!dirty) {
+            dirty = true;
+            timer.start();
+        }
+    }
+
+    private void runFrame() {
+        timer.stop();
+        if (!dirty) return;
+        dirty = false;
+        executedFrames++;
+        renderTask.run();
+    }
+
+    public long getRequestedFrames() { return requestedFrames; }
+
+    public long getExecutedFrames() { return executedFrames; }
+
+    // executed is read first, a frame requested in between can only make the difference bigger, never negative
+    public long getCoalescedFrames() {
+        long executed = executedFrames;
+        return requestedFrames - executed;
+    }
+}
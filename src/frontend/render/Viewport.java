@@ -0,0 +1,56 @@
+package frontend.render;
+
+import backend.model.Bounds;
+
+// World-to-screen transform of the canvas: screen = (world - origin) * scale.
+// Figures always live in world coordinates, only painting and mouse events go through here.
+public class Viewport {
+
+    public static final double MIN_SCALE = 0.05;
+    public static final double MAX_SCALE = 32;
+
+    private double originX = 0, originY = 0;
+    private double scale = 1;
+
+    public double getOriginX() { return originX; }
+
+    public double getOriginY() { return originY; }
+
+    public double getScale() { return scale; }
+
+    public double toWorldX(double screenX) { return originX + screenX / scale; }
+
+    public double toWorldY(double screenY) { return originY + screenY / scale; }
+
+    public double toScreenX(double worldX) { return (worldX - originX) * scale; }
+
+    public double toScreenY(double worldY) { return (worldY - originY) * scale; }
+
+    // the world point under (screenX, screenY) stays where it is. False if the scale was already at its limit
+    public boolean zoom(double factor, double screenX, double screenY) {
+        double newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, scale * factor));
+        if (newScale == scale) return false;
+        double worldX = toWorldX(screenX), worldY = toWorldY(screenY);
+        scale = newScale;
+        originX = worldX - screenX / scale;
+        originY = worldY - screenY / scale;
+        return true;
+    }
+
+    // moves the view by a distance in screen pixels, the world follows the mouse
+    public void pan(double screenDiffX, double screenDiffY) {
+        originX -= screenDiffX / scale;
+        originY -= screenDiffY / scale;
+    }
+
+    public void reset() {
+        originX = 0;
+        originY = 0;
+        scale = 1;
+    }
+
+    // area of the world shown on a screen of the given size
+    public Bounds visibleArea(double width, double height) {
+        return new Bounds(originX, originY, toWorldX(width), toWorldY(height));
+    }
+}
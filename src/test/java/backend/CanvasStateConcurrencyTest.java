@@ -0,0 +1,177 @@
+package backend;
+
+import backend.model.Bounds;
+import backend.model.Figure;
+import backend.model.Point;
+import backend.model.Rectangle;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Reader threads copy the canvas and query their copies while this thread edits it, as the FX thread does
+// while a save or an export runs in the background.
+class CanvasStateConcurrencyTest {
+
+    private static final int FIGURES = 5_000;
+    private static final int READERS = 4;
+    private static final long RUN_NANOS = 2_000_000_000L;
+    // the figures are 10 apart along a row, this area holds the first 101 of them wherever the row is
+    private static final Bounds FIRST_FIGURES = new Bounds(-1, -1e9, 1_001, 1e9);
+
+    @Test
+    void readersSeeWholeTransactions() throws InterruptedException {
+        CanvasState canvasState = new CanvasState();
+        List<Figure> figures = row(canvasState);
+        Queue<String> problems = new ConcurrentLinkedQueue<>();
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong snapshots = new AtomicLong();
+
+        List<Thread> readers = startReaders(stop, problems, () -> {
+            long lastVersion = -1;
+            while (!stop.get()) {
+                CanvasSnapshot snapshot = canvasState.snapshot();
+                if (snapshot.size() != FIGURES) problems.add("copia con " + snapshot.size() + " figuras");
+                if (snapshot.getVersion() < lastVersion) problems.add("la versión retrocedió");
+                lastVersion = snapshot.getVersion();
+                // a transaction moves every figure, a copy sees them all at the same height
+                ColumnarFigureStore.Cursor cursor = snapshot.cursor();
+                double minY = cursor.moveTo(0).getMinY();
+                for (int row = 0; row < snapshot.size(); row++) {
+                    cursor.moveTo(row);
+                    if (cursor.getMinY() != minY || cursor.getTagCount() != 1) {
+                        problems.add("transacción vista a medias en la fila " + row);
+                        break;
+                    }
+                }
+                int inArea = snapshot.figuresIn(FIRST_FIGURES).size();
+                if (inArea != 101) problems.add("figuresIn devolvió " + inArea + " figuras");
+                snapshots.incrementAndGet();
+            }
+        });
+
+        Random random = new Random(1);
+        long transactions = 0, start = System.nanoTime();
+        while (System.nanoTime() - start < RUN_NANOS) {
+            canvasState.inTransaction(() -> {
+                for (Figure figure : figures) figure.translate(0, 1);
+                // a figure replaced by a copy of itself keeps the size
+                int index = random.nextInt(figures.size());
+                Figure old = figures.get(index);
+                canvasState.deleteFigure(old);
+                Figure copy = rectangle(old.getMinX(), old.getMinY());
+                canvasState.addFigure(copy);
+                figures.set(index, copy);
+            });
+            transactions++;
+            Thread.sleep(1);
+        }
+        stop.set(true);
+        for (Thread reader : readers) reader.join();
+
+        assertTrue(problems.isEmpty(), () -> problems.peek());
+        assertTrue(snapshots.get() > 0, "ningún lector llegó a copiar el dibujo");
+        assertTrue(transactions > 0);
+    }
+
+    // changes outside a transaction commit one by one, each under the write lock: a copy never sees a figure
+    // halfway through a move nor a broken canvas
+    @Test
+    void changesOutsideTransactionsKeepCopiesWhole() throws InterruptedException {
+        CanvasState canvasState = new CanvasState();
+        List<Figure> figures = row(canvasState);
+        Queue<String> problems = new ConcurrentLinkedQueue<>();
+        AtomicBoolean stop = new AtomicBoolean();
+
+        List<Thread> readers = startReaders(stop, problems, () -> {
+            while (!stop.get()) {
+                CanvasSnapshot snapshot = canvasState.snapshot();
+                int size = snapshot.size();
+                // one figure at a time is taken out and put back
+                if (size < FIGURES - 1 || size > FIGURES) problems.add("copia con " + size + " figuras");
+                Set<Integer> ids = new HashSet<>();
+                ColumnarFigureStore.Cursor cursor = snapshot.cursor();
+                for (int row = 0; row < size; row++) {
+                    if (!ids.add(snapshot.getId(row))) problems.add("id repetido " + snapshot.getId(row));
+                    cursor.moveTo(row);
+                    if (cursor.getMaxX() - cursor.getMinX() != 5 || cursor.getMaxY() - cursor.getMinY() != 5) {
+                        problems.add("figura movida a medias en la fila " + row);
+                    }
+                    // paint order: by layer, then by z-order within the layer
+                    if (row > 0) {
+                        int layer = cursor.moveTo(row).getLayer(), previousLayer = cursor.moveTo(row - 1).getLayer();
+                        if (layer < previousLayer || (layer == previousLayer && snapshot.getOrder(row) <= snapshot.getOrder(row - 1))) {
+                            problems.add("fuera de orden en la fila " + row);
+                            break;
+                        }
+                    }
+                }
+                snapshot.figuresIn(FIRST_FIGURES);
+            }
+        });
+
+        Random random = new Random(2);
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < RUN_NANOS) {
+            Figure figure = figures.get(random.nextInt(figures.size()));
+            switch (random.nextInt(4)) {
+                case 0: figure.translate(random.nextInt(11) - 5, random.nextInt(11) - 5); break;
+                case 1: figure.setLayer(random.nextInt(3)); break;
+                case 2: figure.replaceTags(List.of("t" + random.nextInt(5))); break;
+                default:
+                    canvasState.deleteFigure(figure);
+                    canvasState.addFigure(figure);
+                    break;
+            }
+        }
+        stop.set(true);
+        for (Thread reader : readers) reader.join();
+
+        assertTrue(problems.isEmpty(), () -> problems.peek());
+        assertEquals(FIGURES, canvasState.size());
+    }
+
+    private static List<Figure> row(CanvasState canvasState) {
+        List<Figure> figures = new ArrayList<>();
+        for (int i = 0; i < FIGURES; i++) {
+            Figure figure = rectangle(i * 10, 0);
+            canvasState.addFigure(figure);
+            figures.add(figure);
+        }
+        return figures;
+    }
+
+    private static Figure rectangle(double x, double y) {
+        Figure figure = new Rectangle(new Point(x, y), new Point(x + 5, y + 5));
+        figure.addTag("t");
+        return figure;
+    }
+
+    // an exception in a reader is a problem too
+    private static List<Thread> startReaders(AtomicBoolean stop, Queue<String> problems, Runnable read) {
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < READERS; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    read.run();
+                } catch (RuntimeException e) {
+                    problems.add(e.toString());
+                    stop.set(true);
+                }
+            }, "lector-" + i);
+            reader.start();
+            readers.add(reader);
+        }
+        return readers;
+    }
+}